@@ -0,0 +1,59 @@
+package org.paleozogt.camexample;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cycling a preview buffer through PreviewBufferPool against allocating a new one per frame,
+ * the way setPreviewCallback() makes the camera do. Four threads stand in for the preview
+ * callback and the save workers contending for the pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+@Threads(4)
+public class BufferPoolBenchmark {
+    @Param({ SyntheticFrames.VGA, SyntheticFrames.HD, SyntheticFrames.FULL_HD })
+    String size;
+
+    int frameSize;
+    PreviewBufferPool pool;
+
+    @Setup
+    public void setup() {
+        frameSize= PreviewBufferPool.frameSize(SyntheticFrames.width(size), SyntheticFrames.height(size), 12, false);
+        pool= new PreviewBufferPool(frameSize, 8);
+    }
+
+    @Benchmark
+    public byte[] pooled() {
+        byte[] buffer= pool.acquire();
+        if (buffer != null) {
+            buffer[0]= 1;
+            pool.release(buffer);
+        }
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] allocated() {
+        byte[] buffer= new byte[frameSize];
+        buffer[0]= 1;
+        return buffer;
+    }
+}
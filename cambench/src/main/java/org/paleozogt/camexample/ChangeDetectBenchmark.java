@@ -0,0 +1,48 @@
+package org.paleozogt.camexample;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The burst change gate, which runs on the preview callback and so has to stay well under a
+ * millisecond a frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+public class ChangeDetectBenchmark {
+    @Param({ SyntheticFrames.HD, SyntheticFrames.FULL_HD })
+    String size;
+
+    int width, height;
+    byte[][] frames;
+    FrameChangeDetector detector;
+    int next;
+
+    @Setup
+    public void setup() {
+        width= SyntheticFrames.width(size);
+        height= SyntheticFrames.height(size);
+        frames= new byte[][] { SyntheticFrames.nv21(width, height, 1), SyntheticFrames.nv21(width, height, 2) };
+        detector= new FrameChangeDetector(16, 8, 4.0);
+    }
+
+    @Benchmark
+    public boolean accept() {
+        return detector.accept(frames[next++ & 1], width, height, width);
+    }
+}
@@ -0,0 +1,76 @@
+package org.paleozogt.camexample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The per-frame save path (rotate then encode) with ImageSaver's reused per-worker buffers,
+ * against allocating a rotation buffer and a ByteArrayOutputStream for every frame as it used
+ * to. Run with the gc profiler to see the allocation rate difference.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 2)
+@Fork(1)
+public class EncodeBufferBenchmark {
+    @Param({ SyntheticFrames.VGA, SyntheticFrames.HD, SyntheticFrames.FULL_HD })
+    String size;
+
+    int width, height;
+    byte[] frame;
+    byte[] rotated;
+    ExecutorService executor;
+    StripedJpegEncoder encoder;
+    DirectByteOutputStream output;
+
+    @Setup
+    public void setup() {
+        width= SyntheticFrames.width(size);
+        height= SyntheticFrames.height(size);
+        frame= SyntheticFrames.nv21(width, height, 1);
+        rotated= new byte[frame.length];
+        executor= Executors.newSingleThreadExecutor();
+        encoder= new StripedJpegEncoder(executor, 1);
+        output= new DirectByteOutputStream(256 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int reusedBuffers() throws IOException {
+        YuvRotation.transformNV21(frame, rotated, width, height, 90, false);
+        output.reset();
+        encoder.encode(rotated, height, width, output);
+        return output.size();
+    }
+
+    @Benchmark
+    public int freshBuffers() throws IOException {
+        byte[] scratch= new byte[frame.length];
+        YuvRotation.transformNV21(frame, scratch, width, height, 90, false);
+        ByteArrayOutputStream stream= new ByteArrayOutputStream();
+        encoder.encode(scratch, height, width, stream);
+        return stream.toByteArray().length;
+    }
+}
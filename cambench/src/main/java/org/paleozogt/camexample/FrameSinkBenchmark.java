@@ -0,0 +1,79 @@
+package org.paleozogt.camexample;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing encoded frames through each FrameSink: a file per frame fsynced every frame or in
+ * batches, and the memory-mapped frame log. Files land in java.io.tmpdir, so results depend on
+ * what that's mounted on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 3, time= 2)
+@Measurement(iterations= 5, time= 2)
+@Fork(1)
+public class FrameSinkBenchmark {
+    // a 1080p JPEG at quality 95 is about this big
+    @Param({ "409600" })
+    int frameBytes;
+
+    @Param({ "files-sync1", "files-sync8", "frame-log" })
+    String sinkType;
+
+    File directory;
+    FrameSink sink;
+    ByteBuffer frame;
+    int frameId;
+
+    @Setup(Level.Iteration)
+    public void setup() throws IOException {
+        directory= File.createTempFile("cambench", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("can't create " + directory);
+        }
+        if (sinkType.equals("frame-log")) {
+            sink= new FrameLogSink(new File(directory, "frames.camlog"), 64 * 1024 * 1024);
+        } else {
+            sink= new FileChannelSink(directory, sinkType.equals("files-sync8") ? 8 : 1);
+        }
+        frame= ByteBuffer.allocateDirect(frameBytes);
+        frame.put(SyntheticFrames.encodedFrame(frameBytes, 1));
+        frame.flip();
+        frameId= 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        sink.close();
+        File[] files= directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        sink.write("Picture." + frameId++ + ".jpg", frame.duplicate());
+    }
+}
@@ -0,0 +1,69 @@
+package org.paleozogt.camexample;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StripedJpegEncoder at each preview size, with its stripes spread over 1 to 8 threads, to show
+ * how encode latency scales with cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 2)
+@Fork(1)
+public class JpegEncodeBenchmark {
+    @Param({ SyntheticFrames.VGA, SyntheticFrames.HD, SyntheticFrames.FULL_HD })
+    String size;
+
+    @Param({ "1", "2", "4", "8" })
+    int threads;
+
+    @Param({ "95" })
+    int quality;
+
+    int width, height;
+    byte[] frame;
+    ExecutorService executor;
+    StripedJpegEncoder encoder;
+    DirectByteOutputStream output;
+
+    @Setup
+    public void setup() {
+        width= SyntheticFrames.width(size);
+        height= SyntheticFrames.height(size);
+        frame= SyntheticFrames.nv21(width, height, 1);
+        executor= Executors.newFixedThreadPool(threads);
+        encoder= new StripedJpegEncoder(executor, threads);
+        encoder.setQuality(quality);
+        output= new DirectByteOutputStream(256 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        output.reset();
+        encoder.encode(frame, width, height, output);
+        return output.size();
+    }
+}
@@ -0,0 +1,65 @@
+package org.paleozogt.camexample;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What a per-frame Camera.getParameters() costs against reading the PreviewConfig snapshot.
+ * Off the device there's no camera to ask, so this measures the part we control: parsing the
+ * flattened parameter string getParameters() returns, which on a real phone comes on top of a
+ * binder call to the camera service.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+public class PreviewParametersBenchmark {
+    // trimmed from a Nexus 5's back camera
+    static final String FLATTENED=
+            "preview-size-values=1920x1080,1440x1080,1280x960,1280x768,1280x720,1024x768,800x600,"
+            + "800x480,720x480,640x480,352x288,320x240,176x144;preview-format-values=yuv420sp,"
+            + "yuv420p,yuv420sp-adreno,yuv422i-yuyv,yuv422sp,nv12,nv21;preview-fps-range-values="
+            + "(10000,30000),(15000,15000),(15000,30000),(30000,30000);picture-size-values=3264x2448,"
+            + "3264x1836,2592x1944,2048x1536,1920x1080,1600x1200,1280x768,1280x720,1024x768,800x600,"
+            + "800x480,720x480,640x480,352x288,320x240,176x144;preview-size=1920x1080;"
+            + "preview-format=yuv420sp;preview-frame-rate=30;focus-mode-values=fixed,auto,infinity,"
+            + "macro,continuous-video,continuous-picture;whitebalance-values=auto,incandescent,"
+            + "fluorescent,warm-fluorescent,daylight,cloudy-daylight,twilight,shade;"
+            + "antibanding-values=off,60hz,50hz,auto;effect-values=none,mono,negative,solarize,sepia,"
+            + "posterize,whiteboard,blackboard,aqua,emboss,sketch,neon;scene-mode-values=auto,asd,"
+            + "action,portrait,landscape,night,night-portrait,theatre,beach,snow,sunset,steadyphoto,"
+            + "fireworks,sports,party,candlelight,backlight,flowers,AR,hdr;recording-hint=false;"
+            + "video-size-values=1920x1080,1280x720,864x480,800x480,720x480,640x480,480x320,352x288,"
+            + "320x240,176x144;max-zoom=99;zoom-supported=true;exposure-compensation-step=0.166667;"
+            + "max-exposure-compensation=12;min-exposure-compensation=-12";
+
+    PreviewConfig snapshot;
+
+    @Setup
+    public void setup() {
+        snapshot= new PreviewConfig(0, 1920, 1080, PreviewConfig.FORMAT_NV21, 90, false);
+    }
+
+    @Benchmark
+    public int parseParameters() {
+        CameraCapabilities capabilities= CameraCapabilities.fromFlattened(0, FLATTENED);
+        return capabilities.getPreviewSizes().size();
+    }
+
+    @Benchmark
+    public int readSnapshot() {
+        return snapshot.width * snapshot.height + snapshot.format;
+    }
+}
@@ -0,0 +1,61 @@
+package org.paleozogt.camexample;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * YuvRotation's kernels: the tiled copy into a second buffer, and the in-place half turn.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 1)
+@Fork(1)
+public class RotationBenchmark {
+    @Param({ SyntheticFrames.VGA, SyntheticFrames.HD, SyntheticFrames.FULL_HD })
+    String size;
+
+    @Param({ "0", "90", "180", "270" })
+    int degrees;
+
+    @Param({ "false", "true" })
+    boolean mirror;
+
+    int width, height;
+    byte[] frame;
+    byte[] rotated;
+
+    @Setup
+    public void setup() {
+        width= SyntheticFrames.width(size);
+        height= SyntheticFrames.height(size);
+        frame= SyntheticFrames.nv21(width, height, 1);
+        rotated= new byte[frame.length];
+    }
+
+    @Benchmark
+    public byte[] transform() {
+        YuvRotation.transformNV21(frame, rotated, width, height, degrees, mirror);
+        return rotated;
+    }
+
+    /**
+     * What ImageSaver does with a scratch copy: in place when the rotation allows it.
+     */
+    @Benchmark
+    public byte[] pingPong() {
+        return YuvRotation.transformNV21PingPong(frame, rotated, width, height, degrees, mirror);
+    }
+}
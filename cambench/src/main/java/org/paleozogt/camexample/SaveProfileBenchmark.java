@@ -0,0 +1,95 @@
+package org.paleozogt.camexample;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A whole save (crop and scale, rotate, encode) under each of the app's save profiles, to show
+ * what each one buys in frames per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations= 5, time= 1)
+@Measurement(iterations= 5, time= 2)
+@Fork(1)
+public class SaveProfileBenchmark {
+    @Param({ SyntheticFrames.HD, SyntheticFrames.FULL_HD })
+    String size;
+
+    @Param({ "full", "half", "quarter", "center" })
+    String profileName;
+
+    int width, height;
+    byte[] frame;
+    byte[] scaled;
+    byte[] rotated;
+    SaveProfile profile;
+    ExecutorService executor;
+    StripedJpegEncoder encoder;
+    DirectByteOutputStream output;
+
+    @Setup
+    public void setup() {
+        width= SyntheticFrames.width(size);
+        height= SyntheticFrames.height(size);
+        frame= SyntheticFrames.nv21(width, height, 1);
+        scaled= new byte[frame.length];
+        rotated= new byte[frame.length];
+        if (profileName.equals("half")) {
+            profile= SaveProfile.scaled(profileName, 2, 90);
+        } else if (profileName.equals("quarter")) {
+            profile= SaveProfile.scaled(profileName, 4, 85);
+        } else if (profileName.equals("center")) {
+            profile= SaveProfile.centerCrop(profileName, 0.5f, 95);
+        } else {
+            profile= SaveProfile.scaled(profileName, 1, 95);
+        }
+        executor= Executors.newSingleThreadExecutor();
+        encoder= new StripedJpegEncoder(executor, 1);
+        encoder.setQuality(profile.quality);
+        output= new DirectByteOutputStream(256 * 1024);
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int save() throws IOException {
+        // the same steps as ImageSaver.yuvFromImage() and writeImage() for a back camera
+        int orientation= 90;
+        int w= width, h= height;
+        byte[] upright;
+        if (profile.isFullFrame()) {
+            YuvRotation.transformNV21(frame, rotated, w, h, orientation, false);
+            upright= rotated;
+        } else {
+            int[] crop= profile.sensorCrop(w, h, orientation, false);
+            YuvScaler.cropAndScaleNV21(frame, w, h, crop, profile.downscale, scaled);
+            w= crop[2] / profile.downscale;
+            h= crop[3] / profile.downscale;
+            upright= YuvRotation.transformNV21PingPong(scaled, rotated, w, h, orientation, false);
+        }
+        output.reset();
+        encoder.encode(upright, YuvRotation.rotatedWidth(w, h, orientation),
+                YuvRotation.rotatedHeight(w, h, orientation), output);
+        return output.size();
+    }
+}
@@ -0,0 +1,53 @@
+package org.paleozogt.camexample;
+
+import java.util.Random;
+
+/**
+ * Stand-ins for camera preview frames: smooth gradients with a little sensor-like noise, so
+ * encoders see roughly the entropy a real scene has rather than flat gray or pure noise.
+ */
+final class SyntheticFrames {
+    private SyntheticFrames() {}
+
+    // the preview sizes most phones offer
+    static final String VGA= "640x480";
+    static final String HD= "1280x720";
+    static final String FULL_HD= "1920x1080";
+
+    static int width(String size) {
+        return Integer.parseInt(size.substring(0, size.indexOf('x')));
+    }
+
+    static int height(String size) {
+        return Integer.parseInt(size.substring(size.indexOf('x') + 1));
+    }
+
+    static byte[] nv21(int width, int height, long seed) {
+        Random random= new Random(seed);
+        byte[] frame= new byte[YuvRotation.nv21Size(width, height)];
+        for (int y= 0; y < height; y++) {
+            for (int x= 0; x < width; x++) {
+                int luma= (x * 255 / width + y * 128 / height) / 2 + 48 + random.nextInt(8);
+                frame[y * width + x]= (byte)luma;
+            }
+        }
+        int ySize= width * height;
+        for (int y= 0; y < height / 2; y++) {
+            for (int x= 0; x < width / 2; x++) {
+                int idx= ySize + y * width + 2 * x;
+                frame[idx]= (byte)(128 + (x * 64 / width) - 16 + random.nextInt(4));
+                frame[idx + 1]= (byte)(128 - (y * 64 / height) + 16 + random.nextInt(4));
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * An approximate JPEG-sized payload for the sink benchmarks.
+     */
+    static byte[] encodedFrame(int length, long seed) {
+        byte[] frame= new byte[length];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+}
@@ -0,0 +1,158 @@
+package org.paleozogt.camexample;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed pool of worker threads fed through a bounded queue. When the queue is full the
+ * OverflowPolicy decides what gives: the oldest queued task, the task being submitted, or the
+ * submitting thread (which blocks until there's room).
+ *
+ * Tasks that are dropped get discard() called instead of run(), so they can hand back whatever
+ * they were holding on to (preview buffers, mostly).
+ */
+public class BoundedWorkQueue {
+    public enum OverflowPolicy { DROP_OLDEST, DROP_NEWEST, BLOCK }
+
+    // how often a producer blocked on a full queue checks for shutdown
+    static final long BLOCK_POLL_MS= 50;
+
+    public interface Task extends Runnable {
+        void discard();
+    }
+
+    protected final OverflowPolicy _policy;
+    protected final int _capacity;
+    protected final ThreadPoolExecutor _executor;
+
+    protected final AtomicLong _submittedCount= new AtomicLong();
+    protected final AtomicLong _completedCount= new AtomicLong();
+    protected final AtomicLong _droppedCount= new AtomicLong();
+
+    public BoundedWorkQueue(final String name, int workers, int capacity, OverflowPolicy policy) {
+        if (workers <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("bad queue size " + workers + " workers, " + capacity + " slots");
+        }
+        _policy= policy;
+        _capacity= capacity;
+        _executor= new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(capacity),
+                new ThreadFactory() {
+                    final AtomicInteger _threadId= new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread= new Thread(r, name + "-" + _threadId.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new OverflowHandler());
+    }
+
+    public OverflowPolicy getPolicy() { return _policy; }
+    public int getCapacity() { return _capacity; }
+    public int getQueueDepth() { return _executor.getQueue().size(); }
+    public long getSubmittedCount() { return _submittedCount.get(); }
+    public long getCompletedCount() { return _completedCount.get(); }
+    public long getDroppedCount() { return _droppedCount.get(); }
+
+    /**
+     * @return false if the task was dropped (DROP_NEWEST on a full queue, or after shutdown)
+     */
+    public boolean submit(final Task task) {
+        _submittedCount.incrementAndGet();
+        TaskRunner runner= new TaskRunner(task);
+        _executor.execute(runner);
+        return !runner._dropped;
+    }
+
+    /**
+     * Stops taking new work. Tasks already queued still run.
+     */
+    public void shutdown() {
+        _executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return _executor.awaitTermination(timeout, unit);
+    }
+
+    protected void drop(Runnable r) {
+        TaskRunner runner= (TaskRunner)r;
+        runner._dropped= true;
+        _droppedCount.incrementAndGet();
+        runner._task.discard();
+    }
+
+    protected class TaskRunner implements Runnable {
+        final Task _task;
+        volatile boolean _dropped;
+
+        TaskRunner(Task task) {
+            _task= task;
+        }
+
+        @Override
+        public void run() {
+            try {
+                _task.run();
+            } finally {
+                _completedCount.incrementAndGet();
+            }
+        }
+    }
+
+    protected class OverflowHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                drop(r);
+                return;
+            }
+
+            BlockingQueue<Runnable> queue= executor.getQueue();
+            switch (_policy) {
+            case DROP_NEWEST:
+                drop(r);
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(r)) {
+                    Runnable oldest= queue.poll();
+                    if (oldest != null) {
+                        drop(oldest);
+                    }
+                }
+                break;
+            case BLOCK:
+                try {
+                    // wait in slices, so a producer blocked when the queue shuts down gives up
+                    // instead of queueing work nobody will run
+                    while (!queue.offer(r, BLOCK_POLL_MS, TimeUnit.MILLISECONDS)) {
+                        if (executor.isShutdown()) {
+                            drop(r);
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    drop(r);
+                    return;
+                }
+                break;
+            }
+
+            // the workers may have seen an empty queue and quit since we checked; take the task
+            // back if it's still there, the way ThreadPoolExecutor.execute() does
+            if (executor.isShutdown() && queue.remove(r)) {
+                drop(r);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.paleozogt.camexample;
+
+import java.util.Locale;
+
+/**
+ * Decides which preview frames a burst saves (every Nth one, for a fixed duration) and keeps
+ * score of how many actually made it to disk, so we can report the rate the device sustained.
+ *
+ * Times are in milliseconds from whatever monotonic clock the caller uses.
+ */
+public class BurstCapture {
+    protected final int _frameInterval;
+    protected final long _durationMs;
+    protected long _minIntervalMs;
+    protected long _nextCaptureAt;
+
+    protected long _startedAt;
+    protected long _lastSavedAt;
+    protected int _frameCount;
+    protected int _capturedCount;
+    protected int _savedCount;
+    protected int _droppedCount;
+    protected int _skippedCount;
+
+    /**
+     * @param frameInterval save every frameInterval'th preview frame (1 saves every frame)
+     */
+    public BurstCapture(int frameInterval, long durationMs) {
+        if (frameInterval <= 0 || durationMs <= 0) {
+            throw new IllegalArgumentException("bad burst: every " + frameInterval + " frames for " + durationMs + "ms");
+        }
+        _frameInterval= frameInterval;
+        _durationMs= durationMs;
+    }
+
+    public void start(long now) {
+        _startedAt= now;
+        _lastSavedAt= now;
+        _nextCaptureAt= now;
+        _frameCount= 0;
+        _capturedCount= 0;
+        _savedCount= 0;
+        _droppedCount= 0;
+        _skippedCount= 0;
+    }
+
+    /**
+     * Caps how many frames per second the burst picks, on top of its frame interval; 0 for no
+     * cap. Can be changed while the burst runs.
+     */
+    public void setMaxFps(float fps) {
+        _minIntervalMs= fps > 0 ? (long)(1000 / fps) : 0;
+    }
+
+    public boolean isActive(long now) {
+        return now - _startedAt < _durationMs;
+    }
+
+    /**
+     * Called for every preview frame while the burst is active.
+     * @return true if this frame should be saved
+     */
+    public boolean onFrame(long now) {
+        if (!isActive(now)) return false;
+        boolean capture= _frameCount++ % _frameInterval == 0;
+        if (capture && _minIntervalMs > 0) {
+            // frames come with some jitter, so one that's a little early still counts
+            capture= now >= _nextCaptureAt - _minIntervalMs / 4;
+            if (capture) {
+                _nextCaptureAt= Math.max(_nextCaptureAt, now - _minIntervalMs) + _minIntervalMs;
+            }
+        }
+        if (capture) _capturedCount++;
+        return capture;
+    }
+
+    public void onFrameSaved(long now) {
+        _savedCount++;
+        _lastSavedAt= now;
+    }
+
+    public void onFrameDropped() {
+        _droppedCount++;
+    }
+
+    /**
+     * A frame onFrame() picked wasn't saved after all, because it showed nothing new.
+     */
+    public void onFrameSkipped() {
+        _skippedCount++;
+    }
+
+    public int getCapturedCount() { return _capturedCount; }
+    public int getSavedCount() { return _savedCount; }
+    public int getDroppedCount() { return _droppedCount; }
+    public int getSkippedCount() { return _skippedCount; }
+
+    /**
+     * Frames written per second, measured from the start of the burst to the last completed save.
+     */
+    public float getAchievedFps() {
+        long elapsed= _lastSavedAt - _startedAt;
+        return elapsed > 0 ? _savedCount * 1000f / elapsed : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "burst: %d captured, %d skipped, %d saved, %d dropped, %.1f fps",
+                _capturedCount, _skippedCount, _savedCount, _droppedCount, getAchievedFps());
+    }
+}
@@ -0,0 +1,195 @@
+package org.paleozogt.camexample;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What one camera can do: its preview sizes, preview formats and FPS ranges, captured once so
+ * nothing has to ask Camera.Parameters (which reparses its settings string on every call) again.
+ * Sizes are also indexed by aspect ratio, so finding the ones that fit a given shape doesn't
+ * mean scanning them all.
+ *
+ * Can be built from the string Camera.Parameters.flatten() returns, which is how a device's
+ * table can be recorded and replayed on a desktop JVM.
+ */
+public class CameraCapabilities {
+    // aspect ratios are bucketed in steps of 1/ASPECT_BUCKETS_PER_UNIT
+    static final int ASPECT_BUCKETS_PER_UNIT= 20;
+
+    /**
+     * A supported range of preview frame rates, in frames per thousand seconds like
+     * Camera.Parameters reports them.
+     */
+    public static final class FpsRange {
+        public final int min;
+        public final int max;
+
+        public FpsRange(int min, int max) {
+            this.min= min;
+            this.max= max;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + min + "," + max + ")";
+        }
+    }
+
+    protected final int _cameraId;
+    protected final List<PreviewSize> _previewSizes;
+    protected final List<Integer> _previewFormats;
+    protected final List<FpsRange> _fpsRanges;
+    protected final TreeMap<Integer, List<PreviewSize>> _sizesByAspect= new TreeMap<Integer, List<PreviewSize>>();
+
+    public CameraCapabilities(int cameraId, List<PreviewSize> previewSizes, List<Integer> previewFormats, List<FpsRange> fpsRanges) {
+        _cameraId= cameraId;
+        List<PreviewSize> sizes= new ArrayList<PreviewSize>(previewSizes);
+        // largest first, here and in every bucket
+        Collections.sort(sizes, new Comparator<PreviewSize>() {
+            @Override
+            public int compare(PreviewSize a, PreviewSize b) {
+                return b.getPixels() - a.getPixels();
+            }
+        });
+        _previewSizes= Collections.unmodifiableList(sizes);
+        _previewFormats= Collections.unmodifiableList(new ArrayList<Integer>(previewFormats));
+        _fpsRanges= Collections.unmodifiableList(new ArrayList<FpsRange>(fpsRanges));
+
+        for (PreviewSize size : _previewSizes) {
+            Integer bucket= aspectBucket(size.getAspect());
+            List<PreviewSize> bucketSizes= _sizesByAspect.get(bucket);
+            if (bucketSizes == null) {
+                bucketSizes= new ArrayList<PreviewSize>();
+                _sizesByAspect.put(bucket, bucketSizes);
+            }
+            bucketSizes.add(size);
+        }
+    }
+
+    public int getCameraId() { return _cameraId; }
+
+    /**
+     * @return every supported preview size, largest first
+     */
+    public List<PreviewSize> getPreviewSizes() { return _previewSizes; }
+    public List<Integer> getPreviewFormats() { return _previewFormats; }
+    public List<FpsRange> getFpsRanges() { return _fpsRanges; }
+
+    public boolean supportsFormat(int format) {
+        return _previewFormats.contains(format);
+    }
+
+    /**
+     * @return the fastest frame rate any range allows, in frames per second
+     */
+    public double getMaxFps() {
+        int max= 0;
+        for (FpsRange range : _fpsRanges) {
+            max= Math.max(max, range.max);
+        }
+        return max / 1000.0;
+    }
+
+    /**
+     * @return the supported size with exactly these dimensions, or null
+     */
+    public PreviewSize findSize(int width, int height) {
+        for (PreviewSize size : getSizesWithAspect((double)width / height, 0)) {
+            if (size.width == width && size.height == height) {
+                return size;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the sizes whose aspect ratio is within tolerance of aspect, largest first
+     */
+    public List<PreviewSize> getSizesWithAspect(double aspect, double tolerance) {
+        // a bucket covers half a step either side of its key
+        Map<Integer, List<PreviewSize>> buckets= _sizesByAspect.subMap(
+                aspectBucket(aspect - tolerance) - 1, true, aspectBucket(aspect + tolerance) + 1, true);
+        List<PreviewSize> sizes= new ArrayList<PreviewSize>();
+        for (List<PreviewSize> bucket : buckets.values()) {
+            for (PreviewSize size : bucket) {
+                if (Math.abs(size.getAspect() - aspect) <= tolerance + 1e-9) {
+                    sizes.add(size);
+                }
+            }
+        }
+        if (buckets.size() > 1) {
+            Collections.sort(sizes, new Comparator<PreviewSize>() {
+                @Override
+                public int compare(PreviewSize a, PreviewSize b) {
+                    return b.getPixels() - a.getPixels();
+                }
+            });
+        }
+        return sizes;
+    }
+
+    static int aspectBucket(double aspect) {
+        return (int)Math.round(aspect * ASPECT_BUCKETS_PER_UNIT);
+    }
+
+    /**
+     * Reads a table recorded with Camera.Parameters.flatten().
+     */
+    public static CameraCapabilities fromFlattened(int cameraId, String flattened) {
+        List<PreviewSize> sizes= new ArrayList<PreviewSize>();
+        List<Integer> formats= new ArrayList<Integer>();
+        List<FpsRange> fpsRanges= new ArrayList<FpsRange>();
+
+        for (String entry : flattened.split(";")) {
+            int eq= entry.indexOf('=');
+            if (eq < 0) continue;
+            String key= entry.substring(0, eq);
+            String value= entry.substring(eq + 1);
+            if (value.length() == 0) continue;
+
+            if (key.equals("preview-size-values")) {
+                for (String size : value.split(",")) {
+                    int x= size.indexOf('x');
+                    sizes.add(new PreviewSize(Integer.parseInt(size.substring(0, x).trim()),
+                            Integer.parseInt(size.substring(x + 1).trim())));
+                }
+            } else if (key.equals("preview-format-values")) {
+                for (String format : value.split(",")) {
+                    int code= formatCode(format.trim());
+                    if (code != 0) formats.add(code);
+                }
+            } else if (key.equals("preview-fps-range-values")) {
+                // (15000,30000),(30000,30000)
+                for (String range : value.replace("(", "").split("\\),?")) {
+                    int comma= range.indexOf(',');
+                    if (comma < 0) continue;
+                    fpsRanges.add(new FpsRange(Integer.parseInt(range.substring(0, comma).trim()),
+                            Integer.parseInt(range.substring(comma + 1).trim())));
+                }
+            }
+        }
+        return new CameraCapabilities(cameraId, sizes, formats, fpsRanges);
+    }
+
+    /**
+     * @return the ImageFormat constant for one of Camera.Parameters' format names, or 0
+     */
+    static int formatCode(String name) {
+        if (name.equals("yuv420sp")) return PreviewConfig.FORMAT_NV21;
+        if (name.equals("yuv420p")) return PreviewConfig.FORMAT_YV12;
+        if (name.equals("yuv422i-yuyv")) return 0x14;
+        if (name.equals("rgb565")) return 0x4;
+        if (name.equals("jpeg")) return 0x100;
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return "camera " + _cameraId + ": sizes " + _previewSizes + ", formats " + _previewFormats
+                + ", fps " + _fpsRanges;
+    }
+}
@@ -0,0 +1,192 @@
+package org.paleozogt.camexample;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where a saved frame's time goes: a latency histogram per pipeline stage plus a few counters.
+ * Everything here is lock-free and allocation-free to record into, so the preview callback and
+ * the save workers can all report into one instance.
+ */
+public class CaptureMetrics {
+    public enum Stage {
+        /** time between consecutive preview frames arriving */
+        ARRIVAL_INTERVAL,
+        /** time spent inside onPreviewFrame */
+        CALLBACK,
+        /** comparing a frame against the last one saved */
+        CHANGE_DETECT,
+        /** from arrival until a save worker picks the frame up */
+        QUEUE_WAIT,
+        /** cropping and downscaling to the save profile */
+        SCALE,
+        ROTATE,
+        YUV_WRAP,
+        ENCODE,
+        WRITE,
+        /** scaling, encoding and caching a saved frame's thumbnail */
+        THUMBNAIL,
+        /** from arrival until the frame is written */
+        END_TO_END,
+        /** from a camera settings change until the first frame of the restarted preview */
+        RECONFIGURE,
+        /** from asking for the camera to be opened until its first preview frame */
+        FIRST_FRAME,
+    }
+
+    protected final LatencyHistogram[] _histograms;
+    protected final AtomicLong _lastArrival= new AtomicLong();
+    protected final AtomicLong _framesArrived= new AtomicLong();
+    protected final AtomicLong _framesSaved= new AtomicLong();
+    protected final AtomicLong _framesDropped= new AtomicLong();
+    protected final AtomicLong _framesSkipped= new AtomicLong();
+    protected final AtomicLong _bytesWritten= new AtomicLong();
+    protected final AtomicInteger _queueDepth= new AtomicInteger();
+    protected final AtomicInteger _maxQueueDepth= new AtomicInteger();
+
+    public CaptureMetrics() {
+        Stage[] stages= Stage.values();
+        _histograms= new LatencyHistogram[stages.length];
+        for (int idx= 0; idx < stages.length; idx++) {
+            _histograms[idx]= new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        _histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Marks a preview frame's arrival and records the interval since the previous one.
+     */
+    public void frameArrived(long nowNanos) {
+        _framesArrived.incrementAndGet();
+        long last= _lastArrival.getAndSet(nowNanos);
+        if (last != 0) {
+            record(Stage.ARRIVAL_INTERVAL, nowNanos - last);
+        }
+    }
+
+    public void frameSaved(long bytes) {
+        _framesSaved.incrementAndGet();
+        _bytesWritten.addAndGet(bytes);
+    }
+
+    public void frameDropped() {
+        _framesDropped.incrementAndGet();
+    }
+
+    /**
+     * Counts a frame that wasn't saved because it looked like the last one that was.
+     */
+    public void frameSkipped() {
+        _framesSkipped.incrementAndGet();
+    }
+
+    public void queueDepth(int depth) {
+        _queueDepth.set(depth);
+        int max= _maxQueueDepth.get();
+        while (depth > max && !_maxQueueDepth.compareAndSet(max, depth)) {
+            max= _maxQueueDepth.get();
+        }
+    }
+
+    public long getFramesSaved() { return _framesSaved.get(); }
+    public long getFramesDropped() { return _framesDropped.get(); }
+
+    public void reset() {
+        for (LatencyHistogram histogram : _histograms) {
+            histogram.reset();
+        }
+        _lastArrival.set(0);
+        _framesArrived.set(0);
+        _framesSaved.set(0);
+        _framesDropped.set(0);
+        _framesSkipped.set(0);
+        _bytesWritten.set(0);
+        _queueDepth.set(0);
+        _maxQueueDepth.set(0);
+    }
+
+    /**
+     * A snapshot of just one stage, for when the rest aren't needed.
+     */
+    public LatencyHistogram.Snapshot snapshot(Stage stage) {
+        return _histograms[stage.ordinal()].snapshot();
+    }
+
+    public Snapshot snapshot() {
+        Stage[] stages= Stage.values();
+        LatencyHistogram.Snapshot[] histograms= new LatencyHistogram.Snapshot[stages.length];
+        for (int idx= 0; idx < stages.length; idx++) {
+            histograms[idx]= _histograms[idx].snapshot();
+        }
+        return new Snapshot(histograms, _framesArrived.get(), _framesSaved.get(), _framesDropped.get(),
+                _framesSkipped.get(), _bytesWritten.get(), _queueDepth.get(), _maxQueueDepth.get());
+    }
+
+    public static class Snapshot {
+        public final long framesArrived;
+        public final long framesSaved;
+        public final long framesDropped;
+        public final long framesSkipped;
+        public final long bytesWritten;
+        public final int queueDepth;
+        public final int maxQueueDepth;
+        protected final LatencyHistogram.Snapshot[] _histograms;
+
+        Snapshot(LatencyHistogram.Snapshot[] histograms, long framesArrived, long framesSaved, long framesDropped,
+                 long framesSkipped, long bytesWritten, int queueDepth, int maxQueueDepth) {
+            _histograms= histograms;
+            this.framesArrived= framesArrived;
+            this.framesSaved= framesSaved;
+            this.framesDropped= framesDropped;
+            this.framesSkipped= framesSkipped;
+            this.bytesWritten= bytesWritten;
+            this.queueDepth= queueDepth;
+            this.maxQueueDepth= maxQueueDepth;
+        }
+
+        public LatencyHistogram.Snapshot get(Stage stage) {
+            return _histograms[stage.ordinal()];
+        }
+
+        /**
+         * A few lines short enough to overlay on the preview: counters and the p50/p99 of the
+         * stages that dominate a save.
+         */
+        public String toSummary() {
+            StringBuilder summary= new StringBuilder();
+            summary.append(String.format(Locale.US, "frames %d saved %d dropped %d skipped %d, queue %d (max %d), %.1f MB",
+                    framesArrived, framesSaved, framesDropped, framesSkipped, queueDepth, maxQueueDepth, bytesWritten / 1e6));
+            for (Stage stage : new Stage[] { Stage.ENCODE, Stage.WRITE, Stage.END_TO_END }) {
+                LatencyHistogram.Snapshot histogram= get(stage);
+                summary.append(String.format(Locale.US, "\n%s p50 %.1fms p99 %.1fms",
+                        stage.name().toLowerCase(Locale.US),
+                        histogram.getPercentile(50) / 1e6, histogram.getPercentile(99) / 1e6));
+            }
+            return summary.toString();
+        }
+
+        /**
+         * Writes every stage's distribution as CSV, times in milliseconds.
+         */
+        public void writeTo(Writer out) throws IOException {
+            out.write("stage,count,mean,p50,p90,p99,p999,max\n");
+            for (Stage stage : Stage.values()) {
+                LatencyHistogram.Snapshot histogram= get(stage);
+                out.write(String.format(Locale.US, "%s,%d,%.3f,%.3f,%.3f,%.3f,%.3f,%.3f\n",
+                        stage.name().toLowerCase(Locale.US), histogram.getCount(), histogram.getMean() / 1e6,
+                        histogram.getPercentile(50) / 1e6, histogram.getPercentile(90) / 1e6,
+                        histogram.getPercentile(99) / 1e6, histogram.getPercentile(99.9) / 1e6,
+                        histogram.getMax() / 1e6));
+            }
+            out.write(String.format(Locale.US, "\nframes_arrived,%d\nframes_saved,%d\nframes_dropped,%d\n"
+                    + "frames_skipped,%d\nbytes_written,%d\nqueue_depth,%d\nmax_queue_depth,%d\n",
+                    framesArrived, framesSaved, framesDropped, framesSkipped, bytesWritten, queueDepth, maxQueueDepth));
+        }
+    }
+}
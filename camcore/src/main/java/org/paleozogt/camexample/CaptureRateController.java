@@ -0,0 +1,221 @@
+package org.paleozogt.camexample;
+
+import java.util.Locale;
+
+/**
+ * Keeps sustained capture at the best level the device can hold: steps down a ladder of
+ * capture rates and save profiles when saves fall behind or the device runs hot, and back up
+ * when there's been room to spare for a while.
+ *
+ * update() is called periodically with the capture's metrics. Each call looks at what happened
+ * since the last one: whether frames were dropped, how full the save queue is, how busy the save
+ * workers were at the rate frames actually came in (which can fall short of the level's, say in
+ * low light), and the device temperature. Stepping down takes DOWN_TICKS overloaded updates in
+ * a row; stepping up takes several times as many with headroom. A level that has to be left
+ * because the device overheated, or soon after stepping up to it, waits twice as long for its
+ * next try each time, so the level settles instead of see-sawing between one the device can't
+ * hold and the one below it.
+ *
+ * Nothing here reads a clock (update() is told the time) or touches Android, so it can be driven by a simulation as well as
+ * by the camera.
+ */
+public class CaptureRateController {
+    /**
+     * One rung of the ladder: how many frames a second to save, and how.
+     */
+    public static class Level {
+        public final float fps;
+        public final SaveProfile profile;
+
+        public Level(float fps, SaveProfile profile) {
+            this.fps= fps;
+            this.profile= profile;
+        }
+
+        /**
+         * @return how much save work a second at this level takes, relative to one full frame
+         */
+        double getLoad() {
+            return fps * profile.getPixelFraction();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.0ffps %s q%d", fps, profile.name, profile.quality);
+        }
+    }
+
+    // a save queue this full means saves are falling behind; this empty, that they're keeping up
+    static final float QUEUE_HIGH= 0.75f;
+    static final float QUEUE_LOW= 0.25f;
+    // workers busier than this can't absorb a hiccup; a step up must keep them under UTILIZATION_UP
+    static final double UTILIZATION_HIGH= 0.9;
+    static final double UTILIZATION_UP= 0.7;
+    // degrees C; above WARM we hold, above HOT we step down until it cools
+    static final float TEMPERATURE_WARM= 40;
+    static final float TEMPERATURE_HOT= 45;
+
+    static final int DOWN_TICKS= 2;
+    static final int UP_TICKS= 5;
+    // a level that's failed this many times waits UP_TICKS << MAX_STRIKES updates for a retry
+    static final int MAX_STRIKES= 6;
+    // a level that's held this long is forgiven one failure
+    static final int STRIKE_DECAY_TICKS= 600;
+
+    // the stages a save worker spends its time in
+    static final CaptureMetrics.Stage[] WORK_STAGES= {
+            CaptureMetrics.Stage.SCALE, CaptureMetrics.Stage.ROTATE, CaptureMetrics.Stage.YUV_WRAP,
+            CaptureMetrics.Stage.ENCODE, CaptureMetrics.Stage.WRITE, CaptureMetrics.Stage.THUMBNAIL,
+    };
+
+    protected final Level[] _levels;
+    protected final int _workers;
+    protected int _level;
+
+    protected LatencyHistogram.Snapshot[] _lastWork;
+    protected long _lastSaved;
+    protected long _lastDropped;
+    protected long _lastUpdateMillis;
+
+    protected final int[] _strikes;
+    protected int _ticksAtLevel;
+    protected int _overloadedTicks;
+    protected int _headroomTicks;
+    protected int _levelChanges;
+
+    // what the last update saw, for display
+    protected long _windowSaved;
+    protected long _windowDropped;
+    protected float _achievedFps;
+    protected float _queueFill;
+    protected double _utilization;
+    protected long _encodeP90Nanos;
+    protected float _temperature= Float.NaN;
+
+    /**
+     * @param levels best first; each should cost less than the one before
+     * @param workers how many frames are saved at once
+     * @param startLevel the index of the level to start at
+     */
+    public CaptureRateController(Level[] levels, int workers, int startLevel) {
+        if (levels.length == 0 || startLevel < 0 || startLevel >= levels.length || workers <= 0) {
+            throw new IllegalArgumentException("bad controller: " + levels.length + " levels, start at " + startLevel
+                    + ", " + workers + " workers");
+        }
+        _levels= levels.clone();
+        _workers= workers;
+        _level= startLevel;
+        _strikes= new int[levels.length];
+    }
+
+    public synchronized Level getLevel() { return _levels[_level]; }
+    public synchronized int getLevelIndex() { return _level; }
+    public synchronized int getLevelChanges() { return _levelChanges; }
+    /** the save workers' busy fraction over the last update's window */
+    public synchronized double getUtilization() { return _utilization; }
+    /** frames saved a second over the last update's window */
+    public synchronized float getAchievedFps() { return _achievedFps; }
+
+    /**
+     * Looks at what happened since the last update and moves a level if it's time to.
+     *
+     * @param queueDepth saves waiting for a worker right now
+     * @param temperatureC the device's temperature, or NaN if it isn't known
+     * @param nowMillis the time on any clock that doesn't jump, as long as it's always the same one
+     * @return true if the level changed
+     */
+    public synchronized boolean update(CaptureMetrics metrics, int queueDepth, int queueCapacity, float temperatureC,
+                                       long nowMillis) {
+        LatencyHistogram.Snapshot[] work= new LatencyHistogram.Snapshot[WORK_STAGES.length];
+        for (int idx= 0; idx < WORK_STAGES.length; idx++) {
+            work[idx]= metrics.snapshot(WORK_STAGES[idx]);
+        }
+        long saved= metrics.getFramesSaved();
+        long dropped= metrics.getFramesDropped();
+        if (_lastWork == null) {
+            remember(work, saved, dropped, nowMillis);
+            return false;
+        }
+
+        // the time workers spent on the frames that were saved, which is the mean time a frame
+        // takes at the rate they actually came in, not at the rate the level asks for
+        double busyNanos= 0;
+        for (int idx= 0; idx < WORK_STAGES.length; idx++) {
+            LatencyHistogram.Snapshot window= work[idx].since(_lastWork[idx]);
+            busyNanos+= window.getSum();
+            if (WORK_STAGES[idx] == CaptureMetrics.Stage.ENCODE) {
+                _encodeP90Nanos= window.getPercentile(90);
+            }
+        }
+        _windowSaved= saved - _lastSaved;
+        _windowDropped= dropped - _lastDropped;
+        long windowMillis= nowMillis - _lastUpdateMillis;
+        remember(work, saved, dropped, nowMillis);
+
+        Level level= _levels[_level];
+        _achievedFps= windowMillis > 0 ? _windowSaved * 1000f / windowMillis : 0;
+        _utilization= windowMillis > 0 ? busyNanos / (windowMillis * 1e6) / _workers : 0;
+        _queueFill= queueCapacity > 0 ? (float)queueDepth / queueCapacity : 0;
+        _temperature= temperatureC;
+        _ticksAtLevel++;
+        if (_ticksAtLevel % STRIKE_DECAY_TICKS == 0 && _strikes[_level] > 0) {
+            _strikes[_level]--;
+        }
+
+        boolean hot= temperatureC >= TEMPERATURE_HOT;
+        boolean busy= _windowSaved > 0 || _windowDropped > 0;
+        boolean overloaded= hot || (busy && (_windowDropped > 0 || _queueFill >= QUEUE_HIGH
+                || _utilization > UTILIZATION_HIGH));
+        boolean headroom= !overloaded && _windowSaved > 0 && _queueFill <= QUEUE_LOW
+                && !(temperatureC >= TEMPERATURE_WARM) && _level > 0
+                && _utilization * _levels[_level - 1].getLoad() / level.getLoad() < UTILIZATION_UP;
+
+        _overloadedTicks= overloaded ? _overloadedTicks + 1 : 0;
+        _headroomTicks= headroom ? _headroomTicks + 1 : 0;
+
+        if (_overloadedTicks >= DOWN_TICKS && _level < _levels.length - 1) {
+            // a level that falls behind once the device is warm (and so throttling), or soon
+            // after we step up to it, is one the device can't sustain; the more often that
+            // happens, the longer before we retry it
+            boolean warm= temperatureC >= TEMPERATURE_WARM;
+            if (warm || _ticksAtLevel <= 2 * upTicks(_level)) {
+                _strikes[_level]= Math.min(_strikes[_level] + 1, MAX_STRIKES);
+            }
+            return setLevel(_level + 1);
+        }
+        if (_level > 0 && _headroomTicks >= upTicks(_level - 1)) {
+            return setLevel(_level - 1);
+        }
+        return false;
+    }
+
+    /**
+     * @return how many updates in a row must have headroom before stepping up to level
+     */
+    protected int upTicks(int level) {
+        return UP_TICKS << _strikes[level];
+    }
+
+    protected boolean setLevel(int level) {
+        _level= level;
+        _levelChanges++;
+        _ticksAtLevel= 0;
+        _overloadedTicks= 0;
+        _headroomTicks= 0;
+        return true;
+    }
+
+    protected void remember(LatencyHistogram.Snapshot[] work, long saved, long dropped, long nowMillis) {
+        _lastWork= work;
+        _lastSaved= saved;
+        _lastDropped= dropped;
+        _lastUpdateMillis= nowMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "adaptive: %s, %d saved (%.1ffps) %d dropped, queue %.0f%%, busy %.0f%%, encode p90 %.1fms%s",
+                getLevel(), _windowSaved, _achievedFps, _windowDropped, _queueFill * 100, _utilization * 100, _encodeP90Nanos / 1e6,
+                Float.isNaN(_temperature) ? "" : String.format(Locale.US, ", %.1fC", _temperature));
+    }
+}
@@ -0,0 +1,77 @@
+package org.paleozogt.camexample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An OutputStream that collects into a growable direct ByteBuffer and hands its contents to a
+ * channel without copying them into a byte[] first. Meant to be kept per thread and reset()
+ * between frames, so steady-state encoding allocates nothing. Not thread-safe.
+ */
+public class DirectByteOutputStream extends OutputStream {
+    protected ByteBuffer _buffer;
+
+    public DirectByteOutputStream(int initialCapacity) {
+        _buffer= ByteBuffer.allocateDirect(Math.max(initialCapacity, 1024));
+    }
+
+    public void reset() {
+        _buffer.clear();
+    }
+
+    public int size() {
+        return _buffer.position();
+    }
+
+    public int capacity() {
+        return _buffer.capacity();
+    }
+
+    /**
+     * Makes sure at least minCapacity bytes fit without growing mid-write.
+     */
+    public void ensureCapacity(int minCapacity) {
+        if (minCapacity <= _buffer.capacity()) return;
+
+        int newCapacity= Math.max(minCapacity, _buffer.capacity() * 2);
+        ByteBuffer grown= ByteBuffer.allocateDirect(newCapacity);
+        _buffer.flip();
+        grown.put(_buffer);
+        _buffer= grown;
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(_buffer.position() + 1);
+        _buffer.put((byte)b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(_buffer.position() + len);
+        _buffer.put(b, off, len);
+    }
+
+    /**
+     * A read-only view of what's been written so far. It shares the underlying memory, so it's
+     * only good until the next write or reset().
+     */
+    public ByteBuffer contents() {
+        ByteBuffer view= _buffer.duplicate();
+        view.flip();
+        return view.asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes everything collected so far to the channel, leaving the stream's contents intact.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        ByteBuffer view= _buffer.duplicate();
+        view.flip();
+        while (view.hasRemaining()) {
+            channel.write(view);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.paleozogt.camexample;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes each frame to its own file in a directory, in a single channel write. Names may include
+ * subdirectories, which are created the first time a frame is written to them.
+ *
+ * With a sync batch size of N, files are left open after writing and fsync'd together once N
+ * of them have piled up (or on flush/close), instead of paying for a sync on every frame. A
+ * batch size of 0 never syncs explicitly and leaves durability to the OS.
+ */
+public class FileChannelSink implements FrameSink {
+    protected final File _directory;
+    protected final int _syncBatchSize;
+    protected final List<FileOutputStream> _unsynced= new ArrayList<FileOutputStream>();
+
+    public FileChannelSink(File directory, int syncBatchSize) {
+        _directory= directory;
+        _syncBatchSize= syncBatchSize;
+    }
+
+    public File getDirectory() {
+        return _directory;
+    }
+
+    @Override
+    public void write(String name, ByteBuffer frame) throws IOException {
+        FileOutputStream stream= openCreatingParents(new File(_directory, name));
+        try {
+            FileChannel channel= stream.getChannel();
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+
+        if (_syncBatchSize <= 0) {
+            stream.close();
+            return;
+        }
+
+        List<FileOutputStream> batch= null;
+        synchronized (_unsynced) {
+            _unsynced.add(stream);
+            if (_unsynced.size() >= _syncBatchSize) {
+                batch= takeUnsynced();
+            }
+        }
+        if (batch != null) {
+            syncAndClose(batch);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        List<FileOutputStream> batch;
+        synchronized (_unsynced) {
+            batch= takeUnsynced();
+        }
+        syncAndClose(batch);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Opens file for writing, creating its directory if that doesn't exist yet. The directory is
+     * only checked for when the open fails, so writes into an existing one cost nothing extra.
+     */
+    static FileOutputStream openCreatingParents(File file) throws IOException {
+        try {
+            return new FileOutputStream(file);
+        } catch (FileNotFoundException e) {
+            File parent= file.getParentFile();
+            // another writer may be creating it at the same moment, so only fail if it's still missing
+            if (parent == null || (!parent.mkdirs() && !parent.isDirectory())) {
+                throw e;
+            }
+            return new FileOutputStream(file);
+        }
+    }
+
+    protected List<FileOutputStream> takeUnsynced() {
+        List<FileOutputStream> batch= new ArrayList<FileOutputStream>(_unsynced);
+        _unsynced.clear();
+        return batch;
+    }
+
+    protected static void syncAndClose(List<FileOutputStream> batch) throws IOException {
+        IOException failure= null;
+        for (FileOutputStream stream : batch) {
+            try {
+                stream.getChannel().force(true);
+            } catch (IOException e) {
+                if (failure == null) failure= e;
+            } finally {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    if (failure == null) failure= e;
+                }
+            }
+        }
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,115 @@
+package org.paleozogt.camexample;
+
+import java.util.Locale;
+
+/**
+ * Decides whether a frame is different enough from the last one we kept to be worth saving.
+ * A frame's signature is the mean luma of each cell of a coarse grid, estimated from every
+ * sampleStep'th pixel in each direction; two frames differ by the mean absolute difference of
+ * their signatures, in luma levels (0 to 255).
+ *
+ * Only the luma plane is read, and only a sample of it, so a 1080p frame costs a few tens of
+ * thousands of byte reads. Nothing is allocated after construction. Not thread-safe: feed it from
+ * one thread, the preview callback's.
+ */
+public class FrameChangeDetector {
+    protected final int _gridSize;
+    protected final int _sampleStep;
+    protected final double _threshold;
+
+    protected int[] _signature;
+    protected int[] _reference;
+    protected boolean _hasReference;
+    protected double _lastDifference;
+    protected long _accepted;
+    protected long _rejected;
+
+    /**
+     * @param gridSize cells in each direction
+     * @param sampleStep read every this many pixels in each direction
+     * @param threshold the smallest difference, in luma levels, that counts as a change
+     */
+    public FrameChangeDetector(int gridSize, int sampleStep, double threshold) {
+        _gridSize= gridSize;
+        _sampleStep= sampleStep;
+        _threshold= threshold;
+        _signature= new int[gridSize * gridSize];
+        _reference= new int[gridSize * gridSize];
+    }
+
+    /**
+     * @param luma the frame's luma plane, which both NV21 and YV12 frames start with
+     * @param rowBytes the distance between luma rows: width for NV21, align16(width) for YV12
+     * @return true if the frame differs from the last accepted one by at least the threshold
+     * (or is the first since a reset), in which case it becomes the new reference
+     */
+    public boolean accept(byte[] luma, int width, int height, int rowBytes) {
+        computeSignature(luma, width, height, rowBytes, _signature);
+        if (_hasReference) {
+            _lastDifference= difference(_signature, _reference);
+            if (_lastDifference < _threshold) {
+                _rejected++;
+                return false;
+            }
+        }
+
+        int[] t= _reference;
+        _reference= _signature;
+        _signature= t;
+        _hasReference= true;
+        _accepted++;
+        return true;
+    }
+
+    /**
+     * Forgets the reference frame, so the next frame is accepted whatever it looks like.
+     */
+    public void reset() {
+        _hasReference= false;
+        _lastDifference= 0;
+    }
+
+    /**
+     * @return how far the last frame compared was from the reference, in luma levels
+     */
+    public double getLastDifference() { return _lastDifference; }
+    public long getAcceptedCount() { return _accepted; }
+    public long getRejectedCount() { return _rejected; }
+
+    void computeSignature(byte[] luma, int width, int height, int rowBytes, int[] signature) {
+        int grid= _gridSize;
+        int step= _sampleStep;
+        for (int by= 0; by < grid; by++) {
+            int y0= by * height / grid;
+            int y1= (by + 1) * height / grid;
+            for (int bx= 0; bx < grid; bx++) {
+                int x0= bx * width / grid;
+                int x1= (bx + 1) * width / grid;
+                int sum= 0, count= 0;
+                // start half a step in so the samples sit in the middle of the cell
+                for (int y= y0 + step / 2; y < y1; y+= step) {
+                    int row= y * rowBytes;
+                    for (int x= x0 + step / 2; x < x1; x+= step) {
+                        sum+= luma[row + x] & 0xff;
+                        count++;
+                    }
+                }
+                signature[by * grid + bx]= count > 0 ? sum / count : 0;
+            }
+        }
+    }
+
+    static double difference(int[] a, int[] b) {
+        long total= 0;
+        for (int idx= 0; idx < a.length; idx++) {
+            total+= Math.abs(a[idx] - b[idx]);
+        }
+        return (double)total / a.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "change gate: %d kept, %d skipped, last difference %.1f",
+                _accepted, _rejected, _lastDifference);
+    }
+}
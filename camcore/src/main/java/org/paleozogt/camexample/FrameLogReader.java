@@ -0,0 +1,140 @@
+package org.paleozogt.camexample;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a container written by FrameLogSink, using its index if it was closed cleanly and
+ * scanning the records otherwise.
+ */
+public class FrameLogReader implements Closeable {
+    protected final RandomAccessFile _raf;
+    protected final MappedByteBuffer _map;
+    protected final long[] _offsets;
+    protected final boolean _recovered;
+
+    public FrameLogReader(File file) throws IOException {
+        _raf= new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel= _raf.getChannel();
+            _map= channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            _map.order(ByteOrder.LITTLE_ENDIAN);
+
+            if (_map.limit() < FrameLogSink.HEADER_SIZE || _map.getLong(0) != FrameLogSink.MAGIC) {
+                throw new IOException("not a frame log: " + file);
+            }
+            if (_map.getInt(8) != FrameLogSink.VERSION) {
+                throw new IOException("unsupported frame log version " + _map.getInt(8) + ": " + file);
+            }
+
+            long indexOffset= _map.getLong(FrameLogSink.INDEX_OFFSET_OFFSET);
+            _recovered= indexOffset == 0;
+            _offsets= _recovered ? scan() : readIndex((int)indexOffset);
+        } catch (IOException e) {
+            _raf.close();
+            throw e;
+        }
+    }
+
+    public int getFrameCount() {
+        return _offsets.length;
+    }
+
+    /**
+     * @return true if the log wasn't closed and its frames were found by scanning
+     */
+    public boolean isRecovered() {
+        return _recovered;
+    }
+
+    public String getName(int frame) {
+        int offset= (int)_offsets[frame] + 4;
+        int nameLength= _map.getShort(offset) & 0xffff;
+        byte[] name= new byte[nameLength];
+        ByteBuffer view= _map.duplicate();
+        view.position(offset + 2);
+        view.get(name);
+        return new String(name, FrameLogSink.NAME_CHARSET);
+    }
+
+    /**
+     * @return a read-only view of the frame's payload, backed by the mapped file
+     */
+    public ByteBuffer getFrame(int frame) {
+        int offset= (int)_offsets[frame] + 4;
+        int nameLength= _map.getShort(offset) & 0xffff;
+        offset+= 2 + nameLength;
+        int length= _map.getInt(offset);
+        ByteBuffer view= _map.duplicate();
+        view.position(offset + 4);
+        view.limit(offset + 4 + length);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes every frame out to its own file in directory, named as it was logged, creating any
+     * subdirectories the names include.
+     */
+    public void split(File directory) throws IOException {
+        for (int idx= 0; idx < getFrameCount(); idx++) {
+            FileOutputStream stream= FileChannelSink.openCreatingParents(new File(directory, getName(idx)));
+            try {
+                ByteBuffer frame= getFrame(idx);
+                while (frame.hasRemaining()) {
+                    stream.getChannel().write(frame);
+                }
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        _raf.close();
+    }
+
+    protected long[] readIndex(int indexOffset) throws IOException {
+        int count= _map.getInt(indexOffset);
+        if (count < 0 || indexOffset + 4 + 8L * count > _map.limit()) {
+            throw new IOException("corrupt frame log index");
+        }
+        long[] offsets= new long[count];
+        for (int idx= 0; idx < count; idx++) {
+            offsets[idx]= _map.getLong(indexOffset + 4 + 8 * idx);
+        }
+        return offsets;
+    }
+
+    protected long[] scan() {
+        long dataEnd= Math.min(_map.getLong(FrameLogSink.DATA_END_OFFSET), _map.limit());
+        long[] offsets= new long[16];
+        int count= 0;
+        int offset= FrameLogSink.HEADER_SIZE;
+        while (offset + 10 <= dataEnd && _map.getInt(offset) == FrameLogSink.RECORD_MAGIC) {
+            int nameLength= _map.getShort(offset + 4) & 0xffff;
+            int lengthAt= offset + 6 + nameLength;
+            if (lengthAt + 4 > dataEnd) break;
+            int next= lengthAt + 4 + _map.getInt(lengthAt);
+            if (next > dataEnd || next < offset) break;
+
+            if (count == offsets.length) {
+                long[] grown= new long[count * 2];
+                System.arraycopy(offsets, 0, grown, 0, count);
+                offsets= grown;
+            }
+            offsets[count++]= offset;
+            offset= next;
+        }
+        long[] result= new long[count];
+        System.arraycopy(offsets, 0, result, 0, count);
+        return result;
+    }
+}
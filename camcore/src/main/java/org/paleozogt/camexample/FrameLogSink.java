@@ -0,0 +1,153 @@
+package org.paleozogt.camexample;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Appends frames to one pre-allocated, memory-mapped container file instead of creating a file
+ * per frame, so a burst costs a memcpy per frame rather than an open/write/close and a directory
+ * update. FrameLogReader splits a log back into individual files.
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header:  magic "CAMFLOG1", int version, int frameCount, long indexOffset, long dataEnd
+ *   record:  int RECORD_MAGIC, short nameLength, name (UTF-8), int length, payload
+ *   index:   int frameCount, long recordOffset[frameCount]    (written on close)
+ * </pre>
+ * A log that was never closed has indexOffset 0; its records can still be recovered by scanning
+ * forward from the header.
+ */
+public class FrameLogSink implements FrameSink {
+    public static final long MAGIC= 0x31474f4c464d4143L; // "CAMFLOG1" read as a little-endian long
+    public static final int VERSION= 1;
+    public static final int RECORD_MAGIC= 0x454d5246; // "FRME"
+    public static final int HEADER_SIZE= 32;
+    static final int FRAME_COUNT_OFFSET= 12;
+    static final int INDEX_OFFSET_OFFSET= 16;
+    static final int DATA_END_OFFSET= 24;
+
+    static final Charset NAME_CHARSET= Charset.forName("UTF-8");
+
+    protected final File _file;
+    protected final RandomAccessFile _raf;
+    protected final FileChannel _channel;
+    protected final long _growBy;
+    protected MappedByteBuffer _map;
+    protected long[] _index= new long[256];
+    protected int _frameCount;
+    protected boolean _closed;
+
+    /**
+     * @param preallocate bytes to reserve up front; the file grows by the same amount whenever
+     * it fills up
+     */
+    public FrameLogSink(File file, long preallocate) throws IOException {
+        _file= file;
+        _growBy= Math.max(preallocate, 1024 * 1024);
+        _raf= new RandomAccessFile(file, "rw");
+        _raf.setLength(0);
+        _channel= _raf.getChannel();
+        try {
+            remap(_growBy);
+        } catch (IOException e) {
+            _raf.close();
+            throw e;
+        }
+
+        _map.putLong(MAGIC);
+        _map.putInt(VERSION);
+        _map.putInt(0);
+        _map.putLong(0);
+        _map.putLong(HEADER_SIZE);
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    public synchronized int getFrameCount() {
+        return _frameCount;
+    }
+
+    @Override
+    public synchronized void write(String name, ByteBuffer frame) throws IOException {
+        if (_closed) throw new IOException("frame log is closed");
+
+        byte[] nameBytes= name.getBytes(NAME_CHARSET);
+        int length= frame.remaining();
+        long offset= _map.position();
+        ensureCapacity(4 + 2 + nameBytes.length + 4 + length);
+
+        _map.putInt(RECORD_MAGIC);
+        _map.putShort((short)nameBytes.length);
+        _map.put(nameBytes);
+        _map.putInt(length);
+        _map.put(frame);
+
+        if (_frameCount == _index.length) {
+            long[] grown= new long[_index.length * 2];
+            System.arraycopy(_index, 0, grown, 0, _frameCount);
+            _index= grown;
+        }
+        _index[_frameCount++]= offset;
+        _map.putInt(FRAME_COUNT_OFFSET, _frameCount);
+        _map.putLong(DATA_END_OFFSET, _map.position());
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (!_closed) {
+            _map.force();
+        }
+    }
+
+    /**
+     * Writes the index, trims the unused pre-allocation and closes the file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (_closed) return;
+        _closed= true;
+        try {
+            long indexOffset= _map.position();
+            ensureCapacity(4 + 8L * _frameCount);
+            _map.putInt(_frameCount);
+            for (int idx= 0; idx < _frameCount; idx++) {
+                _map.putLong(_index[idx]);
+            }
+            long end= _map.position();
+            _map.putLong(INDEX_OFFSET_OFFSET, indexOffset);
+            _map.force();
+            _map= null;
+            _channel.truncate(end);
+        } finally {
+            _raf.close();
+        }
+    }
+
+    protected void ensureCapacity(long bytes) throws IOException {
+        if (_map.remaining() < bytes) {
+            long position= _map.position();
+            remap(_map.capacity() + Math.max(bytes, _growBy));
+            _map.position((int)position);
+        }
+    }
+
+    protected void remap(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("frame log is full: " + _file);
+        }
+        if (_map != null) {
+            _map.force();
+        }
+        _raf.setLength(size);
+        _map= _channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        _map.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,134 @@
+package org.paleozogt.camexample;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Names saved frames after the capture session, camera and frame sequence, e.g.
+ * "20141018-142233517/IMG_20141018-142233517_c0_000123.jpg". Every session gets its own
+ * directory, so a reopened camera never overwrites what the last one saved.
+ *
+ * Once a session directory holds filesPerDirectory frames, later ones go into numbered shard
+ * directories beneath it (".../0001/IMG_..._c0_002048.jpg" with 2048 per directory), so no
+ * directory grows so large that creating or looking up a file in it gets slow.
+ *
+ * Names are built in a reused char buffer with no formatting, so the only allocation per frame
+ * is the name itself.
+ */
+public class FrameNamer {
+    // enough digits that names sort by sequence for any session shorter than a few hours at 30fps
+    static final int SEQUENCE_DIGITS= 6;
+    static final int SHARD_DIGITS= 4;
+    public static final int DEFAULT_FILES_PER_DIRECTORY= 2048;
+    static final String CONTAINER_PREFIX= "Frames.";
+
+    protected final String _sessionId;
+    protected final int _filesPerDirectory;
+    protected final char[] _directoryPrefix;
+    protected int _cameraId;
+    protected char[] _filePrefix;
+    protected char[] _buffer;
+
+    /**
+     * @param filesPerDirectory how many frames a directory holds before the next one is started,
+     * or 0 to put them all in the session directory
+     */
+    public FrameNamer(String sessionId, int cameraId, int filesPerDirectory) {
+        _sessionId= sessionId;
+        _filesPerDirectory= filesPerDirectory;
+        _directoryPrefix= (sessionId + "/").toCharArray();
+        setCameraId(cameraId);
+    }
+
+    /**
+     * A session id for a session started at timeMillis, which sorts by start time.
+     */
+    public static String sessionId(long timeMillis) {
+        return new SimpleDateFormat("yyyyMMdd-HHmmssSSS", Locale.US).format(new Date(timeMillis));
+    }
+
+    /**
+     * Names frames as they were named in a container called containerName (see containerName()),
+     * so frames unpacked from it get the names the device would have saved them under. A
+     * container named some other way is taken as a session of its own, named after the file.
+     */
+    public static FrameNamer forContainer(String containerName, int cameraId) {
+        String sessionId= containerName;
+        int dot= sessionId.lastIndexOf('.');
+        if (dot > 0) {
+            sessionId= sessionId.substring(0, dot);
+        }
+        if (sessionId.startsWith(CONTAINER_PREFIX) && sessionId.length() > CONTAINER_PREFIX.length()) {
+            sessionId= sessionId.substring(CONTAINER_PREFIX.length());
+        }
+        return new FrameNamer(sessionId, cameraId, DEFAULT_FILES_PER_DIRECTORY);
+    }
+
+    /**
+     * @return the file name of a container holding this session's frames, e.g.
+     * "Frames.20141018-142233517.camraw"
+     */
+    public String containerName(String extension) {
+        return CONTAINER_PREFIX + _sessionId + "." + extension;
+    }
+
+    public String getSessionId() { return _sessionId; }
+    public synchronized int getCameraId() { return _cameraId; }
+
+    /**
+     * Names frames from now on after cameraId, for when the session switches cameras. The
+     * sequence carries on across the switch, so names stay unique.
+     */
+    public synchronized void setCameraId(int cameraId) {
+        _cameraId= cameraId;
+        _filePrefix= ("IMG_" + _sessionId + "_c" + cameraId + "_").toCharArray();
+        // room for the prefixes, a shard, a sequence of any int and an extension
+        _buffer= new char[_directoryPrefix.length + 10 + 1 + _filePrefix.length + 10 + 16];
+    }
+
+    /**
+     * @return the frame's path relative to the sink, with '/' between directories
+     */
+    public synchronized String name(int sequence, String extension) {
+        char[] buffer= _buffer;
+        int length= append(buffer, 0, _directoryPrefix);
+        if (_filesPerDirectory > 0 && sequence >= _filesPerDirectory) {
+            length= appendNumber(buffer, length, sequence / _filesPerDirectory, SHARD_DIGITS);
+            buffer[length++]= '/';
+        }
+        length= append(buffer, length, _filePrefix);
+        length= appendNumber(buffer, length, sequence, SEQUENCE_DIGITS);
+        buffer[length++]= '.';
+        for (int idx= 0; idx < extension.length(); idx++) {
+            buffer[length++]= extension.charAt(idx);
+        }
+        return new String(buffer, 0, length);
+    }
+
+    static int append(char[] buffer, int offset, char[] chars) {
+        System.arraycopy(chars, 0, buffer, offset, chars.length);
+        return offset + chars.length;
+    }
+
+    /**
+     * Writes a non-negative value in decimal, zero-padded to at least digits digits.
+     */
+    static int appendNumber(char[] buffer, int offset, int value, int digits) {
+        int length= 1;
+        for (int v= value / 10; v > 0; v/= 10) {
+            length++;
+        }
+        length= Math.max(length, digits);
+        for (int idx= offset + length - 1; idx >= offset; idx--) {
+            buffer[idx]= (char)('0' + value % 10);
+            value/= 10;
+        }
+        return offset + length;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return _sessionId + " camera " + _cameraId;
+    }
+}
@@ -0,0 +1,226 @@
+package org.paleozogt.camexample;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs each preview frame through a set of analysis stages on a worker pool, and hands the frames
+ * that are to be kept to a terminal stage (such as ImageSaver) that takes them over.
+ *
+ * A stage never holds up the camera. It has its own limit on frames in flight, and a frame that
+ * arrives while it's at the limit simply skips it. It also has a time budget: a stage that takes
+ * three times its budget on a frame sits out the next two, so a slow stage settles at whatever
+ * rate it can sustain instead of falling further and further behind.
+ *
+ * A frame is shared by every stage it visits, read-only and without copying: each stage holds
+ * a reference to it while it runs, so its buffer is released once the last of them is done.
+ */
+public class FramePipeline {
+    // however far over budget a stage goes, it still sees at least one frame in this many
+    static final int MAX_BUDGET_SKIP= 30;
+
+    public interface FrameProcessor {
+        /**
+         * Looks at a frame, on a pipeline worker thread. The buffer is only valid until this
+         * returns.
+         *
+         * @param frame a read-only view of the frame's data
+         */
+        void process(ByteBuffer frame, PreviewConfig config, long timestampNs);
+    }
+
+    public interface TerminalStage {
+        /**
+         * Takes over a reference to a frame that's to be kept, which it must release once it no
+         * longer reads the frame, from any thread, whether or not it succeeded.
+         */
+        void accept(PreviewFrame frame);
+    }
+
+    /**
+     * One analysis stage and its bookkeeping.
+     */
+    public static class Stage {
+        protected final String _name;
+        protected final FrameProcessor _processor;
+        protected final int _maxInFlight;
+        protected final long _budgetNanos;
+        protected final AtomicInteger _inFlight= new AtomicInteger();
+        protected final AtomicInteger _budgetSkip= new AtomicInteger();
+        protected final AtomicLong _processed= new AtomicLong();
+        protected final AtomicLong _busySkipped= new AtomicLong();
+        protected final AtomicLong _budgetSkipped= new AtomicLong();
+        protected final AtomicLong _errors= new AtomicLong();
+        protected final LatencyHistogram _latency= new LatencyHistogram();
+
+        Stage(String name, FrameProcessor processor, int maxInFlight, long budgetNanos) {
+            _name= name;
+            _processor= processor;
+            _maxInFlight= maxInFlight;
+            _budgetNanos= budgetNanos;
+        }
+
+        public String getName() { return _name; }
+        public long getProcessedCount() { return _processed.get(); }
+        /** frames skipped because the stage already had its fill in flight */
+        public long getBusySkippedCount() { return _busySkipped.get(); }
+        /** frames skipped because the stage was over its time budget */
+        public long getBudgetSkippedCount() { return _budgetSkipped.get(); }
+        public long getErrorCount() { return _errors.get(); }
+        public LatencyHistogram.Snapshot getLatency() { return _latency.snapshot(); }
+
+        /**
+         * @return true if this frame should go to the stage, which then owes an exit()
+         */
+        boolean enter() {
+            int skip= _budgetSkip.get();
+            while (skip > 0) {
+                if (_budgetSkip.compareAndSet(skip, skip - 1)) {
+                    _budgetSkipped.incrementAndGet();
+                    return false;
+                }
+                skip= _budgetSkip.get();
+            }
+            if (_inFlight.incrementAndGet() > _maxInFlight) {
+                _inFlight.decrementAndGet();
+                _busySkipped.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        void exit(long elapsedNanos) {
+            _inFlight.decrementAndGet();
+            _processed.incrementAndGet();
+            _latency.record(elapsedNanos);
+            if (elapsedNanos > _budgetNanos) {
+                _budgetSkip.set((int)Math.min(MAX_BUDGET_SKIP, (elapsedNanos - 1) / _budgetNanos));
+            }
+        }
+
+        @Override
+        public String toString() {
+            LatencyHistogram.Snapshot latency= getLatency();
+            return String.format(Locale.US, "%s: %d run, %d busy, %d over budget, p50 %.1fms p99 %.1fms",
+                    _name, getProcessedCount(), getBusySkippedCount(), getBudgetSkippedCount(),
+                    latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6);
+        }
+    }
+
+    protected final ExecutorService _workers;
+    protected final List<Stage> _stages= new ArrayList<Stage>();
+    protected TerminalStage _terminal;
+
+    public FramePipeline(final String name, int workers) {
+        _workers= Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            final AtomicInteger _threadId= new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread= new Thread(r, name + "-" + _threadId.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds an analysis stage. Stages must all be added before the first frame is submitted.
+     *
+     * @param maxInFlight how many frames the stage may work on at once
+     * @param budgetNanos how long the stage should take per frame
+     */
+    public Stage addStage(String name, FrameProcessor processor, int maxInFlight, long budgetNanos) {
+        Stage stage= new Stage(name, processor, maxInFlight, budgetNanos);
+        _stages.add(stage);
+        return stage;
+    }
+
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(_stages);
+    }
+
+    public void setTerminal(TerminalStage terminal) {
+        _terminal= terminal;
+    }
+
+    /**
+     * Offers a frame to every stage, and to the terminal stage if it's to be kept. Each one that
+     * takes the frame retains it for as long as it needs it; the caller keeps its own reference,
+     * and releases it as usual.
+     *
+     * @param keep whether the terminal stage should get the frame
+     * @return how many stages took the frame, counting the terminal stage
+     */
+    public int submit(PreviewFrame frame, boolean keep) {
+        int taken= 0;
+        ByteBuffer view= null;
+        for (int idx= 0; idx < _stages.size(); idx++) {
+            Stage stage= _stages.get(idx);
+            if (stage.enter()) {
+                if (view == null) view= frame.asReadOnlyBuffer();
+                runStage(stage, view.duplicate(), frame.retain());
+                taken++;
+            }
+        }
+        if (keep && _terminal != null) {
+            _terminal.accept(frame.retain());
+            taken++;
+        }
+        return taken;
+    }
+
+    protected void runStage(final Stage stage, final ByteBuffer view, final PreviewFrame frame) {
+        try {
+            _workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start= System.nanoTime();
+                    try {
+                        stage._processor.process(view, frame.getConfig(), frame.getTimestampNs());
+                    } catch (RuntimeException e) {
+                        stage._errors.incrementAndGet();
+                    } finally {
+                        stage.exit(System.nanoTime() - start);
+                        frame.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shut down: the stage never sees the frame, but still has to let go of it
+            stage._inFlight.decrementAndGet();
+            frame.release();
+        }
+    }
+
+    /**
+     * Stops the workers once the frames already given to stages are processed.
+     */
+    public void shutdown() {
+        _workers.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return _workers.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out= new StringBuilder();
+        for (Stage stage : _stages) {
+            if (out.length() > 0) out.append('\n');
+            out.append(stage);
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,25 @@
+package org.paleozogt.camexample;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Where encoded frames end up. Implementations must accept writes from several save workers at
+ * once.
+ */
+public interface FrameSink extends Closeable {
+    /**
+     * Stores one frame. The sink consumes frame's remaining bytes before returning and doesn't
+     * hold on to the buffer afterwards.
+     *
+     * @param name the frame's path relative to the sink, with '/' between directories, e.g.
+     * "20141018-142233517/IMG_20141018-142233517_c0_000012.jpg"
+     */
+    void write(String name, ByteBuffer frame) throws IOException;
+
+    /**
+     * Makes everything written so far durable.
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,218 @@
+package org.paleozogt.camexample;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A CSV sidecar with one line per captured frame: when it arrived, when a save worker picked it
+ * up, when encoding started and ended, when the write finished, how big the file came out, and
+ * the camera and preview it came from, including whether the recording hint was on. Lines carry
+ * the name the frame was saved under, so they can be matched up with the images, and dropped
+ * frames get a line too. Times are System.nanoTime() in nanoseconds; stages a frame never went
+ * through are empty.
+ *
+ * Save workers only hand records to a bounded queue; a writer thread of its own formats and
+ * writes them in batches. If the writer falls that far behind, records are counted and dropped
+ * rather than making a save wait. Every appended record is either written or counted as lost,
+ * even one that races close().
+ */
+public class FrameTimingLog {
+    static final String HEADER= "frame,name,status,arrival_ns,dequeue_ns,encode_start_ns,encode_end_ns,write_end_ns,"
+            + "bytes,camera,width,height,format,recording_hint";
+    static final Charset CHARSET= Charset.forName("UTF-8");
+    static final int QUEUE_CAPACITY= 1024;
+
+    public enum Status { SAVED, FAILED, DROPPED }
+
+    /**
+     * One frame's line. The save path fills in the times as it goes; any left at -1 are stages
+     * the frame didn't reach.
+     */
+    public static class Record {
+        public final int frameId;
+        public final String name;
+        public final long arrivalNs;
+        public final PreviewConfig config;
+        public final boolean recordingHint;
+        public Status status= Status.SAVED;
+        public long dequeueNs= -1;
+        public long encodeStartNs= -1;
+        public long encodeEndNs= -1;
+        public long writeEndNs= -1;
+        public long bytes= -1;
+
+        Record(int frameId, String name, long arrivalNs, PreviewConfig config, boolean recordingHint) {
+            this.frameId= frameId;
+            this.name= name;
+            this.arrivalNs= arrivalNs;
+            this.config= config;
+            this.recordingHint= recordingHint;
+        }
+
+        void writeTo(Writer out) throws IOException {
+            out.write(frameId + "," + name + "," + status.name().toLowerCase(Locale.US) + "," + arrivalNs + ","
+                    + time(dequeueNs) + "," + time(encodeStartNs) + "," + time(encodeEndNs) + ","
+                    + time(writeEndNs) + "," + time(bytes) + "," + config.cameraId + "," + config.width + "," + config.height + ","
+                    + config.format + "," + (recordingHint ? 1 : 0) + "\n");
+        }
+
+        static String time(long value) {
+            return value >= 0 ? Long.toString(value) : "";
+        }
+    }
+
+    protected final File _file;
+    protected final Writer _out;
+    protected final BlockingQueue<Record> _queue= new ArrayBlockingQueue<Record>(QUEUE_CAPACITY);
+    protected final Thread _writer;
+    protected final AtomicLong _writtenCount= new AtomicLong();
+    protected final AtomicLong _lostCount= new AtomicLong();
+    protected volatile boolean _recordingHint;
+    // appends share it, close() takes it alone, so no append is halfway through when END goes in
+    protected final ReadWriteLock _closeLock= new ReentrantReadWriteLock();
+    protected boolean _closed;
+    protected IOException _error;
+
+    // queued by close() to wake the writer once everything before it is written
+    static final Record END= new Record(-1, null, -1, null, false);
+
+    /**
+     * Starts a new log, or appends to an existing one.
+     *
+     * @param description written as a comment before the header, e.g. the session and device
+     */
+    public FrameTimingLog(File file, String description) throws IOException {
+        _file= file;
+        boolean fresh= !file.exists() || file.length() == 0;
+        _out= new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), CHARSET),
+                64 * 1024);
+        _out.write("# " + description + "\n");
+        if (fresh) {
+            _out.write(HEADER + "\n");
+        }
+        _writer= new Thread("FrameTimingLog") {
+            @Override
+            public void run() {
+                writeRecords();
+            }
+        };
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Stamps frames from now on with the camera's recording hint.
+     */
+    public void setRecordingHint(boolean recordingHint) {
+        _recordingHint= recordingHint;
+    }
+
+    /**
+     * Starts a frame's record. Call as the frame arrives, so it gets the hint the preview was
+     * running with.
+     */
+    public Record newRecord(int frameId, String name, long arrivalNs, PreviewConfig config) {
+        return new Record(frameId, name, arrivalNs, config, _recordingHint);
+    }
+
+    /**
+     * Queues a finished record for writing. Never waits on the writer.
+     */
+    public void append(Record record) {
+        _closeLock.readLock().lock();
+        try {
+            if (_closed || !_queue.offer(record)) {
+                _lostCount.incrementAndGet();
+            }
+        } finally {
+            _closeLock.readLock().unlock();
+        }
+    }
+
+    public long getWrittenCount() { return _writtenCount.get(); }
+    /** records that didn't fit in the queue, or came after close() */
+    public long getLostCount() { return _lostCount.get(); }
+
+    protected void writeRecords() {
+        List<Record> batch= new ArrayList<Record>();
+        try {
+            while (true) {
+                batch.add(_queue.take());
+                _queue.drainTo(batch);
+                boolean end= false;
+                for (Record record : batch) {
+                    if (record == END) {
+                        end= true;
+                    } else if (_error == null) {
+                        try {
+                            record.writeTo(_out);
+                            _writtenCount.incrementAndGet();
+                        } catch (IOException e) {
+                            // keep draining, so appends still don't block
+                            _error= e;
+                        }
+                    }
+                }
+                batch.clear();
+                if (_error == null && _queue.isEmpty()) {
+                    try {
+                        _out.flush();
+                    } catch (IOException e) {
+                        _error= e;
+                    }
+                }
+                if (end) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes whatever's queued and closes the file. Records appended after this are lost.
+     *
+     * @throws IOException the first error writing the log, if there was one
+     */
+    public void close() throws IOException {
+        _closeLock.writeLock().lock();
+        try {
+            if (_closed) return;
+            _closed= true;
+        } finally {
+            _closeLock.writeLock().unlock();
+        }
+        try {
+            _queue.put(END);
+            _writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        _out.close();
+        if (_error != null) {
+            throw _error;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FrameTimingLog{" + _file.getName() + ", " + _writtenCount.get() + " written, " + _lostCount.get()
+                + " lost}";
+    }
+}
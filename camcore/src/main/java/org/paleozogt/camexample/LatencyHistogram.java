@@ -0,0 +1,128 @@
+package org.paleozogt.camexample;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, fixed-size histogram of durations in nanoseconds, bucketed HDR-style: each power
+ * of two is split into 16 linear sub-buckets, so any value is reported to within about 6% and
+ * the whole range from 1ns to centuries fits in under a thousand counters.
+ *
+ * record() is a handful of atomic adds and never allocates, so it's safe on the capture hot path
+ * from any number of threads. Reading it back goes through snapshot().
+ */
+public class LatencyHistogram {
+    static final int SUB_BUCKET_BITS= 4;
+    static final int SUB_BUCKETS= 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT= (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    protected final AtomicLongArray _counts= new AtomicLongArray(BUCKET_COUNT);
+    protected final AtomicLong _count= new AtomicLong();
+    protected final AtomicLong _sum= new AtomicLong();
+    protected final AtomicLong _max= new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos= 0;
+        _counts.incrementAndGet(bucketIndex(nanos));
+        _count.incrementAndGet();
+        _sum.addAndGet(nanos);
+
+        long max= _max.get();
+        while (nanos > max && !_max.compareAndSet(max, nanos)) {
+            max= _max.get();
+        }
+    }
+
+    public void reset() {
+        for (int idx= 0; idx < BUCKET_COUNT; idx++) {
+            _counts.set(idx, 0);
+        }
+        _count.set(0);
+        _sum.set(0);
+        _max.set(0);
+    }
+
+    public Snapshot snapshot() {
+        long[] counts= new long[BUCKET_COUNT];
+        for (int idx= 0; idx < BUCKET_COUNT; idx++) {
+            counts[idx]= _counts.get(idx);
+        }
+        return new Snapshot(counts, _count.get(), _sum.get(), _max.get());
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int)value;
+        int exponent= 63 - Long.numberOfLeadingZeros(value);
+        int subBucket= (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest value that lands in bucket index
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent= index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lower= (long)(SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * A point-in-time copy of the histogram. Recording continues while a snapshot is taken, so
+     * its totals can be off by the few values recorded during the copy.
+     */
+    public static class Snapshot {
+        protected final long[] _counts;
+        protected final long _count;
+        protected final long _sum;
+        protected final long _max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            _counts= counts;
+            _count= count;
+            _sum= sum;
+            _max= max;
+        }
+
+        /**
+         * What was recorded between earlier and this snapshot of the same histogram. Its max is
+         * only known to the resolution of a bucket.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] counts= new long[_counts.length];
+            long max= 0;
+            for (int idx= 0; idx < counts.length; idx++) {
+                counts[idx]= Math.max(0, _counts[idx] - earlier._counts[idx]);
+                if (counts[idx] > 0) max= Math.min(bucketUpperBound(idx), _max);
+            }
+            return new Snapshot(counts, Math.max(0, _count - earlier._count), Math.max(0, _sum - earlier._sum), max);
+        }
+
+        public long getCount() { return _count; }
+        public long getSum() { return _sum; }
+        public long getMax() { return _max; }
+
+        public double getMean() {
+            return _count > 0 ? (double)_sum / _count : 0;
+        }
+
+        /**
+         * @param percentile 0 to 100
+         */
+        public long getPercentile(double percentile) {
+            long total= 0;
+            for (long c : _counts) total+= c;
+            if (total == 0) return 0;
+
+            long rank= Math.max(1, (long)Math.ceil(percentile / 100.0 * total));
+            long seen= 0;
+            for (int idx= 0; idx < _counts.length; idx++) {
+                seen+= _counts[idx];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(idx), _max);
+                }
+            }
+            return _max;
+        }
+    }
+}
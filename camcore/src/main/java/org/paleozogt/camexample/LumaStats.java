@@ -0,0 +1,78 @@
+package org.paleozogt.camexample;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * A pipeline stage that keeps a luma histogram of the latest frame it saw, and from it the mean
+ * brightness and how much of the frame is crushed to black or blown out to white.
+ */
+public class LumaStats implements FramePipeline.FrameProcessor {
+    // levels at or beyond these count as clipped
+    static final int BLACK_LEVEL= 16;
+    static final int WHITE_LEVEL= 235;
+
+    protected final int _sampleStep;
+    protected final int[] _histogram= new int[256];
+
+    protected volatile double _mean;
+    protected volatile double _blackFraction;
+    protected volatile double _whiteFraction;
+    protected volatile long _frameCount;
+
+    /**
+     * @param sampleStep read every this many pixels in each direction
+     */
+    public LumaStats(int sampleStep) {
+        _sampleStep= sampleStep;
+    }
+
+    @Override
+    public synchronized void process(ByteBuffer frame, PreviewConfig config, long timestampNs) {
+        int rowBytes= config.format == PreviewConfig.FORMAT_YV12 ? YuvRotation.align16(config.width) : config.width;
+        int[] histogram= _histogram;
+        for (int idx= 0; idx < histogram.length; idx++) {
+            histogram[idx]= 0;
+        }
+
+        int step= _sampleStep;
+        long sum= 0;
+        int count= 0;
+        for (int y= 0; y < config.height; y+= step) {
+            int row= y * rowBytes;
+            for (int x= 0; x < config.width; x+= step) {
+                int luma= frame.get(row + x) & 0xff;
+                histogram[luma]++;
+                sum+= luma;
+                count++;
+            }
+        }
+        if (count == 0) return;
+
+        int black= 0, white= 0;
+        for (int level= 0; level <= BLACK_LEVEL; level++) black+= histogram[level];
+        for (int level= WHITE_LEVEL; level < 256; level++) white+= histogram[level];
+        _mean= (double)sum / count;
+        _blackFraction= (double)black / count;
+        _whiteFraction= (double)white / count;
+        _frameCount++;
+    }
+
+    /**
+     * @return a copy of the latest histogram
+     */
+    public synchronized int[] getHistogram() {
+        return _histogram.clone();
+    }
+
+    public double getMean() { return _mean; }
+    public double getBlackFraction() { return _blackFraction; }
+    public double getWhiteFraction() { return _whiteFraction; }
+    public long getFrameCount() { return _frameCount; }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "luma %.0f, %.0f%% black, %.0f%% white",
+                _mean, _blackFraction * 100, _whiteFraction * 100);
+    }
+}
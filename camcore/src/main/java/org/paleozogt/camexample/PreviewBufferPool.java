@@ -0,0 +1,94 @@
+package org.paleozogt.camexample;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * A bounded pool of equally sized preview buffers. Buffers are handed to the camera with
+ * addCallbackBuffer() and only come back here once whoever consumed the frame is done with it,
+ * so a capture session reuses a handful of arrays instead of allocating one per frame.
+ *
+ * The pool keeps track of which buffers are checked out, so releasing a buffer twice (or one
+ * that never came from this pool) fails fast, and getOutstandingCount() exposes leaks.
+ */
+public class PreviewBufferPool {
+    protected final int _bufferSize;
+    protected final int _maxBuffers;
+
+    protected final ArrayDeque<byte[]> _free= new ArrayDeque<byte[]>();
+    protected final Set<byte[]> _outstanding= Collections.newSetFromMap(new IdentityHashMap<byte[], Boolean>());
+    protected int _allocatedCount;
+    protected long _acquireCount;
+    protected long _reuseCount;
+
+    public PreviewBufferPool(int bufferSize, int maxBuffers) {
+        if (bufferSize <= 0 || maxBuffers <= 0) {
+            throw new IllegalArgumentException("bad pool size " + maxBuffers + " x " + bufferSize);
+        }
+        _bufferSize= bufferSize;
+        _maxBuffers= maxBuffers;
+    }
+
+    /**
+     * The number of bytes needed to hold one frame. YV12 pads its strides to 16 bytes, so
+     * width * height * bitsPerPixel / 8 can come up short for it.
+     */
+    public static int frameSize(int width, int height, int bitsPerPixel, boolean yv12) {
+        if (yv12) {
+            int yStride= YuvRotation.align16(width);
+            int uvStride= YuvRotation.align16(yStride / 2);
+            return yStride * height + 2 * uvStride * (height / 2);
+        }
+        return (width * height * bitsPerPixel + 7) / 8;
+    }
+
+    public int getBufferSize() { return _bufferSize; }
+    public int getMaxBuffers() { return _maxBuffers; }
+
+    /**
+     * @return a free buffer, a newly allocated one if the pool hasn't reached its cap yet, or
+     * null if every buffer is checked out.
+     */
+    public synchronized byte[] acquire() {
+        byte[] buffer= _free.poll();
+        if (buffer != null) {
+            _reuseCount++;
+        } else if (_allocatedCount < _maxBuffers) {
+            buffer= new byte[_bufferSize];
+            _allocatedCount++;
+        } else {
+            return null;
+        }
+        _acquireCount++;
+        _outstanding.add(buffer);
+        return buffer;
+    }
+
+    public synchronized void release(byte[] buffer) {
+        if (!_outstanding.remove(buffer)) {
+            throw new IllegalArgumentException("buffer is not checked out of this pool");
+        }
+        _free.push(buffer);
+    }
+
+    public synchronized boolean owns(byte[] buffer) {
+        return _outstanding.contains(buffer) || _free.contains(buffer);
+    }
+
+    public synchronized int getAllocatedCount() { return _allocatedCount; }
+    public synchronized int getOutstandingCount() { return _outstanding.size(); }
+    public synchronized int getFreeCount() { return _free.size(); }
+    public synchronized long getAcquireCount() { return _acquireCount; }
+    public synchronized long getReuseCount() { return _reuseCount; }
+
+    @Override
+    public synchronized String toString() {
+        return "PreviewBufferPool{size=" + _bufferSize
+                + ", allocated=" + _allocatedCount + "/" + _maxBuffers
+                + ", outstanding=" + _outstanding.size()
+                + ", acquired=" + _acquireCount
+                + ", reused=" + _reuseCount + "}";
+    }
+}
@@ -0,0 +1,61 @@
+package org.paleozogt.camexample;
+
+/**
+ * An immutable snapshot of the preview geometry, taken once when the preview starts and passed
+ * along with every frame. The save pipeline reads it instead of calling Camera.getParameters(),
+ * which re-parses the whole parameter string and isn't safe once the camera has been released.
+ */
+public final class PreviewConfig {
+    // the android.graphics.ImageFormat values, for code that runs off the device
+    public static final int FORMAT_NV21= 0x11;
+    public static final int FORMAT_YV12= 0x32315659;
+
+    public final int cameraId;
+    public final int width;
+    public final int height;
+    /** an android.graphics.ImageFormat constant */
+    public final int format;
+    /** the sensor's clockwise rotation from CameraInfo.orientation */
+    public final int orientation;
+    public final boolean frontFacing;
+
+    public PreviewConfig(int cameraId, int width, int height, int format, int orientation, boolean frontFacing) {
+        this.cameraId= cameraId;
+        this.width= width;
+        this.height= height;
+        this.format= format;
+        this.orientation= orientation;
+        this.frontFacing= frontFacing;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof PreviewConfig)) return false;
+        PreviewConfig that= (PreviewConfig)o;
+        return cameraId == that.cameraId
+                && width == that.width
+                && height == that.height
+                && format == that.format
+                && orientation == that.orientation
+                && frontFacing == that.frontFacing;
+    }
+
+    @Override
+    public int hashCode() {
+        int result= cameraId;
+        result= 31 * result + width;
+        result= 31 * result + height;
+        result= 31 * result + format;
+        result= 31 * result + orientation;
+        result= 31 * result + (frontFacing ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "PreviewConfig{camera=" + cameraId + ", " + width + "x" + height
+                + ", format=" + format + ", orientation=" + orientation
+                + (frontFacing ? ", front" : "") + "}";
+    }
+}
@@ -0,0 +1,197 @@
+package org.paleozogt.camexample;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A preview buffer together with what it takes to interpret it: the preview geometry it was
+ * captured with, and when. Frames are reference counted so that any number of consumers can
+ * share one buffer without copying it: each consumer retain()s the frame before holding on to
+ * it and release()s it when it's done, and once the last reference is released the buffer goes
+ * back to the frame's release listener (usually on its way back to the camera).
+ *
+ * A frame starts out with one reference, owned by whoever wrapped it. Using a frame after its
+ * last release, or releasing it too often, throws IllegalStateException.
+ *
+ * With leak detection on, frames that become garbage while still referenced are reported, and
+ * their buffers released anyway so the preview doesn't run out. It costs a PhantomReference and
+ * a stack trace per frame, so it's meant for debug builds.
+ */
+public final class PreviewFrame {
+    public interface ReleaseListener {
+        /**
+         * Called, on whichever thread released the frame last, once nothing holds the frame.
+         */
+        void onFrameReleased(byte[] data);
+    }
+
+    public interface LeakListener {
+        /**
+         * Called, on the thread wrapping a new frame, for a frame that was garbage collected
+         * before it was released.
+         *
+         * @param allocatedAt where the frame was wrapped
+         */
+        void onFrameLeaked(PreviewConfig config, long timestampNs, Throwable allocatedAt);
+    }
+
+    protected final byte[] _data;
+    protected final PreviewConfig _config;
+    protected final long _timestampNs;
+    protected final ReleaseListener _releaseListener;
+    protected final AtomicInteger _refs= new AtomicInteger(1);
+    protected final LeakRecord _leak;
+
+    protected static volatile LeakListener _leakListener;
+    protected static final ReferenceQueue<PreviewFrame> _leakQueue= new ReferenceQueue<PreviewFrame>();
+    // the records themselves have to stay reachable for the queue to ever see them
+    protected static final Set<LeakRecord> _leakRecords= Collections.synchronizedSet(new HashSet<LeakRecord>());
+
+    /**
+     * Tracks one frame for leak detection. It holds everything needed to report and release the
+     * frame, but not the frame itself.
+     */
+    static class LeakRecord extends PhantomReference<PreviewFrame> {
+        final byte[] _data;
+        final PreviewConfig _config;
+        final long _timestampNs;
+        final ReleaseListener _releaseListener;
+        final AtomicInteger _refs;
+        final Throwable _allocatedAt= new Throwable("frame wrapped here");
+
+        LeakRecord(PreviewFrame frame) {
+            super(frame, _leakQueue);
+            _data= frame._data;
+            _config= frame._config;
+            _timestampNs= frame._timestampNs;
+            _releaseListener= frame._releaseListener;
+            _refs= frame._refs;
+        }
+    }
+
+    protected PreviewFrame(byte[] data, PreviewConfig config, long timestampNs, ReleaseListener releaseListener) {
+        _data= data;
+        _config= config;
+        _timestampNs= timestampNs;
+        _releaseListener= releaseListener;
+        if (_leakListener != null) {
+            _leak= new LeakRecord(this);
+            _leakRecords.add(_leak);
+        } else {
+            _leak= null;
+        }
+    }
+
+    /**
+     * Wraps a preview buffer, with one reference owned by the caller.
+     *
+     * @param config the preview geometry data was captured with
+     * @param timestampNs when the frame arrived, from System.nanoTime()
+     * @param releaseListener gets data back once the last reference is released
+     */
+    public static PreviewFrame wrap(byte[] data, PreviewConfig config, long timestampNs, ReleaseListener releaseListener) {
+        if (_leakListener != null) {
+            reportLeaks();
+        }
+        return new PreviewFrame(data, config, timestampNs, releaseListener);
+    }
+
+    /**
+     * Turns leak detection on for frames wrapped from now on, or off with a null listener.
+     */
+    public static void setLeakListener(LeakListener listener) {
+        _leakListener= listener;
+    }
+
+    /**
+     * The frame's pixels. Only valid while the caller holds a reference; don't keep the array
+     * beyond the matching release().
+     */
+    public byte[] getData() {
+        checkLive();
+        return _data;
+    }
+
+    /**
+     * A read-only view of the frame's pixels, valid for as long as getData() is.
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        checkLive();
+        return ByteBuffer.wrap(_data).asReadOnlyBuffer();
+    }
+
+    public PreviewConfig getConfig() { return _config; }
+    public long getTimestampNs() { return _timestampNs; }
+    public int getRefCount() { return _refs.get(); }
+
+    /**
+     * Takes another reference to the frame, which the caller must release.
+     *
+     * @return this frame
+     */
+    public PreviewFrame retain() {
+        int refs= _refs.get();
+        do {
+            if (refs <= 0) {
+                throw new IllegalStateException("retain of a released frame " + this);
+            }
+        } while (!_refs.compareAndSet(refs, refs + 1));
+        return this;
+    }
+
+    /**
+     * Gives up a reference to the frame, handing the buffer to the release listener if it was
+     * the last.
+     *
+     * @return true if that was the last reference
+     */
+    public boolean release() {
+        int refs= _refs.decrementAndGet();
+        if (refs > 0) {
+            return false;
+        }
+        if (refs < 0) {
+            _refs.incrementAndGet();
+            throw new IllegalStateException("release of a released frame " + this);
+        }
+        if (_leak != null) {
+            _leakRecords.remove(_leak);
+            _leak.clear();
+        }
+        _releaseListener.onFrameReleased(_data);
+        return true;
+    }
+
+    protected void checkLive() {
+        if (_refs.get() <= 0) {
+            throw new IllegalStateException("use of a released frame " + this);
+        }
+    }
+
+    static void reportLeaks() {
+        Reference<? extends PreviewFrame> reference;
+        while ((reference= _leakQueue.poll()) != null) {
+            LeakRecord leak= (LeakRecord)reference;
+            _leakRecords.remove(leak);
+            if (leak._refs.getAndSet(0) > 0) {
+                LeakListener listener= _leakListener;
+                if (listener != null) {
+                    listener.onFrameLeaked(leak._config, leak._timestampNs, leak._allocatedAt);
+                }
+                leak._releaseListener.onFrameReleased(leak._data);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "PreviewFrame{" + _config.width + "x" + _config.height + " from camera " + _config.cameraId
+                + " at " + _timestampNs + ", " + _refs.get() + " refs}";
+    }
+}
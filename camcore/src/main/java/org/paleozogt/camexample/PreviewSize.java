@@ -0,0 +1,39 @@
+package org.paleozogt.camexample;
+
+/**
+ * A preview size, independent of android.hardware.Camera so size selection runs on any JVM.
+ */
+public final class PreviewSize {
+    public final int width;
+    public final int height;
+
+    public PreviewSize(int width, int height) {
+        this.width= width;
+        this.height= height;
+    }
+
+    public int getPixels() {
+        return width * height;
+    }
+
+    public double getAspect() {
+        return (double)width / height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof PreviewSize)) return false;
+        PreviewSize other= (PreviewSize)o;
+        return width == other.width && height == other.height;
+    }
+
+    @Override
+    public int hashCode() {
+        return width * 31 + height;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height;
+    }
+}
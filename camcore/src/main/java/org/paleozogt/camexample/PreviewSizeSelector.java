@@ -0,0 +1,98 @@
+package org.paleozogt.camexample;
+
+import java.util.Collection;
+
+/**
+ * Chooses a preview size by scoring each candidate and keeping the best. Candidates usually come
+ * from one aspect-ratio bucket of a CameraCapabilities, so a choice only looks at the sizes that
+ * could fit.
+ */
+public final class PreviewSizeSelector {
+    private PreviewSizeSelector() {}
+
+    // how far a size's aspect ratio may stray from the view's and still count as a fit
+    public static final double ASPECT_TOLERANCE= 0.1;
+
+    public interface Scorer {
+        /**
+         * @return how good a choice size is; the highest score wins
+         */
+        double score(PreviewSize size);
+    }
+
+    /**
+     * @return the highest scoring candidate (the first of any ties), or null if there are none
+     */
+    public static PreviewSize select(Collection<PreviewSize> candidates, Scorer scorer) {
+        PreviewSize best= null;
+        double bestScore= Double.NEGATIVE_INFINITY;
+        for (PreviewSize size : candidates) {
+            double score= scorer.score(size);
+            if (best == null || score > bestScore) {
+                best= size;
+                bestScore= score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Prefers the size whose height is closest to height.
+     */
+    public static Scorer closestHeight(final int height) {
+        return new Scorer() {
+            @Override
+            public double score(PreviewSize size) {
+                return -Math.abs(size.height - height);
+            }
+        };
+    }
+
+    /**
+     * Prefers the largest size we can keep up with at targetFps, given what encoding costs.
+     * Sizes that can't keep up score below all those that can, smallest (so fastest) first.
+     *
+     * @param encodeNanosPerPixel measured encode time per pixel of a frame
+     * @param encoders how many frames can be encoded at once
+     */
+    public static Scorer throughput(final double targetFps, final double encodeNanosPerPixel, final int encoders) {
+        return new Scorer() {
+            @Override
+            public double score(PreviewSize size) {
+                double sustainableFps= encoders * 1e9 / (encodeNanosPerPixel * size.getPixels());
+                return sustainableFps >= targetFps ? size.getPixels() : -size.getPixels();
+            }
+        };
+    }
+
+    /**
+     * The size that best fills a width x height view: the closest height among sizes with the
+     * view's aspect ratio, or the closest height of all if none has it.
+     */
+    public static PreviewSize closestTo(CameraCapabilities capabilities, int width, int height) {
+        Scorer scorer= closestHeight(height);
+        PreviewSize size= select(capabilities.getSizesWithAspect((double)width / height, ASPECT_TOLERANCE), scorer);
+        if (size == null) {
+            size= select(capabilities.getPreviewSizes(), scorer);
+        }
+        return size;
+    }
+
+    /**
+     * The largest size with roughly the given aspect ratio whose frames we can encode at targetFps
+     * (or at whatever rate the camera tops out at, if that's lower).
+     */
+    public static PreviewSize forThroughput(CameraCapabilities capabilities, double aspect, double targetFps,
+                                            double encodeNanosPerPixel, int encoders) {
+        double maxFps= capabilities.getMaxFps();
+        if (maxFps > 0) {
+            targetFps= Math.min(targetFps, maxFps);
+        }
+        Scorer scorer= throughput(targetFps, encodeNanosPerPixel, encoders);
+        PreviewSize size= select(capabilities.getSizesWithAspect(aspect, ASPECT_TOLERANCE), scorer);
+        if (size == null) {
+            size= select(capabilities.getPreviewSizes(), scorer);
+        }
+        return size;
+    }
+}
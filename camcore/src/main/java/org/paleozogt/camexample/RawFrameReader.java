@@ -0,0 +1,135 @@
+package org.paleozogt.camexample;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Indexes a container written by RawFrameWriter. Frames can then be read in any order, from any
+ * number of threads. A truncated last record (say, from a crash mid-write) is ignored.
+ */
+public class RawFrameReader implements Closeable {
+    /**
+     * One recorded frame. data is the raw preview buffer exactly as the camera delivered it.
+     */
+    public static class Frame {
+        public final long frameId;
+        public final long timestampNs;
+        public final PreviewConfig config;
+        public final ByteBuffer data;
+
+        Frame(long frameId, long timestampNs, PreviewConfig config, ByteBuffer data) {
+            this.frameId= frameId;
+            this.timestampNs= timestampNs;
+            this.config= config;
+            this.data= data;
+        }
+    }
+
+    protected final File _file;
+    protected final RandomAccessFile _raf;
+    protected final FileChannel _channel;
+    protected int _cameraId;
+    protected long[] _offsets;
+    protected int _frameCount;
+
+    public RawFrameReader(File file) throws IOException {
+        _file= file;
+        _raf= new RandomAccessFile(file, "r");
+        _channel= _raf.getChannel();
+        try {
+            ByteBuffer header= read(0, RawFrameWriter.FILE_HEADER_SIZE);
+            if (header.remaining() < RawFrameWriter.FILE_HEADER_SIZE || header.getLong(0) != RawFrameWriter.MAGIC) {
+                throw new IOException("not a raw frame container: " + file);
+            }
+            if (header.getInt(8) != RawFrameWriter.VERSION) {
+                throw new IOException("unsupported raw frame container version " + header.getInt(8) + ": " + file);
+            }
+            _cameraId= header.getInt(12);
+            index();
+        } catch (IOException e) {
+            _raf.close();
+            throw e;
+        }
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    public int getCameraId() {
+        return _cameraId;
+    }
+
+    public int getFrameCount() {
+        return _frameCount;
+    }
+
+    public Frame getFrame(int index) throws IOException {
+        if (index < 0 || index >= _frameCount) {
+            throw new IndexOutOfBoundsException("frame " + index + " of " + _frameCount);
+        }
+        long offset= _offsets[index];
+        ByteBuffer header= read(offset, RawFrameWriter.RECORD_HEADER_SIZE);
+        int headerSize= header.getInt(4);
+        long frameId= header.getLong(8);
+        long timestampNs= header.getLong(16);
+        int width= header.getInt(24);
+        int height= header.getInt(28);
+        int format= header.getInt(32);
+        int orientation= header.getInt(36);
+        int flags= header.getInt(40);
+        int length= header.getInt(44);
+
+        PreviewConfig config= new PreviewConfig(_cameraId, width, height, format, orientation,
+                (flags & RawFrameWriter.FLAG_FRONT_FACING) != 0);
+        ByteBuffer data= _channel.map(FileChannel.MapMode.READ_ONLY, offset + headerSize, length);
+        return new Frame(frameId, timestampNs, config, data);
+    }
+
+    @Override
+    public void close() throws IOException {
+        _raf.close();
+    }
+
+    protected void index() throws IOException {
+        _offsets= new long[64];
+        _frameCount= 0;
+
+        long size= _channel.size();
+        long offset= RawFrameWriter.FILE_HEADER_SIZE;
+        while (offset + RawFrameWriter.RECORD_HEADER_SIZE <= size) {
+            ByteBuffer header= read(offset, RawFrameWriter.RECORD_HEADER_SIZE);
+            if (header.getInt(0) != RawFrameWriter.RECORD_MAGIC) {
+                throw new IOException("corrupt record at " + offset + " in " + _file);
+            }
+            int headerSize= header.getInt(4);
+            int length= header.getInt(44);
+            long next= offset + headerSize + length;
+            if (headerSize < RawFrameWriter.RECORD_HEADER_SIZE || length < 0 || next > size) {
+                break;
+            }
+
+            if (_frameCount == _offsets.length) {
+                long[] grown= new long[_frameCount * 2];
+                System.arraycopy(_offsets, 0, grown, 0, _frameCount);
+                _offsets= grown;
+            }
+            _offsets[_frameCount++]= offset;
+            offset= next;
+        }
+    }
+
+    protected ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer= ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (_channel.read(buffer, position + buffer.position()) < 0) break;
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,102 @@
+package org.paleozogt.camexample;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends unencoded preview frames to a compact container, so high-rate capture only pays for a
+ * memcpy to storage and the JPEG encoding can happen later, off the device (see RawTranscoder).
+ *
+ * Layout (little-endian):
+ * <pre>
+ *   header:  magic "CAMRAW01", int version, int cameraId
+ *   record:  int RECORD_MAGIC, int recordHeaderSize, long frameId, long timestampNs,
+ *            int width, int height, int format, int orientation, int flags, int length,
+ *            payload (the preview buffer as the camera delivered it)
+ * </pre>
+ * Readers skip recordHeaderSize bytes to reach the payload, so fields can be added later. The
+ * camera id was a reserved 0 in the first containers, which read as camera 0.
+ */
+public class RawFrameWriter implements Closeable {
+    public static final long MAGIC= 0x31305741524d4143L; // "CAMRAW01" read as a little-endian long
+    public static final int VERSION= 1;
+    public static final int FILE_HEADER_SIZE= 16;
+    public static final int RECORD_MAGIC= 0x4d524652; // "RFRM"
+    public static final int RECORD_HEADER_SIZE= 48;
+    public static final int FLAG_FRONT_FACING= 1;
+
+    protected final FileOutputStream _stream;
+    protected final FileChannel _channel;
+    protected final ByteBuffer _header= ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    protected final ByteBuffer[] _record= new ByteBuffer[2];
+    protected int _frameCount;
+
+    /**
+     * @param cameraId the camera every frame in the container comes from, which FrameNamer
+     * names them after
+     */
+    public RawFrameWriter(File file, int cameraId) throws IOException {
+        _stream= new FileOutputStream(file);
+        _channel= _stream.getChannel();
+
+        ByteBuffer header= ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC).putInt(VERSION).putInt(cameraId).flip();
+        try {
+            writeFully(new ByteBuffer[] { header });
+        } catch (IOException e) {
+            _stream.close();
+            throw e;
+        }
+    }
+
+    public synchronized int getFrameCount() {
+        return _frameCount;
+    }
+
+    /**
+     * Appends one frame. Safe to call from several threads; records are never interleaved.
+     *
+     * @param data the preview buffer; only the first length bytes are written
+     */
+    public synchronized void write(long frameId, long timestampNs, PreviewConfig config, byte[] data, int length)
+            throws IOException {
+        _header.clear();
+        _header.putInt(RECORD_MAGIC)
+               .putInt(RECORD_HEADER_SIZE)
+               .putLong(frameId)
+               .putLong(timestampNs)
+               .putInt(config.width)
+               .putInt(config.height)
+               .putInt(config.format)
+               .putInt(config.orientation)
+               .putInt(config.frontFacing ? FLAG_FRONT_FACING : 0)
+               .putInt(length);
+        _header.flip();
+
+        _record[0]= _header;
+        _record[1]= ByteBuffer.wrap(data, 0, length);
+        writeFully(_record);
+        _record[1]= null;
+        _frameCount++;
+    }
+
+    public synchronized void flush() throws IOException {
+        _channel.force(false);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        _stream.close();
+    }
+
+    protected void writeFully(ByteBuffer[] buffers) throws IOException {
+        while (buffers[buffers.length - 1].hasRemaining()) {
+            _channel.write(buffers);
+        }
+    }
+}
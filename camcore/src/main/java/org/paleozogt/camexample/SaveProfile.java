@@ -0,0 +1,123 @@
+package org.paleozogt.camexample;
+
+/**
+ * What a saved frame looks like: which part of the upright frame to keep, how much to shrink it,
+ * and how to store it. Shrinking and cropping happen on the YUV planes before anything else, so
+ * rotating and encoding a frame costs in proportion to what's saved, not to the sensor size.
+ */
+public final class SaveProfile {
+    public enum Format {
+        JPEG("jpg"),
+        /** the upright, scaled planes as they are, for when encoding can wait */
+        NV21("nv21");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension= extension;
+        }
+    }
+
+    public final String name;
+    /** the region to keep, as fractions (0 to 1) of the upright frame */
+    public final float cropLeft, cropTop, cropRight, cropBottom;
+    /** shrink the cropped region by this factor in each direction, 1 for none */
+    public final int downscale;
+    /** JPEG quality, 1 to 100 */
+    public final int quality;
+    public final Format format;
+
+    public SaveProfile(String name, float cropLeft, float cropTop, float cropRight, float cropBottom,
+                       int downscale, int quality, Format format) {
+        if (cropLeft < 0 || cropTop < 0 || cropRight > 1 || cropBottom > 1
+                || cropLeft >= cropRight || cropTop >= cropBottom) {
+            throw new IllegalArgumentException("bad crop " + cropLeft + "," + cropTop + " " + cropRight + "," + cropBottom);
+        }
+        if (downscale < 1) {
+            throw new IllegalArgumentException("bad downscale " + downscale);
+        }
+        this.name= name;
+        this.cropLeft= cropLeft;
+        this.cropTop= cropTop;
+        this.cropRight= cropRight;
+        this.cropBottom= cropBottom;
+        this.downscale= downscale;
+        this.quality= quality;
+        this.format= format;
+    }
+
+    /**
+     * The whole frame, shrunk by downscale.
+     */
+    public static SaveProfile scaled(String name, int downscale, int quality) {
+        return new SaveProfile(name, 0, 0, 1, 1, downscale, quality, Format.JPEG);
+    }
+
+    /**
+     * The middle fraction of the frame in each direction, at full resolution.
+     */
+    public static SaveProfile centerCrop(String name, float fraction, int quality) {
+        float margin= (1 - fraction) / 2;
+        return new SaveProfile(name, margin, margin, 1 - margin, 1 - margin, 1, quality, Format.JPEG);
+    }
+
+    public SaveProfile withQuality(int quality) {
+        return new SaveProfile(name, cropLeft, cropTop, cropRight, cropBottom, downscale, quality, format);
+    }
+
+    /**
+     * @return the fraction of a frame's pixels that are saved, which is roughly the fraction of
+     * a full frame's save time a save takes
+     */
+    public float getPixelFraction() {
+        return (cropRight - cropLeft) * (cropBottom - cropTop) / (downscale * downscale);
+    }
+
+    /**
+     * @return true if frames are saved whole and at full size
+     */
+    public boolean isFullFrame() {
+        return downscale == 1 && cropLeft == 0 && cropTop == 0 && cropRight == 1 && cropBottom == 1;
+    }
+
+    /**
+     * Works out which pixels of a sensor-oriented frame end up in the saved image, undoing the
+     * rotation and mirroring that make it upright. The region is aligned so that it, and the
+     * downscaled image, have even dimensions and line up with the chroma samples.
+     *
+     * @return { x, y, width, height } in sensor pixels
+     */
+    public int[] sensorCrop(int width, int height, int orientation, boolean mirror) {
+        float l= cropLeft, t= cropTop, r= cropRight, b= cropBottom;
+        if (mirror) {
+            float ml= 1 - r;
+            r= 1 - l;
+            l= ml;
+        }
+        // upright (X, Y) comes from sensor (x, y) by: 90: (1-y, x), 180: (1-x, 1-y), 270: (y, 1-x)
+        float x0, y0, x1, y1;
+        switch (YuvRotation.normalize(orientation)) {
+        case 90:  x0= t;     x1= b;     y0= 1 - r; y1= 1 - l; break;
+        case 180: x0= 1 - r; x1= 1 - l; y0= 1 - b; y1= 1 - t; break;
+        case 270: x0= 1 - b; x1= 1 - t; y0= l;     y1= r;     break;
+        default:  x0= l;     x1= r;     y0= t;     y1= b;     break;
+        }
+
+        int align= 2 * downscale;
+        int x= (Math.round(x0 * width) / 2) * 2;
+        int y= (Math.round(y0 * height) / 2) * 2;
+        int w= Math.max(align, (Math.round(x1 * width) - x) / align * align);
+        int h= Math.max(align, (Math.round(y1 * height) - y) / align * align);
+        // a crop too close to the edge to fit even one aligned block moves in rather than vanishing
+        w= Math.min(w, width / align * align);
+        h= Math.min(h, height / align * align);
+        x= Math.min(x, (width - w) / 2 * 2);
+        y= Math.min(y, (height - h) / 2 * 2);
+        return new int[] { x, y, w, h };
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
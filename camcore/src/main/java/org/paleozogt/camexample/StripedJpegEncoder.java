@@ -0,0 +1,488 @@
+package org.paleozogt.camexample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A baseline JPEG encoder for NV21 frames that splits the image into horizontal stripes and
+ * entropy-codes them in parallel.
+ *
+ * Each stripe is a whole number of MCU rows and is one restart interval, so the stripes share no
+ * state (the DC predictors reset at every RST marker) and can be concatenated into a single
+ * standard JPEG that any decoder reads. NV21 is already 4:2:0 YCbCr, so there's no color
+ * conversion: blocks go straight from the planes to the DCT.
+ *
+ * One encoder is meant to be used by one thread at a time; it reuses its stripe buffers from
+ * frame to frame. Several encoders can share an executor.
+ */
+public class StripedJpegEncoder {
+    protected final ExecutorService _executor;
+    protected final int _stripeCount;
+    protected int _quality= -1;
+
+    protected final int[] _lumaQuant= new int[64];
+    protected final int[] _chromaQuant= new int[64];
+    protected final float[] _lumaDivisors= new float[64];
+    protected final float[] _chromaDivisors= new float[64];
+
+    protected final List<Stripe> _stripes= new ArrayList<Stripe>();
+    protected final List<Stripe> _pending= new ArrayList<Stripe>();
+
+    /**
+     * @param executor runs the stripes; null encodes everything on the calling thread
+     * @param stripeCount how many pieces to split a frame into, usually the executor's thread count
+     */
+    public StripedJpegEncoder(ExecutorService executor, int stripeCount) {
+        _executor= executor;
+        _stripeCount= Math.max(1, stripeCount);
+        setQuality(100);
+    }
+
+    /**
+     * @param quality 1 to 100, scaled the way libjpeg does
+     */
+    public void setQuality(int quality) {
+        quality= Math.max(1, Math.min(100, quality));
+        if (quality == _quality) return;
+        _quality= quality;
+
+        int scale= quality < 50 ? 5000 / quality : 200 - quality * 2;
+        for (int idx= 0; idx < 64; idx++) {
+            _lumaQuant[idx]= Math.max(1, Math.min(255, (STD_LUMA_QUANT[idx] * scale + 50) / 100));
+            _chromaQuant[idx]= Math.max(1, Math.min(255, (STD_CHROMA_QUANT[idx] * scale + 50) / 100));
+        }
+        // fold the AAN DCT's output scaling into the quantizer
+        for (int row= 0; row < 8; row++) {
+            for (int col= 0; col < 8; col++) {
+                int idx= row * 8 + col;
+                double aan= AAN_SCALE[row] * AAN_SCALE[col] * 8;
+                _lumaDivisors[idx]= (float)(1.0 / (_lumaQuant[idx] * aan));
+                _chromaDivisors[idx]= (float)(1.0 / (_chromaQuant[idx] * aan));
+            }
+        }
+    }
+
+    public int getQuality() {
+        return _quality;
+    }
+
+    /**
+     * Encodes a width x height NV21 frame (both even) as a complete JFIF file.
+     */
+    public void encode(byte[] nv21, int width, int height, OutputStream out) throws IOException {
+        if ((width & 1) != 0 || (height & 1) != 0 || width > 65535 || height > 65535) {
+            throw new IllegalArgumentException("bad frame size " + width + "x" + height);
+        }
+        int mcuCols= (width + 15) / 16;
+        int mcuRows= (height + 15) / 16;
+        int rowsPerStripe= (mcuRows + _stripeCount - 1) / _stripeCount;
+        if (mcuCols * rowsPerStripe > 65535) {
+            rowsPerStripe= 65535 / mcuCols;
+        }
+        int stripes= (mcuRows + rowsPerStripe - 1) / rowsPerStripe;
+
+        while (_stripes.size() < stripes) {
+            _stripes.add(new Stripe());
+        }
+        _pending.clear();
+        for (int idx= 0; idx < stripes; idx++) {
+            Stripe stripe= _stripes.get(idx);
+            stripe.set(nv21, width, height, idx * rowsPerStripe, Math.min(mcuRows, (idx + 1) * rowsPerStripe));
+            _pending.add(stripe);
+        }
+        runStripes();
+
+        writeHeaders(out, width, height, stripes > 1 ? mcuCols * rowsPerStripe : 0);
+        for (int idx= 0; idx < stripes; idx++) {
+            Stripe stripe= _stripes.get(idx);
+            out.write(stripe._out, 0, stripe._length);
+            if (idx + 1 < stripes) {
+                out.write(0xff);
+                out.write(0xd0 + (idx & 7)); // RSTn
+            }
+            stripe._nv21= null;
+        }
+        out.write(0xff);
+        out.write(0xd9); // EOI
+    }
+
+    protected void runStripes() throws IOException {
+        if (_executor == null || _pending.size() == 1) {
+            for (Stripe stripe : _pending) {
+                stripe.call();
+            }
+            return;
+        }
+
+        try {
+            for (Future<Void> future : _executor.invokeAll(_pending)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while encoding");
+        } catch (ExecutionException e) {
+            throw new IOException("stripe failed", e.getCause());
+        }
+    }
+
+    protected void writeHeaders(OutputStream out, int width, int height, int restartInterval) throws IOException {
+        out.write(JFIF_HEADER);
+
+        // DQT: both tables, zigzag order
+        writeMarker(out, 0xdb, 2 + 2 * 65);
+        out.write(0);
+        for (int idx= 0; idx < 64; idx++) out.write(_lumaQuant[ZIGZAG[idx]]);
+        out.write(1);
+        for (int idx= 0; idx < 64; idx++) out.write(_chromaQuant[ZIGZAG[idx]]);
+
+        // SOF0: 8 bit, Y sampled 2x2, Cb and Cr 1x1
+        writeMarker(out, 0xc0, 17);
+        out.write(8);
+        out.write(height >> 8); out.write(height);
+        out.write(width >> 8); out.write(width);
+        out.write(3);
+        out.write(1); out.write(0x22); out.write(0);
+        out.write(2); out.write(0x11); out.write(1);
+        out.write(3); out.write(0x11); out.write(1);
+
+        writeHuffmanTable(out, 0x00, DC_LUMA_BITS, DC_LUMA_VALUES);
+        writeHuffmanTable(out, 0x10, AC_LUMA_BITS, AC_LUMA_VALUES);
+        writeHuffmanTable(out, 0x01, DC_CHROMA_BITS, DC_CHROMA_VALUES);
+        writeHuffmanTable(out, 0x11, AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+        if (restartInterval > 0) {
+            writeMarker(out, 0xdd, 4);
+            out.write(restartInterval >> 8);
+            out.write(restartInterval);
+        }
+
+        // SOS
+        writeMarker(out, 0xda, 12);
+        out.write(3);
+        out.write(1); out.write(0x00);
+        out.write(2); out.write(0x11);
+        out.write(3); out.write(0x11);
+        out.write(0); out.write(63); out.write(0);
+    }
+
+    static void writeMarker(OutputStream out, int marker, int length) throws IOException {
+        out.write(0xff);
+        out.write(marker);
+        out.write(length >> 8);
+        out.write(length);
+    }
+
+    static void writeHuffmanTable(OutputStream out, int classAndId, int[] bits, int[] values) throws IOException {
+        writeMarker(out, 0xc4, 2 + 1 + 16 + values.length);
+        out.write(classAndId);
+        for (int count : bits) out.write(count);
+        for (int value : values) out.write(value);
+    }
+
+    /**
+     * One restart interval's worth of MCU rows, entropy-coded into its own byte buffer.
+     */
+    protected class Stripe implements Callable<Void> {
+        byte[] _nv21;
+        int _width, _height, _firstRow, _endRow;
+
+        byte[] _out= new byte[16 * 1024];
+        int _length;
+        int _bitBuffer, _bitCount;
+
+        final float[] _block= new float[64];
+        final int[] _coefficients= new int[64];
+        int _yPred, _cbPred, _crPred;
+
+        void set(byte[] nv21, int width, int height, int firstRow, int endRow) {
+            _nv21= nv21;
+            _width= width;
+            _height= height;
+            _firstRow= firstRow;
+            _endRow= endRow;
+        }
+
+        @Override
+        public Void call() {
+            _length= 0;
+            _bitBuffer= 0;
+            _bitCount= 0;
+            _yPred= _cbPred= _crPred= 0;
+
+            int mcuCols= (_width + 15) / 16;
+            int ySize= _width * _height;
+            for (int my= _firstRow; my < _endRow; my++) {
+                for (int mx= 0; mx < mcuCols; mx++) {
+                    int x= mx * 16, y= my * 16;
+                    _yPred= encodeLuma(x, y, _yPred);
+                    _yPred= encodeLuma(x + 8, y, _yPred);
+                    _yPred= encodeLuma(x, y + 8, _yPred);
+                    _yPred= encodeLuma(x + 8, y + 8, _yPred);
+                    // NV21 interleaves V before U
+                    _cbPred= encodeChroma(ySize + 1, mx * 8, my * 8, _cbPred);
+                    _crPred= encodeChroma(ySize, mx * 8, my * 8, _crPred);
+                }
+            }
+            flushBits();
+            return null;
+        }
+
+        int encodeLuma(int x0, int y0, int pred) {
+            int maxX= _width - 1, maxY= _height - 1;
+            for (int row= 0; row < 8; row++) {
+                int rowStart= Math.min(y0 + row, maxY) * _width;
+                for (int col= 0; col < 8; col++) {
+                    _block[row * 8 + col]= (_nv21[rowStart + Math.min(x0 + col, maxX)] & 0xff) - 128;
+                }
+            }
+            return encodeBlock(pred, _lumaDivisors, DC_LUMA_CODES, DC_LUMA_SIZES, AC_LUMA_CODES, AC_LUMA_SIZES);
+        }
+
+        int encodeChroma(int planeOffset, int x0, int y0, int pred) {
+            int maxX= _width / 2 - 1, maxY= _height / 2 - 1;
+            for (int row= 0; row < 8; row++) {
+                int rowStart= planeOffset + Math.min(y0 + row, maxY) * _width;
+                for (int col= 0; col < 8; col++) {
+                    _block[row * 8 + col]= (_nv21[rowStart + 2 * Math.min(x0 + col, maxX)] & 0xff) - 128;
+                }
+            }
+            return encodeBlock(pred, _chromaDivisors, DC_CHROMA_CODES, DC_CHROMA_SIZES, AC_CHROMA_CODES, AC_CHROMA_SIZES);
+        }
+
+        int encodeBlock(int pred, float[] divisors, int[] dcCodes, int[] dcSizes, int[] acCodes, int[] acSizes) {
+            forwardDct(_block);
+            for (int idx= 0; idx < 64; idx++) {
+                int natural= ZIGZAG[idx];
+                _coefficients[idx]= Math.round(_block[natural] * divisors[natural]);
+            }
+
+            int dc= _coefficients[0];
+            int diff= dc - pred;
+            int category= category(diff);
+            emit(dcCodes[category], dcSizes[category]);
+            emitValue(diff, category);
+
+            int run= 0;
+            for (int idx= 1; idx < 64; idx++) {
+                int ac= _coefficients[idx];
+                if (ac == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    emit(acCodes[0xf0], acSizes[0xf0]);
+                    run-= 16;
+                }
+                int size= category(ac);
+                int symbol= (run << 4) | size;
+                emit(acCodes[symbol], acSizes[symbol]);
+                emitValue(ac, size);
+                run= 0;
+            }
+            if (run > 0) {
+                emit(acCodes[0x00], acSizes[0x00]);
+            }
+            return dc;
+        }
+
+        void emitValue(int value, int size) {
+            if (size == 0) return;
+            if (value < 0) value--;
+            emit(value & ((1 << size) - 1), size);
+        }
+
+        void emit(int code, int size) {
+            _bitBuffer= (_bitBuffer << size) | code;
+            _bitCount+= size;
+            while (_bitCount >= 8) {
+                int b= (_bitBuffer >> (_bitCount - 8)) & 0xff;
+                putByte(b);
+                if (b == 0xff) putByte(0); // byte stuffing
+                _bitCount-= 8;
+            }
+            _bitBuffer&= (1 << _bitCount) - 1;
+        }
+
+        void flushBits() {
+            // pad the last partial byte with ones, as the spec asks before a marker
+            if (_bitCount > 0) {
+                emit((1 << (8 - _bitCount)) - 1, 8 - _bitCount);
+            }
+        }
+
+        void putByte(int b) {
+            if (_length == _out.length) {
+                byte[] grown= new byte[_out.length * 2];
+                System.arraycopy(_out, 0, grown, 0, _length);
+                _out= grown;
+            }
+            _out[_length++]= (byte)b;
+        }
+    }
+
+    static int category(int value) {
+        if (value < 0) value= -value;
+        int bits= 0;
+        while (value != 0) {
+            bits++;
+            value>>= 1;
+        }
+        return bits;
+    }
+
+    /**
+     * The AAN floating point forward DCT (as in libjpeg's jfdctflt.c), in place on an 8x8 block.
+     * Outputs are scaled by AAN_SCALE[row] * AAN_SCALE[col] * 8, which the divisors undo.
+     */
+    static void forwardDct(float[] d) {
+        for (int pass= 0; pass < 2; pass++) {
+            int step= pass == 0 ? 1 : 8;   // rows, then columns
+            int next= pass == 0 ? 8 : 1;
+            for (int i= 0; i < 8; i++) {
+                int o= i * next;
+                float tmp0= d[o] + d[o + 7 * step];
+                float tmp7= d[o] - d[o + 7 * step];
+                float tmp1= d[o + step] + d[o + 6 * step];
+                float tmp6= d[o + step] - d[o + 6 * step];
+                float tmp2= d[o + 2 * step] + d[o + 5 * step];
+                float tmp5= d[o + 2 * step] - d[o + 5 * step];
+                float tmp3= d[o + 3 * step] + d[o + 4 * step];
+                float tmp4= d[o + 3 * step] - d[o + 4 * step];
+
+                float tmp10= tmp0 + tmp3;
+                float tmp13= tmp0 - tmp3;
+                float tmp11= tmp1 + tmp2;
+                float tmp12= tmp1 - tmp2;
+
+                d[o]= tmp10 + tmp11;
+                d[o + 4 * step]= tmp10 - tmp11;
+                float z1= (tmp12 + tmp13) * 0.707106781f;
+                d[o + 2 * step]= tmp13 + z1;
+                d[o + 6 * step]= tmp13 - z1;
+
+                tmp10= tmp4 + tmp5;
+                tmp11= tmp5 + tmp6;
+                tmp12= tmp6 + tmp7;
+                float z5= (tmp10 - tmp12) * 0.382683433f;
+                float z2= 0.541196100f * tmp10 + z5;
+                float z4= 1.306562965f * tmp12 + z5;
+                float z3= tmp11 * 0.707106781f;
+                float z11= tmp7 + z3;
+                float z13= tmp7 - z3;
+
+                d[o + 5 * step]= z13 + z2;
+                d[o + 3 * step]= z13 - z2;
+                d[o + step]= z11 + z4;
+                d[o + 7 * step]= z11 - z4;
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------
+    // tables from ITU T.81 annex K
+
+    static final double[] AAN_SCALE= {
+            1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    /** natural (row-major) index of each zigzag position */
+    static final int[] ZIGZAG= {
+             0,  1,  8, 16,  9,  2,  3, 10, 17, 24, 32, 25, 18, 11,  4,  5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13,  6,  7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    static final int[] STD_LUMA_QUANT= {
+            16, 11, 10, 16,  24,  40,  51,  61,
+            12, 12, 14, 19,  26,  58,  60,  55,
+            14, 13, 16, 24,  40,  57,  69,  56,
+            14, 17, 22, 29,  51,  87,  80,  62,
+            18, 22, 37, 56,  68, 109, 103,  77,
+            24, 35, 55, 64,  81, 104, 113,  92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103,  99
+    };
+
+    static final int[] STD_CHROMA_QUANT= {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    static final int[] DC_LUMA_BITS= { 0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0 };
+    static final int[] DC_LUMA_VALUES= { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+    static final int[] DC_CHROMA_BITS= { 0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0 };
+    static final int[] DC_CHROMA_VALUES= { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+
+    static final int[] AC_LUMA_BITS= { 0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d };
+    static final int[] AC_LUMA_VALUES= {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    static final int[] AC_CHROMA_BITS= { 0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77 };
+    static final int[] AC_CHROMA_VALUES= {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa
+    };
+
+    static final int[] DC_LUMA_CODES= new int[12], DC_LUMA_SIZES= new int[12];
+    static final int[] DC_CHROMA_CODES= new int[12], DC_CHROMA_SIZES= new int[12];
+    static final int[] AC_LUMA_CODES= new int[256], AC_LUMA_SIZES= new int[256];
+    static final int[] AC_CHROMA_CODES= new int[256], AC_CHROMA_SIZES= new int[256];
+
+    static {
+        buildHuffmanCodes(DC_LUMA_BITS, DC_LUMA_VALUES, DC_LUMA_CODES, DC_LUMA_SIZES);
+        buildHuffmanCodes(DC_CHROMA_BITS, DC_CHROMA_VALUES, DC_CHROMA_CODES, DC_CHROMA_SIZES);
+        buildHuffmanCodes(AC_LUMA_BITS, AC_LUMA_VALUES, AC_LUMA_CODES, AC_LUMA_SIZES);
+        buildHuffmanCodes(AC_CHROMA_BITS, AC_CHROMA_VALUES, AC_CHROMA_CODES, AC_CHROMA_SIZES);
+    }
+
+    static void buildHuffmanCodes(int[] bits, int[] values, int[] codes, int[] sizes) {
+        int code= 0, k= 0;
+        for (int length= 1; length <= 16; length++) {
+            for (int idx= 0; idx < bits[length - 1]; idx++, k++) {
+                codes[values[k]]= code++;
+                sizes[values[k]]= length;
+            }
+            code<<= 1;
+        }
+    }
+
+    static final byte[] JFIF_HEADER= {
+            (byte)0xff, (byte)0xd8,                         // SOI
+            (byte)0xff, (byte)0xe0, 0, 16,                  // APP0
+            'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0
+    };
+}
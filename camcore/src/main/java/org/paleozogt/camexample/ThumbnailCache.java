@@ -0,0 +1,231 @@
+package org.paleozogt.camexample;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small JPEG thumbnails of saved frames, kept so a gallery never has to decode a full frame: the
+ * most recently used in memory, and as many as fit in a size cap on disk. Both drop the least
+ * recently used thumbnails first. Thumbnails are looked up by the name their frame was saved
+ * under.
+ *
+ * The disk cache is one flat directory, read the first time it's needed. A thumbnail's file
+ * modification time is its last use, so the order survives restarts. Files are written under a
+ * temporary name and renamed into place, so a crash never leaves a partial thumbnail behind.
+ */
+public class ThumbnailCache {
+    static final String TEMP_SUFFIX= ".tmp";
+
+    protected final File _directory;
+    protected final long _maxDiskBytes;
+    protected final int _maxMemoryBytes;
+
+    // both in least recently used order
+    protected Map<String, Long> _diskSizes;
+    protected long _diskBytes;
+    protected final Map<String, byte[]> _memory= new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    protected int _memoryBytes;
+
+    protected int _memoryHits;
+    protected int _diskHits;
+    protected int _misses;
+
+    public ThumbnailCache(File directory, long maxDiskBytes, int maxMemoryBytes) {
+        _directory= directory;
+        _maxDiskBytes= maxDiskBytes;
+        _maxMemoryBytes= maxMemoryBytes;
+    }
+
+    public File getDirectory() {
+        return _directory;
+    }
+
+    /**
+     * Adds a frame's thumbnail, evicting older ones as needed. Safe to call from any number of
+     * threads, as long as they're putting different frames. A thumbnail that can't be written
+     * isn't cached at all, in memory or on disk.
+     */
+    public void put(String name, ByteBuffer jpeg) throws IOException {
+        byte[] data= new byte[jpeg.remaining()];
+        jpeg.get(data);
+        String fileName= fileName(name);
+
+        synchronized (this) {
+            // creates the directory the first time through
+            load();
+        }
+
+        File temp= new File(_directory, fileName + TEMP_SUFFIX);
+        try {
+            FileOutputStream stream= new FileOutputStream(temp);
+            try {
+                stream.write(data);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+
+        synchronized (this) {
+            File file= new File(_directory, fileName);
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("can't rename " + temp + " to " + file);
+            }
+            Long replaced= _diskSizes.put(fileName, (long)data.length);
+            _diskBytes+= data.length - (replaced != null ? replaced : 0);
+            trimDisk();
+            remember(name, data);
+        }
+    }
+
+    /**
+     * @return the frame's thumbnail as a JPEG, or null if it isn't cached
+     */
+    public byte[] get(String name) throws IOException {
+        String fileName= fileName(name);
+        File file;
+        synchronized (this) {
+            byte[] data= _memory.get(name);
+            if (data != null) {
+                _memoryHits++;
+                return data;
+            }
+            load();
+            Long size= _diskSizes.get(fileName);
+            if (size == null) {
+                _misses++;
+                return null;
+            }
+            _diskHits++;
+            file= new File(_directory, fileName);
+        }
+
+        byte[] data= readFile(file);
+        if (data == null) {
+            // evicted since we looked
+            return null;
+        }
+        file.setLastModified(System.currentTimeMillis());
+        synchronized (this) {
+            remember(name, data);
+        }
+        return data;
+    }
+
+    public synchronized long getDiskBytes() {
+        load();
+        return _diskBytes;
+    }
+
+    public synchronized int getMemoryBytes() {
+        return _memoryBytes;
+    }
+
+    /**
+     * Reads the directory's thumbnails, oldest use first, and clears away anything a crash left
+     * half written.
+     */
+    protected void load() {
+        if (_diskSizes != null) return;
+
+        _diskSizes= new LinkedHashMap<String, Long>(16, 0.75f, true);
+        _diskBytes= 0;
+        if (!_directory.isDirectory() && !_directory.mkdirs()) {
+            return;
+        }
+        File[] files= _directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long[] modified= new long[files.length];
+        Integer[] order= new Integer[files.length];
+        for (int idx= 0; idx < files.length; idx++) {
+            // read each file's time once, rather than on every comparison
+            modified[idx]= files[idx].lastModified();
+            order[idx]= idx;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return modified[a] < modified[b] ? -1 : modified[a] > modified[b] ? 1 : 0;
+            }
+        });
+        for (Integer idx : order) {
+            File file= files[idx];
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+            } else if (file.isFile()) {
+                _diskSizes.put(file.getName(), file.length());
+                _diskBytes+= file.length();
+            }
+        }
+        trimDisk();
+    }
+
+    protected void remember(String name, byte[] data) {
+        byte[] replaced= _memory.put(name, data);
+        _memoryBytes+= data.length - (replaced != null ? replaced.length : 0);
+        Iterator<byte[]> eldest= _memory.values().iterator();
+        while (_memoryBytes > _maxMemoryBytes && eldest.hasNext()) {
+            _memoryBytes-= eldest.next().length;
+            eldest.remove();
+        }
+    }
+
+    protected void trimDisk() {
+        Iterator<Map.Entry<String, Long>> eldest= _diskSizes.entrySet().iterator();
+        while (_diskBytes > _maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry= eldest.next();
+            new File(_directory, entry.getKey()).delete();
+            _diskBytes-= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Frame names can include subdirectories; the cache flattens them into one.
+     */
+    static String fileName(String name) {
+        return name.replace('/', '_');
+    }
+
+    static byte[] readFile(File file) throws IOException {
+        FileInputStream stream;
+        try {
+            stream= new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            byte[] data= new byte[(int)stream.getChannel().size()];
+            int read= 0;
+            while (read < data.length) {
+                int count= stream.read(data, read, data.length - read);
+                if (count < 0) break;
+                read+= count;
+            }
+            return read == data.length ? data : null;
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ThumbnailCache{" + _memory.size() + " in memory (" + _memoryBytes / 1024 + "KB), "
+                + (_diskSizes != null ? _diskSizes.size() + " on disk (" + _diskBytes / 1024 + "KB)" : "disk not read")
+                + ", " + _memoryHits + " memory hits, " + _diskHits + " disk hits, " + _misses + " misses}";
+    }
+}
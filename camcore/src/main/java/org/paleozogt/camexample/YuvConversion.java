@@ -0,0 +1,51 @@
+package org.paleozogt.camexample;
+
+/**
+ * Converts NV21 frames to packed RGB, for the places that encode without Android's YuvImage.
+ * Camera preview data is full-range (JFIF) YCbCr, so that's the matrix used here.
+ */
+public final class YuvConversion {
+    private YuvConversion() {}
+
+    /**
+     * Writes width * height 0xAARRGGBB pixels (alpha is always opaque) to argb, row by row.
+     */
+    public static void nv21ToArgb(byte[] nv21, int width, int height, int[] argb) {
+        if (argb.length < width * height) {
+            throw new IllegalArgumentException("destination too small for " + width + "x" + height);
+        }
+        int ySize= width * height;
+        for (int y= 0; y < height; y++) {
+            int yIndex= y * width;
+            int uvIndex= ySize + (y >> 1) * width;
+            for (int x= 0; x < width; x+= 2, uvIndex+= 2) {
+                int v= (nv21[uvIndex] & 0xff) - 128;
+                int u= (nv21[uvIndex + 1] & 0xff) - 128;
+
+                // 16.16 fixed point versions of 1.402, 0.344136, 0.714136 and 1.772
+                int rOffset= 91881 * v;
+                int gOffset= -22554 * u - 46802 * v;
+                int bOffset= 116130 * u;
+
+                argb[yIndex]= toArgb(nv21[yIndex] & 0xff, rOffset, gOffset, bOffset);
+                yIndex++;
+                if (x + 1 < width) {
+                    argb[yIndex]= toArgb(nv21[yIndex] & 0xff, rOffset, gOffset, bOffset);
+                    yIndex++;
+                }
+            }
+        }
+    }
+
+    private static int toArgb(int luma, int rOffset, int gOffset, int bOffset) {
+        int y= (luma << 16) + 32768;
+        int r= clamp((y + rOffset) >> 16);
+        int g= clamp((y + gOffset) >> 16);
+        int b= clamp((y + bOffset) >> 16);
+        return 0xff000000 | (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int c) {
+        return c < 0 ? 0 : (c > 255 ? 255 : c);
+    }
+}
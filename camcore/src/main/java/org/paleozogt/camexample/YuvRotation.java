@@ -0,0 +1,228 @@
+package org.paleozogt.camexample;
+
+/**
+ * Rotates and mirrors raw preview frames directly on their YUV planes, so a frame can go straight
+ * from the camera to a single JPEG encode without a round trip through Bitmap.
+ *
+ * Rotation is clockwise, matching Matrix.postRotate() and CameraInfo.orientation. Mirroring flips
+ * the rotated frame left to right, which is what the display does for a front-facing camera.
+ * Output is always NV21 (the layout YuvImage understands), whether the input is NV21 or YV12.
+ *
+ * Quarter turns walk the source in square tiles, so reads and scattered writes both stay within
+ * a few cache lines at a time instead of striding a whole column of the destination per pixel.
+ */
+public final class YuvRotation {
+    private YuvRotation() {}
+
+    // 32x32 bytes of source and destination together fit comfortably in L1 on the phones we run on
+    static final int TILE_SIZE= 32;
+
+    public static int nv21Size(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    public static int rotatedWidth(int width, int height, int degrees) {
+        return (degrees == 90 || degrees == 270) ? height : width;
+    }
+
+    public static int rotatedHeight(int width, int height, int degrees) {
+        return (degrees == 90 || degrees == 270) ? width : height;
+    }
+
+    public static int align16(int n) {
+        return (n + 15) & ~15;
+    }
+
+    public static void rotateNV21(byte[] src, byte[] dst, int width, int height, int degrees) {
+        transformNV21(src, dst, width, height, degrees, false);
+    }
+
+    public static void rotateYV12ToNV21(byte[] src, byte[] dst, int width, int height, int degrees) {
+        transformYV12ToNV21(src, dst, width, height, degrees, false);
+    }
+
+    /**
+     * Rotates src clockwise by degrees, then mirrors it if asked, writing the result to dst.
+     * src and dst must be different arrays.
+     */
+    public static void transformNV21(byte[] src, byte[] dst, int width, int height, int degrees, boolean mirror) {
+        degrees= checkArgs(src, dst, width, height, degrees);
+        int ySize= width * height;
+        transformPlane(src, 0, width, 1, dst, 0, 1, width, height, degrees, mirror);
+        transformPlane(src, ySize, width, 2, dst, ySize, 2, width / 2, height / 2, degrees, mirror);
+        transformPlane(src, ySize + 1, width, 2, dst, ySize + 1, 2, width / 2, height / 2, degrees, mirror);
+    }
+
+    public static void transformYV12ToNV21(byte[] src, byte[] dst, int width, int height, int degrees, boolean mirror) {
+        degrees= checkArgs(src, dst, width, height, degrees);
+        // YV12 pads both strides to 16 bytes and stores the full V plane ahead of the U plane
+        int yStride= align16(width);
+        int uvStride= align16(yStride / 2);
+        int vOffset= yStride * height;
+        int uOffset= vOffset + uvStride * (height / 2);
+        int ySize= width * height;
+        transformPlane(src, 0, yStride, 1, dst, 0, 1, width, height, degrees, mirror);
+        transformPlane(src, vOffset, uvStride, 1, dst, ySize, 2, width / 2, height / 2, degrees, mirror);
+        transformPlane(src, uOffset, uvStride, 1, dst, ySize + 1, 2, width / 2, height / 2, degrees, mirror);
+    }
+
+    /**
+     * @return true if transformNV21InPlace() can handle this rotation without a second buffer
+     */
+    public static boolean isInPlace(int degrees) {
+        degrees= normalize(degrees);
+        return degrees == 0 || degrees == 180;
+    }
+
+    /**
+     * Flips frame in place. Only half turns and mirrors keep the frame's shape, so degrees must be
+     * 0 or 180.
+     */
+    public static void transformNV21InPlace(byte[] frame, int width, int height, int degrees, boolean mirror) {
+        degrees= checkArgs(frame, frame, width, height, degrees);
+        if (!isInPlace(degrees)) {
+            throw new IllegalArgumentException("can't rotate " + degrees + " in place");
+        }
+        int ySize= width * height;
+        swapPlane(frame, 0, 1, width, height, degrees, mirror);
+        swapPlane(frame, ySize, 2, width / 2, height / 2, degrees, mirror);
+        swapPlane(frame, ySize + 1, 2, width / 2, height / 2, degrees, mirror);
+    }
+
+    /**
+     * Ping-pong variant: transforms frame in place when the rotation allows it, and into scratch
+     * otherwise.
+     *
+     * @return whichever of frame or scratch now holds the result
+     */
+    public static byte[] transformNV21PingPong(byte[] frame, byte[] scratch, int width, int height, int degrees, boolean mirror) {
+        if (isInPlace(degrees)) {
+            transformNV21InPlace(frame, width, height, degrees, mirror);
+            return frame;
+        }
+        transformNV21(frame, scratch, width, height, degrees, mirror);
+        return scratch;
+    }
+
+    /**
+     * Turns a frame of our own (not the camera's buffer) upright the way ImageSaver does, as
+     * CameraInfo orientation says and mirrored for front cameras, whatever its preview format.
+     *
+     * @param scratch at least nv21Size(config.width, config.height) bytes
+     * @return whichever of frame or scratch now holds the upright NV21 frame
+     */
+    public static byte[] uprightNV21(byte[] frame, byte[] scratch, PreviewConfig config) {
+        if (config.format == PreviewConfig.FORMAT_YV12) {
+            transformYV12ToNV21(frame, scratch, config.width, config.height, config.orientation, config.frontFacing);
+            return scratch;
+        } else if (config.format == PreviewConfig.FORMAT_NV21) {
+            return transformNV21PingPong(frame, scratch, config.width, config.height, config.orientation,
+                    config.frontFacing);
+        }
+        throw new IllegalArgumentException("unsupported preview format " + config.format);
+    }
+
+    /**
+     * Copies a w x h plane (whose samples are srcStep bytes apart) into dst, rotated and mirrored,
+     * writing samples dstStep bytes apart with the transformed plane packed tightly.
+     *
+     * Every rotation/mirror is an affine map from source (x, y) to destination index, so one loop
+     * handles them all: d = base + x * dx + y * dy.
+     */
+    static void transformPlane(byte[] src, int srcOffset, int srcRowBytes, int srcStep,
+                               byte[] dst, int dstOffset, int dstStep,
+                               int w, int h, int degrees, boolean mirror) {
+        int[] map= destinationMap(w, h, dstOffset, dstStep, degrees, mirror);
+        int base= map[0], dx= map[1], dy= map[2];
+
+        if (dx == 1 && srcStep == 1) {
+            // rows stay rows and keep their direction: straight copies
+            for (int y= 0; y < h; y++) {
+                System.arraycopy(src, srcOffset + y * srcRowBytes, dst, base + y * dy, w);
+            }
+            return;
+        }
+
+        for (int ty= 0; ty < h; ty+= TILE_SIZE) {
+            int yEnd= Math.min(ty + TILE_SIZE, h);
+            for (int tx= 0; tx < w; tx+= TILE_SIZE) {
+                int tileWidth= Math.min(TILE_SIZE, w - tx);
+                for (int y= ty; y < yEnd; y++) {
+                    int s= srcOffset + y * srcRowBytes + tx * srcStep;
+                    int d= base + tx * dx + y * dy;
+                    for (int x= 0; x < tileWidth; x++, s+= srcStep, d+= dx) {
+                        dst[d]= src[s];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * In-place counterpart of transformPlane for tightly packed planes. Half turns and mirrors
+     * are their own inverse, so swapping each sample with its destination once does the job.
+     */
+    static void swapPlane(byte[] frame, int offset, int step, int w, int h, int degrees, boolean mirror) {
+        int[] map= destinationMap(w, h, offset, step, degrees, mirror);
+        int base= map[0], dx= map[1], dy= map[2];
+
+        for (int y= 0; y < h; y++) {
+            int s= offset + y * w * step;
+            int d= base + y * dy;
+            for (int x= 0; x < w; x++, s+= step, d+= dx) {
+                if (s < d) {
+                    byte t= frame[s];
+                    frame[s]= frame[d];
+                    frame[d]= t;
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out where source sample (x, y) of a w x h plane lands in the transformed plane.
+     *
+     * @return { base, dx, dy } such that the destination index is base + x * dx + y * dy
+     */
+    static int[] destinationMap(int w, int h, int dstOffset, int dstStep, int degrees, boolean mirror) {
+        // destination column X = ax*x + ay*y + a0, row Y = bx*x + by*y + b0
+        int ax, ay, a0, bx, by, b0;
+        switch (degrees) {
+        case 0:   ax= 1;  ay= 0;  a0= 0;     bx= 0;  by= 1;  b0= 0;     break;
+        case 90:  ax= 0;  ay= -1; a0= h - 1; bx= 1;  by= 0;  b0= 0;     break;
+        case 180: ax= -1; ay= 0;  a0= w - 1; bx= 0;  by= -1; b0= h - 1; break;
+        case 270: ax= 0;  ay= 1;  a0= 0;     bx= -1; by= 0;  b0= w - 1; break;
+        default:
+            throw new IllegalArgumentException("unsupported rotation " + degrees);
+        }
+
+        int dstWidth= rotatedWidth(w, h, degrees);
+        if (mirror) {
+            ax= -ax;
+            ay= -ay;
+            a0= dstWidth - 1 - a0;
+        }
+        return new int[] {
+                dstOffset + (b0 * dstWidth + a0) * dstStep,
+                (bx * dstWidth + ax) * dstStep,
+                (by * dstWidth + ay) * dstStep,
+        };
+    }
+
+    static int normalize(int degrees) {
+        return ((degrees % 360) + 360) % 360;
+    }
+
+    private static int checkArgs(byte[] src, byte[] dst, int width, int height, int degrees) {
+        if ((width & 1) != 0 || (height & 1) != 0) {
+            throw new IllegalArgumentException("odd frame size " + width + "x" + height);
+        }
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("unsupported rotation " + degrees);
+        }
+        if (dst.length < nv21Size(width, height)) {
+            throw new IllegalArgumentException("destination too small for " + width + "x" + height);
+        }
+        return normalize(degrees);
+    }
+}
@@ -0,0 +1,105 @@
+package org.paleozogt.camexample;
+
+/**
+ * Crops and shrinks raw preview frames on their YUV planes with a box filter: each output sample
+ * is the average of the downscale x downscale source samples it covers. Output is NV21, still in
+ * sensor orientation, so the (now smaller) frame can go on to YuvRotation.
+ */
+public final class YuvScaler {
+    private YuvScaler() {}
+
+    /**
+     * @return the size of the NV21 frame cropAndScale() produces
+     */
+    public static int scaledSize(int cropWidth, int cropHeight, int downscale) {
+        return YuvRotation.nv21Size(cropWidth / downscale, cropHeight / downscale);
+    }
+
+    /**
+     * @param crop { x, y, width, height } in source pixels, all even, with width and height
+     * multiples of 2 * downscale (SaveProfile.sensorCrop() gives these)
+     */
+    public static void cropAndScaleNV21(byte[] src, int width, int height, int[] crop, int downscale, byte[] dst) {
+        checkArgs(src, YuvRotation.nv21Size(width, height), crop, width, height, downscale, dst);
+        int x= crop[0], y= crop[1], w= crop[2], h= crop[3];
+        int ySize= width * height;
+        int outYSize= (w / downscale) * (h / downscale);
+        scalePlane(src, y * width + x, width, 1, dst, 0, 1, w, h, downscale);
+        int uvOffset= ySize + (y / 2) * width + x;
+        scalePlane(src, uvOffset, width, 2, dst, outYSize, 2, w / 2, h / 2, downscale);
+        scalePlane(src, uvOffset + 1, width, 2, dst, outYSize + 1, 2, w / 2, h / 2, downscale);
+    }
+
+    public static void cropAndScaleYV12ToNV21(byte[] src, int width, int height, int[] crop, int downscale, byte[] dst) {
+        int yStride= YuvRotation.align16(width);
+        int uvStride= YuvRotation.align16(yStride / 2);
+        int vOffset= yStride * height;
+        int uOffset= vOffset + uvStride * (height / 2);
+        checkArgs(src, uOffset + uvStride * (height / 2), crop, width, height, downscale, dst);
+        int x= crop[0], y= crop[1], w= crop[2], h= crop[3];
+        int outYSize= (w / downscale) * (h / downscale);
+        scalePlane(src, y * yStride + x, yStride, 1, dst, 0, 1, w, h, downscale);
+        int uvCrop= (y / 2) * uvStride + x / 2;
+        scalePlane(src, vOffset + uvCrop, uvStride, 1, dst, outYSize, 2, w / 2, h / 2, downscale);
+        scalePlane(src, uOffset + uvCrop, uvStride, 1, dst, outYSize + 1, 2, w / 2, h / 2, downscale);
+    }
+
+    /**
+     * Box-filters a w x h region of a plane (samples srcStep bytes apart) down by factor, writing
+     * samples dstStep bytes apart with the output rows packed tightly.
+     */
+    static void scalePlane(byte[] src, int srcOffset, int srcRowBytes, int srcStep,
+                           byte[] dst, int dstOffset, int dstStep,
+                           int w, int h, int factor) {
+        int outWidth= w / factor;
+        int outHeight= h / factor;
+
+        if (factor == 1) {
+            for (int oy= 0; oy < outHeight; oy++) {
+                int s= srcOffset + oy * srcRowBytes;
+                int d= dstOffset + oy * outWidth * dstStep;
+                if (srcStep == 1 && dstStep == 1) {
+                    System.arraycopy(src, s, dst, d, outWidth);
+                } else {
+                    for (int ox= 0; ox < outWidth; ox++, s+= srcStep, d+= dstStep) {
+                        dst[d]= src[s];
+                    }
+                }
+            }
+            return;
+        }
+
+        int area= factor * factor;
+        int round= area / 2;
+        int blockStep= factor * srcStep;
+        for (int oy= 0; oy < outHeight; oy++) {
+            int rowStart= srcOffset + oy * factor * srcRowBytes;
+            int d= dstOffset + oy * outWidth * dstStep;
+            for (int ox= 0; ox < outWidth; ox++, d+= dstStep) {
+                int block= rowStart + ox * blockStep;
+                int sum= 0;
+                for (int ky= 0; ky < factor; ky++, block+= srcRowBytes) {
+                    for (int kx= 0, s= block; kx < factor; kx++, s+= srcStep) {
+                        sum+= src[s] & 0xff;
+                    }
+                }
+                dst[d]= (byte)((sum + round) / area);
+            }
+        }
+    }
+
+    private static void checkArgs(byte[] src, int srcSize, int[] crop, int width, int height, int downscale, byte[] dst) {
+        int x= crop[0], y= crop[1], w= crop[2], h= crop[3];
+        if (((x | y) & 1) != 0 || w % (2 * downscale) != 0 || h % (2 * downscale) != 0
+                || w <= 0 || h <= 0 || x + w > width || y + h > height) {
+            throw new IllegalArgumentException("bad crop " + x + "," + y + " " + w + "x" + h
+                    + " of " + width + "x" + height + " by " + downscale);
+        }
+        if (src.length < srcSize) {
+            throw new IllegalArgumentException("source too small for " + width + "x" + height);
+        }
+        if (dst.length < scaledSize(w, h, downscale)) {
+            throw new IllegalArgumentException("destination too small for " + w + "x" + h + " by " + downscale);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Drives the queue with many producers, the way a burst drives the save workers, and checks that
+ * every task is accounted for exactly once: it either ran or was discarded.
+ */
+public class BoundedWorkQueueTest {
+    static final int PRODUCERS= 8;
+    static final int TASKS_PER_PRODUCER= 2000;
+    static final int WORKERS= 2;
+    static final int CAPACITY= 4;
+
+    /**
+     * Stands in for a save: records whether it ran or was discarded, and complains if it's
+     * either one twice, or both.
+     */
+    static class CountingTask implements BoundedWorkQueue.Task {
+        final Counts _counts;
+        final AtomicInteger _outcomes= new AtomicInteger();
+        final boolean _afterShutdown;
+
+        CountingTask(Counts counts, boolean afterShutdown) {
+            _counts= counts;
+            _afterShutdown= afterShutdown;
+        }
+
+        @Override
+        public void run() {
+            if (_outcomes.incrementAndGet() != 1) _counts.duplicates.incrementAndGet();
+            if (_afterShutdown) _counts.ranAfterShutdown.incrementAndGet();
+            // something like an encode, short enough to keep the test quick
+            long until= System.nanoTime() + 20000;
+            while (System.nanoTime() < until) {
+                Thread.yield();
+            }
+            _counts.saved.incrementAndGet();
+        }
+
+        @Override
+        public void discard() {
+            if (_outcomes.incrementAndGet() != 1) _counts.duplicates.incrementAndGet();
+            _counts.dropped.incrementAndGet();
+        }
+    }
+
+    static class Counts {
+        final AtomicLong submitted= new AtomicLong();
+        final AtomicLong saved= new AtomicLong();
+        final AtomicLong dropped= new AtomicLong();
+        final AtomicLong duplicates= new AtomicLong();
+        final AtomicLong ranAfterShutdown= new AtomicLong();
+    }
+
+    @Test
+    public void dropOldestAccountsForEveryTask() throws Exception {
+        stress(BoundedWorkQueue.OverflowPolicy.DROP_OLDEST, false);
+    }
+
+    @Test
+    public void dropNewestAccountsForEveryTask() throws Exception {
+        stress(BoundedWorkQueue.OverflowPolicy.DROP_NEWEST, false);
+    }
+
+    @Test
+    public void blockAccountsForEveryTask() throws Exception {
+        Counts counts= stress(BoundedWorkQueue.OverflowPolicy.BLOCK, false);
+        assertEquals("BLOCK never drops while running", 0, counts.dropped.get());
+    }
+
+    @Test
+    public void dropOldestShutdownMidBurst() throws Exception {
+        stress(BoundedWorkQueue.OverflowPolicy.DROP_OLDEST, true);
+    }
+
+    @Test
+    public void dropNewestShutdownMidBurst() throws Exception {
+        stress(BoundedWorkQueue.OverflowPolicy.DROP_NEWEST, true);
+    }
+
+    @Test
+    public void blockShutdownMidBurst() throws Exception {
+        // producers are parked on the full queue when it shuts down; they must give up rather
+        // than queue work that never runs
+        stress(BoundedWorkQueue.OverflowPolicy.BLOCK, true);
+    }
+
+    @Test
+    public void dropsEverythingSubmittedAfterShutdown() throws Exception {
+        for (BoundedWorkQueue.OverflowPolicy policy : BoundedWorkQueue.OverflowPolicy.values()) {
+            BoundedWorkQueue queue= new BoundedWorkQueue("test", WORKERS, CAPACITY, policy);
+            Counts counts= new Counts();
+            queue.shutdown();
+            for (int idx= 0; idx < 100; idx++) {
+                assertFalse(queue.submit(new CountingTask(counts, true)));
+            }
+            assertTrue(queue.awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(policy.toString(), 100, counts.dropped.get());
+            assertEquals(policy.toString(), 0, counts.ranAfterShutdown.get());
+            assertEquals(100, queue.getDroppedCount());
+        }
+    }
+
+    Counts stress(BoundedWorkQueue.OverflowPolicy policy, final boolean shutdownMidway) throws Exception {
+        final BoundedWorkQueue queue= new BoundedWorkQueue("test", WORKERS, CAPACITY, policy);
+        final Counts counts= new Counts();
+        final CountDownLatch start= new CountDownLatch(1);
+        final CountDownLatch halfway= new CountDownLatch(PRODUCERS);
+        final AtomicInteger shutdown= new AtomicInteger();
+        Thread[] producers= new Thread[PRODUCERS];
+        for (int idx= 0; idx < PRODUCERS; idx++) {
+            producers[idx]= new Thread("producer-" + idx) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int task= 0; task < TASKS_PER_PRODUCER; task++) {
+                        if (task == TASKS_PER_PRODUCER / 2) halfway.countDown();
+                        counts.submitted.incrementAndGet();
+                        queue.submit(new CountingTask(counts, shutdown.get() != 0));
+                    }
+                }
+            };
+            producers[idx].start();
+        }
+
+        start.countDown();
+        if (shutdownMidway) {
+            halfway.await();
+            // flag after shutting down, so a task that sees the flag was surely submitted late
+            queue.shutdown();
+            shutdown.set(1);
+        }
+        for (Thread producer : producers) {
+            producer.join(30000);
+            assertFalse("producer stuck", producer.isAlive());
+        }
+        queue.shutdown();
+        assertTrue(queue.awaitTermination(30, TimeUnit.SECONDS));
+
+        String message= policy + (shutdownMidway ? " with shutdown" : "");
+        assertEquals(message, PRODUCERS * TASKS_PER_PRODUCER, counts.submitted.get());
+        assertEquals(message, counts.submitted.get(), counts.saved.get() + counts.dropped.get());
+        assertEquals(message, 0, counts.duplicates.get());
+        assertEquals(message, 0, counts.ranAfterShutdown.get());
+        assertEquals(message, counts.submitted.get(), queue.getSubmittedCount());
+        assertEquals(message, counts.dropped.get(), queue.getDroppedCount());
+        assertEquals(message, counts.saved.get(), queue.getCompletedCount());
+        return counts;
+    }
+}
@@ -0,0 +1,117 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class BurstCaptureTest {
+    // a 30fps preview, as the burst sees it
+    static final long FRAME_MS= 33;
+
+    @Test
+    public void savesEveryNthFrameForItsDuration() {
+        BurstCapture burst= new BurstCapture(3, 1000);
+        burst.start(0);
+        int picked= 0;
+        for (long now= 0; now < 2000; now+= FRAME_MS) {
+            if (burst.onFrame(now)) {
+                assertTrue("picked after the burst ended", burst.isActive(now));
+                picked++;
+            }
+        }
+        // 31 frames arrive in the first second, and every third of them is picked
+        assertEquals(11, picked);
+        assertEquals(11, burst.getCapturedCount());
+        assertFalse(burst.isActive(1000));
+        assertTrue(burst.isActive(999));
+    }
+
+    @Test
+    public void capsTheRateItPicksAt() {
+        BurstCapture burst= new BurstCapture(1, 10000);
+        burst.setMaxFps(10);
+        burst.start(0);
+        int picked= 0;
+        for (long now= 0; now < 10000; now+= FRAME_MS) {
+            if (burst.onFrame(now)) picked++;
+        }
+        // 10fps for ten seconds, give or take the frame that starts it
+        assertTrue(String.valueOf(picked), picked >= 99 && picked <= 101);
+    }
+
+    @Test
+    public void toleratesJitterInThePacing() {
+        BurstCapture burst= new BurstCapture(1, 10000);
+        burst.setMaxFps(10);
+        burst.start(0);
+        assertTrue(burst.onFrame(0));
+        assertFalse(burst.onFrame(50));
+        // a frame up to a quarter interval early still counts
+        assertTrue(burst.onFrame(80));
+        // and the next deadline stays on the 100ms grid rather than drifting early
+        assertFalse(burst.onFrame(170));
+        assertTrue(burst.onFrame(180));
+    }
+
+    @Test
+    public void liftingTheCapPicksEveryFrameAgain() {
+        BurstCapture burst= new BurstCapture(1, 10000);
+        burst.setMaxFps(5);
+        burst.start(0);
+        assertTrue(burst.onFrame(0));
+        assertFalse(burst.onFrame(FRAME_MS));
+        burst.setMaxFps(0);
+        assertTrue(burst.onFrame(2 * FRAME_MS));
+        assertTrue(burst.onFrame(3 * FRAME_MS));
+    }
+
+    @Test
+    public void keepsScoreOfWhatHappenedToEachFrame() {
+        BurstCapture burst= new BurstCapture(1, 5000);
+        burst.start(1000);
+        for (int idx= 0; idx < 10; idx++) {
+            assertTrue(burst.onFrame(1000 + idx * FRAME_MS));
+        }
+        burst.onFrameSkipped();
+        burst.onFrameSkipped();
+        burst.onFrameDropped();
+        for (int idx= 0; idx < 7; idx++) {
+            burst.onFrameSaved(1000 + (idx + 1) * 100);
+        }
+        assertEquals(10, burst.getCapturedCount());
+        assertEquals(2, burst.getSkippedCount());
+        assertEquals(1, burst.getDroppedCount());
+        assertEquals(7, burst.getSavedCount());
+        // 7 saves in the 700ms to the last one
+        assertEquals(10f, burst.getAchievedFps(), 0.001f);
+
+        // restarting clears the score
+        burst.start(10000);
+        assertEquals(0, burst.getCapturedCount());
+        assertEquals(0f, burst.getAchievedFps(), 0);
+    }
+
+    @Test
+    public void formatsRatesTheSameEverywhere() {
+        Locale saved= Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.GERMANY);
+            BurstCapture burst= new BurstCapture(1, 5000);
+            burst.start(0);
+            burst.onFrame(0);
+            burst.onFrameSaved(80);
+            assertTrue(burst.toString(), burst.toString().endsWith("12.5 fps"));
+        } finally {
+            Locale.setDefault(saved);
+        }
+    }
+
+    @Test(expected= IllegalArgumentException.class)
+    public void rejectsAnEmptyBurst() {
+        new BurstCapture(0, 1000);
+    }
+}
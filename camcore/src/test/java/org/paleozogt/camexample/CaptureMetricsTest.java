@@ -0,0 +1,108 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+public class CaptureMetricsTest {
+    @Test
+    public void recordsTheIntervalsBetweenArrivals() {
+        CaptureMetrics metrics= new CaptureMetrics();
+        for (int idx= 0; idx < 31; idx++) {
+            metrics.frameArrived(1000 + idx * 33000000L);
+        }
+        CaptureMetrics.Snapshot snapshot= metrics.snapshot();
+        assertEquals(31, snapshot.framesArrived);
+        // the first arrival has nothing to measure from
+        LatencyHistogram.Snapshot intervals= snapshot.get(CaptureMetrics.Stage.ARRIVAL_INTERVAL);
+        assertEquals(30, intervals.getCount());
+        assertEquals(33000000.0, intervals.getMean(), 0);
+        assertEquals(33000000, intervals.getMax());
+    }
+
+    @Test
+    public void keepsCounters() {
+        CaptureMetrics metrics= new CaptureMetrics();
+        metrics.frameSaved(1000);
+        metrics.frameSaved(500);
+        metrics.frameDropped();
+        metrics.frameSkipped();
+        metrics.frameSkipped();
+        metrics.queueDepth(3);
+        metrics.queueDepth(5);
+        metrics.queueDepth(2);
+
+        CaptureMetrics.Snapshot snapshot= metrics.snapshot();
+        assertEquals(2, snapshot.framesSaved);
+        assertEquals(1500, snapshot.bytesWritten);
+        assertEquals(1, snapshot.framesDropped);
+        assertEquals(2, snapshot.framesSkipped);
+        assertEquals(2, snapshot.queueDepth);
+        assertEquals(5, snapshot.maxQueueDepth);
+
+        metrics.reset();
+        snapshot= metrics.snapshot();
+        assertEquals(0, snapshot.framesSaved);
+        assertEquals(0, snapshot.maxQueueDepth);
+        assertEquals(0, snapshot.get(CaptureMetrics.Stage.ENCODE).getCount());
+    }
+
+    @Test
+    public void keepsStagesApartAcrossThreads() throws InterruptedException {
+        final CaptureMetrics metrics= new CaptureMetrics();
+        final CaptureMetrics.Stage[] stages= CaptureMetrics.Stage.values();
+        final int perThread= 20000;
+        Thread[] workers= new Thread[stages.length];
+        for (int idx= 0; idx < workers.length; idx++) {
+            final int worker= idx;
+            workers[idx]= new Thread() {
+                @Override
+                public void run() {
+                    // each worker spreads its records over every stage, each stage getting its own value
+                    for (int count= 0; count < perThread; count++) {
+                        int stage= (worker + count) % stages.length;
+                        metrics.record(stages[stage], (stage + 1) * 1000L);
+                        metrics.frameSaved(1);
+                    }
+                }
+            };
+            workers[idx].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        CaptureMetrics.Snapshot snapshot= metrics.snapshot();
+        assertEquals(workers.length * (long)perThread, snapshot.framesSaved);
+        long total= 0;
+        for (int stage= 0; stage < stages.length; stage++) {
+            LatencyHistogram.Snapshot histogram= snapshot.get(stages[stage]);
+            total+= histogram.getCount();
+            assertEquals(stages[stage].name(), (stage + 1) * 1000.0, histogram.getMean(), 0);
+        }
+        assertEquals(workers.length * (long)perThread, total);
+    }
+
+    @Test
+    public void writesEveryStageAsCsv() throws IOException {
+        CaptureMetrics metrics= new CaptureMetrics();
+        metrics.record(CaptureMetrics.Stage.ENCODE, 12000000);
+        metrics.frameSaved(2000000);
+
+        StringWriter out= new StringWriter();
+        metrics.snapshot().writeTo(out);
+        String[] lines= out.toString().split("\n");
+        assertEquals("stage,count,mean,p50,p90,p99,p999,max", lines[0]);
+        assertEquals(CaptureMetrics.Stage.values().length + 1 + 8, lines.length);
+        assertTrue(out.toString(), out.toString().contains("\nencode,1,12.000,"));
+        assertTrue(out.toString(), out.toString().contains("\nbytes_written,2000000\n"));
+
+        String summary= metrics.snapshot().toSummary();
+        assertTrue(summary, summary.startsWith("frames 0 saved 1 dropped 0 skipped 0, queue 0 (max 0), 2.0 MB"));
+        assertTrue(summary, summary.contains("\nencode p50 "));
+    }
+}
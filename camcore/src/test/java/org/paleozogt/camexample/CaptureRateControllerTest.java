@@ -0,0 +1,144 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Drives the controller with a synthetic load, a second at a time: the camera offers frames at
+ * the level's rate (or less), workers save as many as their cost allows, and the rest are
+ * dropped with the queue full.
+ */
+public class CaptureRateControllerTest {
+    static final CaptureRateController.Level[] LEVELS= {
+            new CaptureRateController.Level(30, SaveProfile.scaled("Full", 1, 90)),
+            new CaptureRateController.Level(20, SaveProfile.scaled("Full", 1, 85)),
+            new CaptureRateController.Level(30, SaveProfile.scaled("Half", 2, 85)),
+            new CaptureRateController.Level(15, SaveProfile.scaled("Half", 2, 80)),
+            new CaptureRateController.Level(10, SaveProfile.scaled("Quarter", 4, 80)),
+            new CaptureRateController.Level(5, SaveProfile.scaled("Quarter", 4, 75)),
+    };
+    static final int WORKERS= 2;
+    static final int QUEUE_CAPACITY= 4;
+    static final long TICK_MS= 1000;
+
+    /**
+     * A device that takes fullFrameMs to save a full frame, give or take jitter.
+     */
+    static class Load {
+        final CaptureMetrics _metrics= new CaptureMetrics();
+        final CaptureRateController _controller;
+        final Random _random= new Random(1);
+        double _fullFrameMs;
+        // the most frames a second the camera delivers, whatever the level asks for
+        float _cameraFps= 30;
+        double _jitter= 0.05;
+        long _now;
+
+        Load(int startLevel, double fullFrameMs) {
+            _controller= new CaptureRateController(LEVELS, WORKERS, startLevel);
+            _fullFrameMs= fullFrameMs;
+            _controller.update(_metrics, 0, QUEUE_CAPACITY, Float.NaN, _now);
+        }
+
+        /**
+         * Runs one control interval.
+         *
+         * @return true if the level changed
+         */
+        boolean tick() {
+            CaptureRateController.Level level= _controller.getLevel();
+            double serviceMs= _fullFrameMs * level.profile.getPixelFraction()
+                    * (1 + _jitter * (2 * _random.nextDouble() - 1));
+            int offered= (int)Math.min(level.fps, _cameraFps);
+            int capacity= (int)(WORKERS * TICK_MS / serviceMs);
+            int saved= Math.min(offered, capacity);
+            for (int idx= 0; idx < saved; idx++) {
+                _metrics.record(CaptureMetrics.Stage.ENCODE, (long)(serviceMs * 1e6));
+                _metrics.frameSaved(1);
+            }
+            for (int idx= saved; idx < offered; idx++) {
+                _metrics.frameDropped();
+            }
+            _now+= TICK_MS;
+            return _controller.update(_metrics, offered > saved ? QUEUE_CAPACITY : 0, QUEUE_CAPACITY, Float.NaN, _now);
+        }
+
+        /**
+         * @return how many times the level changed
+         */
+        int run(int ticks) {
+            int changes= 0;
+            for (int idx= 0; idx < ticks; idx++) {
+                if (tick()) changes++;
+            }
+            return changes;
+        }
+    }
+
+    @Test
+    public void settlesOnTheBestLevelItCanHold() {
+        // 100ms a full frame: 20fps of them would keep two workers 100% busy, but half-size
+        // frames at 30fps only 37%, too little headroom to try 20 full ones again
+        Load load= new Load(0, 100);
+        load.run(20);
+        assertEquals(2, load._controller.getLevelIndex());
+        assertEquals(0, load.run(1000));
+        assertEquals(2, load._controller.getLevelIndex());
+        assertEquals(0.375, load._controller.getUtilization(), 0.03);
+        assertEquals(30, load._controller.getAchievedFps(), 0);
+    }
+
+    @Test
+    public void backsOffWhenTheDeviceSlowsDown() {
+        // light enough for the top level
+        Load load= new Load(0, 20);
+        assertEquals(0, load.run(100));
+        assertEquals(0, load._controller.getLevelIndex());
+
+        // then saves get five times slower, as a throttled device's might
+        load._fullFrameMs= 100;
+        int ticks= 0;
+        while (load._controller.getLevelIndex() < 2) {
+            load.tick();
+            assertTrue("still at " + load._controller.getLevel() + " after " + ticks + " updates", ++ticks <= 10);
+        }
+        assertEquals(0, load.run(1000));
+    }
+
+    @Test
+    public void holdsStillInsideTheHysteresisBand() {
+        // 80ms a full frame keeps the workers 80% busy at 20fps: not overloaded there, but with
+        // too little headroom to step up to it from 30fps of half-size frames
+        for (int start : new int[] { 1, 2 }) {
+            Load load= new Load(start, 80);
+            assertEquals("from " + LEVELS[start], 0, load.run(1000));
+            assertEquals(start, load._controller.getLevelIndex());
+        }
+    }
+
+    @Test
+    public void judgesLoadByTheRateFramesActuallyArrive() {
+        // at 30fps, 80ms a frame would be more than two workers can do; but the camera only
+        // delivers 15fps, which keeps them 60% busy
+        Load load= new Load(0, 80);
+        load._cameraFps= 15;
+        assertEquals(0, load.run(100));
+        assertEquals(0, load._controller.getLevelIndex());
+        assertEquals(0.6, load._controller.getUtilization(), 0.05);
+        assertEquals(15, load._controller.getAchievedFps(), 0);
+    }
+
+    @Test
+    public void climbsBackWhenTheLoadEases() {
+        Load load= new Load(0, 100);
+        load.run(20);
+        assertEquals(2, load._controller.getLevelIndex());
+        load._fullFrameMs= 20;
+        load.run(200);
+        assertEquals(0, load._controller.getLevelIndex());
+    }
+}
@@ -0,0 +1,85 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileChannelSinkTest {
+    @Rule
+    public TemporaryFolder _temp= new TemporaryFolder();
+
+    @Test
+    public void writesEachFrameToItsOwnFile() throws IOException {
+        for (int syncBatchSize : new int[] { 0, 1, 3 }) {
+            File directory= _temp.newFolder("batch" + syncBatchSize);
+            FileChannelSink sink= new FileChannelSink(directory, syncBatchSize);
+            for (int idx= 0; idx < 7; idx++) {
+                sink.write(name(idx), ByteBuffer.wrap(FrameLogSinkTest.payload(idx), 0, 1000 + idx));
+            }
+            sink.close();
+
+            for (int idx= 0; idx < 7; idx++) {
+                File frame= new File(directory, name(idx));
+                byte[] expected= new byte[1000 + idx];
+                System.arraycopy(FrameLogSinkTest.payload(idx), 0, expected, 0, expected.length);
+                assertArrayEquals(frame.toString(), expected, read(frame));
+            }
+        }
+    }
+
+    @Test
+    public void holdsFilesOpenUntilABatchIsFull() throws IOException {
+        FileChannelSink sink= new FileChannelSink(_temp.getRoot(), 3);
+        sink.write(name(0), ByteBuffer.wrap(new byte[10]));
+        sink.write(name(1), ByteBuffer.wrap(new byte[10]));
+        assertEquals(2, sink._unsynced.size());
+        // the third fills the batch, and they're all synced and closed together
+        sink.write(name(2), ByteBuffer.wrap(new byte[10]));
+        assertEquals(0, sink._unsynced.size());
+
+        sink.write(name(3), ByteBuffer.wrap(new byte[10]));
+        sink.flush();
+        assertEquals(0, sink._unsynced.size());
+        sink.close();
+    }
+
+    @Test
+    public void createsSubdirectoriesAsNeeded() throws IOException {
+        File file= new File(_temp.getRoot(), "a/b/c.jpg");
+        FileChannelSink.openCreatingParents(file).close();
+        assertTrue(file.isFile());
+        // and opens in existing ones as usual
+        FileChannelSink.openCreatingParents(new File(_temp.getRoot(), "a/b/d.jpg")).close();
+    }
+
+    static String name(int frame) {
+        // spread over two directories, the second of them created mid-batch
+        return (frame < 4 ? "first" : "second") + "/IMG_" + frame + ".jpg";
+    }
+
+    static byte[] read(File file) throws IOException {
+        byte[] data= new byte[(int)file.length()];
+        InputStream in= new FileInputStream(file);
+        try {
+            int read= 0;
+            while (read < data.length) {
+                int count= in.read(data, read, data.length - read);
+                if (count < 0) break;
+                read+= count;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+}
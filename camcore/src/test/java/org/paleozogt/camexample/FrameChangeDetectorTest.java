@@ -0,0 +1,133 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class FrameChangeDetectorTest {
+    static final int WIDTH= 320, HEIGHT= 240;
+    static final int GRID= 8, STEP= 4;
+
+    @Test
+    public void suppressesRepeatsOfTheSameScene() {
+        FrameChangeDetector detector= new FrameChangeDetector(GRID, STEP, 4);
+        byte[] scene= scene(1);
+        assertTrue("the first frame is always new", detector.accept(scene, WIDTH, HEIGHT, WIDTH));
+        assertFalse(detector.accept(scene.clone(), WIDTH, HEIGHT, WIDTH));
+        assertEquals(0, detector.getLastDifference(), 0);
+
+        // sensor noise of a couple of levels averages out within each cell
+        Random random= new Random(2);
+        for (int frame= 0; frame < 20; frame++) {
+            byte[] noisy= scene.clone();
+            for (int idx= 0; idx < noisy.length; idx++) {
+                noisy[idx]= (byte)((noisy[idx] & 0xff) + random.nextInt(5) - 2);
+            }
+            assertFalse("frame " + frame + ": " + detector.getLastDifference(),
+                    detector.accept(noisy, WIDTH, HEIGHT, WIDTH));
+        }
+        assertEquals(1, detector.getAcceptedCount());
+        assertEquals(21, detector.getRejectedCount());
+    }
+
+    @Test
+    public void passesARealChange() {
+        FrameChangeDetector detector= new FrameChangeDetector(GRID, STEP, 4);
+        byte[] scene= scene(1);
+        detector.accept(scene, WIDTH, HEIGHT, WIDTH);
+
+        // something bright walks into a quarter of the frame
+        byte[] changed= scene.clone();
+        for (int y= HEIGHT / 2; y < HEIGHT; y++) {
+            Arrays.fill(changed, y * WIDTH + WIDTH / 2, (y + 1) * WIDTH, (byte)250);
+        }
+        assertTrue(detector.accept(changed, WIDTH, HEIGHT, WIDTH));
+        assertTrue(String.valueOf(detector.getLastDifference()), detector.getLastDifference() > 4);
+        // and becomes what later frames are compared with
+        assertFalse(detector.accept(changed.clone(), WIDTH, HEIGHT, WIDTH));
+        assertTrue(detector.accept(scene, WIDTH, HEIGHT, WIDTH));
+    }
+
+    @Test
+    public void countsADifferenceAtTheThresholdAsAChange() {
+        FrameChangeDetector detector= new FrameChangeDetector(GRID, STEP, 3);
+        detector.accept(uniform(100), WIDTH, HEIGHT, WIDTH);
+        assertFalse(detector.accept(uniform(102), WIDTH, HEIGHT, WIDTH));
+        assertEquals(2, detector.getLastDifference(), 0);
+        assertTrue(detector.accept(uniform(103), WIDTH, HEIGHT, WIDTH));
+        assertEquals(3, detector.getLastDifference(), 0);
+    }
+
+    @Test
+    public void comparesWithTheLastFrameKeptNotTheLastSeen() {
+        // a slow fade never differs from the frame before by much, but does add up
+        FrameChangeDetector detector= new FrameChangeDetector(GRID, STEP, 5);
+        boolean[] expected= { true, false, false, true, false, false, true };
+        for (int frame= 0; frame < expected.length; frame++) {
+            assertEquals("frame " + frame, expected[frame],
+                    detector.accept(uniform(100 + 2 * frame), WIDTH, HEIGHT, WIDTH));
+        }
+    }
+
+    @Test
+    public void resetAcceptsTheNextFrame() {
+        FrameChangeDetector detector= new FrameChangeDetector(GRID, STEP, 4);
+        byte[] scene= scene(1);
+        detector.accept(scene, WIDTH, HEIGHT, WIDTH);
+        detector.reset();
+        assertTrue(detector.accept(scene, WIDTH, HEIGHT, WIDTH));
+        assertEquals(2, detector.getAcceptedCount());
+    }
+
+    @Test
+    public void readsOnlyTheLumaOfPaddedRows() {
+        // YV12 rows are padded out to 16 bytes; what's in the padding mustn't matter
+        int width= 312, rowBytes= YuvRotation.align16(width);
+        byte[] padded= new byte[rowBytes * HEIGHT];
+        byte[] noisyPadding= new byte[rowBytes * HEIGHT];
+        new Random(3).nextBytes(noisyPadding);
+        byte[] scene= scene(4);
+        for (int y= 0; y < HEIGHT; y++) {
+            System.arraycopy(scene, y * WIDTH, padded, y * rowBytes, width);
+            System.arraycopy(scene, y * WIDTH, noisyPadding, y * rowBytes, width);
+        }
+        FrameChangeDetector detector= new FrameChangeDetector(GRID, STEP, 0.5);
+        detector.accept(padded, width, HEIGHT, rowBytes);
+        assertFalse(detector.accept(noisyPadding, width, HEIGHT, rowBytes));
+        assertEquals(0, detector.getLastDifference(), 0);
+    }
+
+    /**
+     * Smooth gradients with a few soft blobs, a stand-in for a real scene.
+     */
+    static byte[] scene(long seed) {
+        Random random= new Random(seed);
+        double[][] blobs= new double[5][];
+        for (int idx= 0; idx < blobs.length; idx++) {
+            blobs[idx]= new double[] { random.nextInt(WIDTH), random.nextInt(HEIGHT), 20 + random.nextInt(40) };
+        }
+        byte[] luma= new byte[WIDTH * HEIGHT];
+        for (int y= 0; y < HEIGHT; y++) {
+            for (int x= 0; x < WIDTH; x++) {
+                double level= 60 + 80.0 * x / WIDTH + 40.0 * y / HEIGHT;
+                for (double[] blob : blobs) {
+                    double dx= x - blob[0], dy= y - blob[1];
+                    level+= 60 * Math.exp(-(dx * dx + dy * dy) / (2 * blob[2] * blob[2]));
+                }
+                luma[y * WIDTH + x]= (byte)Math.min(250, (int)level);
+            }
+        }
+        return luma;
+    }
+
+    static byte[] uniform(int level) {
+        byte[] luma= new byte[WIDTH * HEIGHT];
+        Arrays.fill(luma, (byte)level);
+        return luma;
+    }
+}
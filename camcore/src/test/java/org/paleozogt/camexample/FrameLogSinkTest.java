@@ -0,0 +1,177 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes logs with FrameLogSink and reads them back with FrameLogReader, both closed cleanly and
+ * left the way a killed process leaves them.
+ */
+public class FrameLogSinkTest {
+    // a little over the 1MB the log grows by, so it has to grow a few times
+    static final int FRAME_SIZE= 300 * 1024;
+    static final int FRAMES= 8;
+
+    @Rule
+    public TemporaryFolder _temp= new TemporaryFolder();
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        File file= _temp.newFile("frames.camflog");
+        FrameLogSink sink= new FrameLogSink(file, 0);
+        writeFrames(sink);
+        assertEquals(FRAMES, sink.getFrameCount());
+        sink.close();
+
+        // the unused pre-allocation is trimmed off, leaving the records and the index
+        long expectedLength= FrameLogSink.HEADER_SIZE + 4 + 8 * FRAMES;
+        for (int idx= 0; idx < FRAMES; idx++) {
+            expectedLength+= 4 + 2 + name(idx).length() + 4 + FRAME_SIZE;
+        }
+        assertEquals(expectedLength, file.length());
+
+        FrameLogReader reader= new FrameLogReader(file);
+        try {
+            assertFalse(reader.isRecovered());
+            assertFrames(reader, FRAMES);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void recoversALogThatWasNeverClosed() throws IOException {
+        File file= _temp.newFile("frames.camflog");
+        FrameLogSink sink= new FrameLogSink(file, 0);
+        writeFrames(sink);
+        sink.flush();
+        // stop the way a killed process would: no index, and the pre-allocation still on the end
+        sink._raf.close();
+        assertTrue(file.length() > sink._map.position());
+
+        FrameLogReader reader= new FrameLogReader(file);
+        try {
+            assertTrue(reader.isRecovered());
+            assertFrames(reader, FRAMES);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void dropsARecordThatWasCutShort() throws IOException {
+        File file= _temp.newFile("frames.camflog");
+        FrameLogSink sink= new FrameLogSink(file, 0);
+        writeFrames(sink);
+        sink.flush();
+        sink._raf.close();
+
+        // as though the process died with the last payload half copied
+        RandomAccessFile raf= new RandomAccessFile(file, "rw");
+        try {
+            ByteBuffer dataEnd= ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            dataEnd.putLong(0, sink._index[FRAMES - 1] + FRAME_SIZE / 2);
+            raf.getChannel().write(dataEnd, FrameLogSink.DATA_END_OFFSET);
+        } finally {
+            raf.close();
+        }
+
+        FrameLogReader reader= new FrameLogReader(file);
+        try {
+            assertTrue(reader.isRecovered());
+            assertFrames(reader, FRAMES - 1);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void splitsIntoFilesByName() throws IOException {
+        File file= _temp.newFile("frames.camflog");
+        FrameLogSink sink= new FrameLogSink(file, 0);
+        writeFrames(sink);
+        sink.close();
+
+        File directory= _temp.newFolder("split");
+        FrameLogReader reader= new FrameLogReader(file);
+        try {
+            reader.split(directory);
+        } finally {
+            reader.close();
+        }
+        for (int idx= 0; idx < FRAMES; idx++) {
+            File frame= new File(directory, name(idx));
+            assertTrue(frame.toString(), frame.isFile());
+            assertEquals(FRAME_SIZE, frame.length());
+        }
+    }
+
+    @Test
+    public void refusesWritesOnceClosed() throws IOException {
+        FrameLogSink sink= new FrameLogSink(_temp.newFile("frames.camflog"), 0);
+        sink.close();
+        // closing and flushing again are harmless
+        sink.close();
+        sink.flush();
+        try {
+            sink.write(name(0), ByteBuffer.wrap(payload(0)));
+            fail("wrote to a closed log");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(expected= IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file= _temp.newFile("not.camflog");
+        RandomAccessFile raf= new RandomAccessFile(file, "rw");
+        try {
+            raf.write(new byte[FrameLogSink.HEADER_SIZE]);
+        } finally {
+            raf.close();
+        }
+        new FrameLogReader(file);
+    }
+
+    static void writeFrames(FrameSink sink) throws IOException {
+        for (int idx= 0; idx < FRAMES; idx++) {
+            sink.write(name(idx), ByteBuffer.wrap(payload(idx)));
+        }
+    }
+
+    static void assertFrames(FrameLogReader reader, int count) {
+        assertEquals(count, reader.getFrameCount());
+        for (int idx= 0; idx < count; idx++) {
+            assertEquals(name(idx), reader.getName(idx));
+            ByteBuffer frame= reader.getFrame(idx);
+            byte[] actual= new byte[frame.remaining()];
+            frame.get(actual);
+            assertArrayEquals(name(idx), payload(idx), actual);
+        }
+    }
+
+    // the names include a subdirectory, as FrameNamer's do
+    static String name(int frame) {
+        return "session/IMG_" + frame + ".jpg";
+    }
+
+    static byte[] payload(int frame) {
+        byte[] payload= new byte[FRAME_SIZE];
+        new Random(frame).nextBytes(payload);
+        return payload;
+    }
+}
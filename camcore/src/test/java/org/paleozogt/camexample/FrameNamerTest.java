@@ -0,0 +1,77 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+public class FrameNamerTest {
+    static final String SESSION= "20141018-142233517";
+
+    @Test
+    public void namesFramesAfterSessionCameraAndSequence() {
+        FrameNamer namer= new FrameNamer(SESSION, 0, 0);
+        assertEquals(SESSION + "/IMG_" + SESSION + "_c0_000000.jpg", namer.name(0, "jpg"));
+        assertEquals(SESSION + "/IMG_" + SESSION + "_c0_000123.nv21", namer.name(123, "nv21"));
+        // with no limit per directory, everything stays in the session's
+        assertEquals(SESSION + "/IMG_" + SESSION + "_c0_999999.jpg", namer.name(999999, "jpg"));
+    }
+
+    @Test
+    public void shardsAtFilesPerDirectory() {
+        FrameNamer namer= new FrameNamer(SESSION, 1, 2048);
+        String prefix= "/IMG_" + SESSION + "_c1_";
+        assertEquals(SESSION + prefix + "002047.jpg", namer.name(2047, "jpg"));
+        assertEquals(SESSION + "/0001" + prefix + "002048.jpg", namer.name(2048, "jpg"));
+        assertEquals(SESSION + "/0001" + prefix + "004095.jpg", namer.name(4095, "jpg"));
+        assertEquals(SESSION + "/0002" + prefix + "004096.jpg", namer.name(4096, "jpg"));
+        // shard numbers widen rather than wrap
+        assertEquals(SESSION + "/10000" + prefix + "20480000.jpg", namer.name(10000 * 2048, "jpg"));
+    }
+
+    @Test
+    public void sequencesOutgrowTheirPadding() {
+        FrameNamer namer= new FrameNamer(SESSION, 0, 0);
+        String prefix= SESSION + "/IMG_" + SESSION + "_c0_";
+        assertEquals(prefix + "1000000.jpg", namer.name(1000000, "jpg"));
+        assertEquals(prefix + Integer.MAX_VALUE + ".jpg", namer.name(Integer.MAX_VALUE, "jpg"));
+        // and the name still fits the buffer with a long extension and a shard
+        FrameNamer sharded= new FrameNamer(SESSION, 12, 1);
+        assertEquals(SESSION + "/" + Integer.MAX_VALUE + "/IMG_" + SESSION + "_c12_" + Integer.MAX_VALUE + ".nv21",
+                sharded.name(Integer.MAX_VALUE, "nv21"));
+    }
+
+    @Test
+    public void carriesTheSequenceAcrossCameraSwitches() {
+        FrameNamer namer= new FrameNamer(SESSION, 0, 0);
+        assertEquals(SESSION + "/IMG_" + SESSION + "_c0_000005.jpg", namer.name(5, "jpg"));
+        namer.setCameraId(1);
+        assertEquals(1, namer.getCameraId());
+        assertEquals(SESSION + "/IMG_" + SESSION + "_c1_000006.jpg", namer.name(6, "jpg"));
+    }
+
+    @Test
+    public void sessionIdsSortByStartTime() {
+        TimeZone saved= TimeZone.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            assertEquals("20141018-142233517", FrameNamer.sessionId(1413642153517L));
+            assertEquals("20141018-142233518", FrameNamer.sessionId(1413642153518L));
+        } finally {
+            TimeZone.setDefault(saved);
+        }
+    }
+
+    @Test
+    public void findsTheSessionOfAContainer() {
+        FrameNamer namer= new FrameNamer(SESSION, 1, FrameNamer.DEFAULT_FILES_PER_DIRECTORY);
+        assertEquals("Frames." + SESSION + ".camraw", namer.containerName("camraw"));
+
+        FrameNamer unpacked= FrameNamer.forContainer(namer.containerName("camraw"), 1);
+        assertEquals(SESSION, unpacked.getSessionId());
+        assertEquals(namer.name(4100, "jpg"), unpacked.name(4100, "jpg"));
+        // a container named some other way is a session of its own
+        assertEquals("burst", FrameNamer.forContainer("burst.camraw", 0).getSessionId());
+    }
+}
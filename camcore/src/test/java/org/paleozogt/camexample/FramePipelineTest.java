@@ -0,0 +1,217 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Feeds synthetic frames through the pipeline the way onPreviewFrame() does, from a small set of
+ * reused buffers, with stages of very different speeds, and checks that every buffer comes back
+ * exactly once whichever stages saw it.
+ */
+public class FramePipelineTest {
+    static final PreviewConfig CONFIG= new PreviewConfig(0, 64, 48, PreviewConfig.FORMAT_NV21, 90, false);
+    static final int FRAMES= 2000;
+    static final int BUFFERS= 5;
+    static final long BUDGET_NS= 200 * 1000;
+
+    /**
+     * Hands buffers out and takes them back, complaining about any returned twice.
+     */
+    static class Buffers implements PreviewFrame.ReleaseListener {
+        final List<byte[]> _free= new ArrayList<byte[]>();
+        final Map<byte[], Boolean> _out= Collections.synchronizedMap(new IdentityHashMap<byte[], Boolean>());
+        final AtomicInteger _doubleReleases= new AtomicInteger();
+        final AtomicInteger _released= new AtomicInteger();
+
+        Buffers(int count, int size) {
+            for (int idx= 0; idx < count; idx++) {
+                _free.add(new byte[size]);
+            }
+        }
+
+        synchronized byte[] take() {
+            while (_free.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            byte[] data= _free.remove(_free.size() - 1);
+            _out.put(data, Boolean.TRUE);
+            return data;
+        }
+
+        @Override
+        public synchronized void onFrameReleased(byte[] data) {
+            if (_out.remove(data) == null) {
+                _doubleReleases.incrementAndGet();
+                return;
+            }
+            _released.incrementAndGet();
+            _free.add(data);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stands in for an analysis stage: checks the frame is the one it was given, then spins for
+     * a while.
+     */
+    static class SpinningProcessor implements FramePipeline.FrameProcessor {
+        final long _spinNs;
+        final AtomicLong _frames= new AtomicLong();
+        final AtomicLong _mismatches= new AtomicLong();
+
+        SpinningProcessor(long spinNs) {
+            _spinNs= spinNs;
+        }
+
+        @Override
+        public void process(ByteBuffer frame, PreviewConfig config, long timestampNs) {
+            // frames are stamped with their timestamp's low byte, so a recycled buffer shows up
+            if (frame.get(0) != (byte)timestampNs || frame.get(frame.limit() - 1) != (byte)timestampNs) {
+                _mismatches.incrementAndGet();
+            }
+            long until= System.nanoTime() + _spinNs;
+            while (System.nanoTime() < until) {
+                Thread.yield();
+            }
+            _frames.incrementAndGet();
+        }
+    }
+
+    /**
+     * Keeps frames the way ImageSaver does: on a worker of its own, releasing when done.
+     */
+    static class SavingTerminal implements FramePipeline.TerminalStage {
+        final ExecutorService _executor= Executors.newFixedThreadPool(2);
+        final AtomicLong _accepted= new AtomicLong();
+        final AtomicLong _mismatches= new AtomicLong();
+
+        @Override
+        public void accept(final PreviewFrame frame) {
+            _accepted.incrementAndGet();
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (frame.getData()[0] != (byte)frame.getTimestampNs()) {
+                            _mismatches.incrementAndGet();
+                        }
+                    } finally {
+                        frame.release();
+                    }
+                }
+            });
+        }
+    }
+
+    @Test
+    public void releasesEveryBufferExactlyOnce() throws Exception {
+        Buffers buffers= new Buffers(BUFFERS, YuvRotation.nv21Size(CONFIG.width, CONFIG.height));
+        SpinningProcessor fast= new SpinningProcessor(0);
+        SpinningProcessor slow= new SpinningProcessor(3 * BUDGET_NS);
+        SavingTerminal terminal= new SavingTerminal();
+
+        FramePipeline pipeline= new FramePipeline("test", 2);
+        FramePipeline.Stage fastStage= pipeline.addStage("fast", fast, 2, BUDGET_NS);
+        FramePipeline.Stage slowStage= pipeline.addStage("slow", slow, 1, BUDGET_NS);
+        pipeline.setTerminal(terminal);
+
+        long kept= 0;
+        for (int idx= 0; idx < FRAMES; idx++) {
+            byte[] data= buffers.take();
+            Arrays.fill(data, (byte)idx);
+            PreviewFrame frame= PreviewFrame.wrap(data, CONFIG, idx, buffers);
+            boolean keep= idx % 7 == 0;
+            if (keep) kept++;
+            pipeline.submit(frame, keep);
+            frame.release();
+        }
+
+        pipeline.shutdown();
+        assertTrue(pipeline.awaitTermination(30, TimeUnit.SECONDS));
+        terminal._executor.shutdown();
+        assertTrue(terminal._executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(0, buffers._doubleReleases.get());
+        assertEquals(FRAMES, buffers._released.get());
+        assertEquals(0, buffers._out.size());
+        assertEquals(kept, terminal._accepted.get());
+        assertEquals(0, terminal._mismatches.get());
+        assertEquals(0, fast._mismatches.get());
+        assertEquals(0, slow._mismatches.get());
+
+        // every frame either went to a stage or was counted as skipped by it
+        for (FramePipeline.Stage stage : new FramePipeline.Stage[] { fastStage, slowStage }) {
+            assertEquals(stage.getName(), FRAMES,
+                    stage.getProcessedCount() + stage.getBusySkippedCount() + stage.getBudgetSkippedCount());
+        }
+        assertEquals(slowStage.getProcessedCount(), slow._frames.get());
+        // three times over budget, so it sits out at least two frames for each it runs
+        assertTrue(slowStage.toString(), slowStage.getBudgetSkippedCount() >= slowStage.getProcessedCount());
+    }
+
+    @Test
+    public void countsStageErrorsAndStillReleases() throws Exception {
+        Buffers buffers= new Buffers(2, 16);
+        FramePipeline pipeline= new FramePipeline("test", 1);
+        FramePipeline.Stage stage= pipeline.addStage("broken", new FramePipeline.FrameProcessor() {
+            @Override
+            public void process(ByteBuffer frame, PreviewConfig config, long timestampNs) {
+                throw new IllegalStateException("broken stage");
+            }
+        }, 1, Long.MAX_VALUE);
+
+        final CountDownLatch done= new CountDownLatch(1);
+        PreviewFrame frame= PreviewFrame.wrap(buffers.take(), CONFIG, 0, new PreviewFrame.ReleaseListener() {
+            @Override
+            public void onFrameReleased(byte[] data) {
+                done.countDown();
+            }
+        });
+        assertEquals(1, pipeline.submit(frame, false));
+        frame.release();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        pipeline.shutdown();
+        assertTrue(pipeline.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, stage.getErrorCount());
+        assertEquals(1, stage.getProcessedCount());
+    }
+
+    @Test
+    public void releasesFramesOfferedAfterShutdown() throws Exception {
+        Buffers buffers= new Buffers(1, 16);
+        FramePipeline pipeline= new FramePipeline("test", 1);
+        FramePipeline.Stage stage= pipeline.addStage("idle", new SpinningProcessor(0), 1, BUDGET_NS);
+        pipeline.shutdown();
+
+        PreviewFrame frame= PreviewFrame.wrap(buffers.take(), CONFIG, 0, buffers);
+        pipeline.submit(frame, false);
+        assertEquals(1, frame.getRefCount());
+        frame.release();
+
+        assertEquals(1, buffers._released.get());
+        assertEquals(0, stage.getProcessedCount());
+        // a rejected frame doesn't leave the stage thinking it's still busy
+        assertEquals(0, stage._inFlight.get());
+    }
+}
@@ -0,0 +1,215 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FrameTimingLogTest {
+    static final PreviewConfig CONFIG= new PreviewConfig(1, 640, 480, PreviewConfig.FORMAT_NV21, 90, true);
+
+    @Rule
+    public TemporaryFolder _temp= new TemporaryFolder();
+
+    @Test
+    public void writesOneLinePerFrame() throws IOException {
+        File file= new File(_temp.getRoot(), "timing.csv");
+        FrameTimingLog log= new FrameTimingLog(file, "first session");
+        FrameTimingLog.Record saved= log.newRecord(7, "0000/0007.jpg", 1000, CONFIG);
+        saved.dequeueNs= 2000;
+        saved.encodeStartNs= 3000;
+        saved.encodeEndNs= 4000;
+        saved.writeEndNs= 5000;
+        saved.bytes= 12345;
+        log.append(saved);
+        log.setRecordingHint(true);
+        FrameTimingLog.Record dropped= log.newRecord(8, "0000/0008.jpg", 6000, CONFIG);
+        dropped.status= FrameTimingLog.Status.DROPPED;
+        log.append(dropped);
+        log.close();
+
+        // a second session appends, without repeating the header
+        log= new FrameTimingLog(file, "second session");
+        log.append(log.newRecord(9, "0000/0009.jpg", 7000, CONFIG));
+        log.close();
+
+        List<String> lines= readLines(file);
+        assertEquals(6, lines.size());
+        assertEquals("# first session", lines.get(0));
+        assertEquals(FrameTimingLog.HEADER, lines.get(1));
+        assertEquals("7,0000/0007.jpg,saved,1000,2000,3000,4000,5000,12345,1,640,480,"
+                + PreviewConfig.FORMAT_NV21 + ",0", lines.get(2));
+        assertEquals("8,0000/0008.jpg,dropped,6000,,,,,,1,640,480," + PreviewConfig.FORMAT_NV21 + ",1", lines.get(3));
+        assertEquals("# second session", lines.get(4));
+        assertTrue(lines.get(5), lines.get(5).startsWith("9,0000/0009.jpg,saved,7000,"));
+        assertEquals(lines.get(1).split(",").length, lines.get(2).split(",", -1).length);
+    }
+
+    @Test
+    public void writesBatchesInOrder() throws Exception {
+        File file= new File(_temp.getRoot(), "timing.csv");
+        FrameTimingLog log= new FrameTimingLog(file, "batches");
+        // hold the writer up, so the rest pile up and go out as one batch
+        BlockingRecord blocker= new BlockingRecord(0);
+        log.append(blocker);
+        assertTrue(blocker._entered.await(5, TimeUnit.SECONDS));
+        for (int idx= 1; idx < 100; idx++) {
+            log.append(log.newRecord(idx, name(idx), idx, CONFIG));
+        }
+        assertEquals(99, log._queue.size());
+        blocker._release.countDown();
+        log.close();
+
+        assertEquals(100, log.getWrittenCount());
+        assertEquals(0, log.getLostCount());
+        List<String> lines= readLines(file);
+        assertEquals(102, lines.size());
+        for (int idx= 0; idx < 100; idx++) {
+            assertTrue(lines.get(idx + 2), lines.get(idx + 2).startsWith(idx + "," + name(idx) + ","));
+        }
+    }
+
+    @Test
+    public void countsWhatDoesNotFit() throws Exception {
+        FrameTimingLog log= new FrameTimingLog(new File(_temp.getRoot(), "timing.csv"), "full");
+        BlockingRecord blocker= new BlockingRecord(0);
+        log.append(blocker);
+        assertTrue(blocker._entered.await(5, TimeUnit.SECONDS));
+        int extra= 10;
+        for (int idx= 1; idx <= FrameTimingLog.QUEUE_CAPACITY + extra; idx++) {
+            log.append(log.newRecord(idx, name(idx), idx, CONFIG));
+        }
+        assertEquals(extra, log.getLostCount());
+        blocker._release.countDown();
+        log.close();
+
+        assertEquals(1 + FrameTimingLog.QUEUE_CAPACITY, log.getWrittenCount());
+        // and after closing, everything is lost
+        log.append(log.newRecord(0, name(0), 0, CONFIG));
+        assertEquals(extra + 1, log.getLostCount());
+        // closing again does nothing
+        log.close();
+    }
+
+    @Test
+    public void closeWaitsForAnAppendUnderway() throws Exception {
+        File file= new File(_temp.getRoot(), "timing.csv");
+        final FrameTimingLog log= new FrameTimingLog(file, "underway");
+        // stands in for an append that has checked it isn't closed but not yet queued its record
+        log._closeLock.readLock().lock();
+        Thread closer= new Thread() {
+            @Override
+            public void run() {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        closer.start();
+        closer.join(200);
+        assertTrue(closer.isAlive());
+
+        log.append(log.newRecord(1, name(1), 1, CONFIG));
+        log._closeLock.readLock().unlock();
+        closer.join();
+
+        assertEquals(1, log.getWrittenCount());
+        assertEquals(0, log.getLostCount());
+        assertEquals(3, readLines(file).size());
+    }
+
+    @Test
+    public void accountsForEveryRecordWhileClosing() throws Exception {
+        for (int round= 0; round < 20; round++) {
+            File file= new File(_temp.getRoot(), "timing" + round + ".csv");
+            final FrameTimingLog log= new FrameTimingLog(file, "round " + round);
+            final AtomicLong appended= new AtomicLong();
+            final CountDownLatch started= new CountDownLatch(4);
+            List<Thread> threads= new ArrayList<Thread>();
+            for (int idx= 0; idx < 4; idx++) {
+                Thread thread= new Thread() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        // keep going a while past close(), so some appends race it
+                        for (int frame= 0; frame < 5000; frame++) {
+                            log.append(log.newRecord(frame, name(frame), frame, CONFIG));
+                            appended.incrementAndGet();
+                        }
+                    }
+                };
+                thread.start();
+                threads.add(thread);
+            }
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            while (appended.get() < 2000) {
+                Thread.yield();
+            }
+            log.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            assertEquals(appended.get(), log.getWrittenCount() + log.getLostCount());
+            // the header and comment, and a line for each record written
+            assertEquals(log.getWrittenCount() + 2, readLines(file).size());
+        }
+    }
+
+    /**
+     * Holds up the writer thread while it's being written.
+     */
+    static class BlockingRecord extends FrameTimingLog.Record {
+        final CountDownLatch _entered= new CountDownLatch(1);
+        final CountDownLatch _release= new CountDownLatch(1);
+
+        BlockingRecord(int frameId) {
+            super(frameId, name(frameId), frameId, CONFIG, false);
+        }
+
+        @Override
+        void writeTo(Writer out) throws IOException {
+            _entered.countDown();
+            try {
+                _release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e.toString());
+            }
+            super.writeTo(out);
+        }
+    }
+
+    static String name(int frameId) {
+        return String.format(Locale.US, "0000/%04d.jpg", frameId);
+    }
+
+    static List<String> readLines(File file) throws IOException {
+        BufferedReader in= new BufferedReader(new InputStreamReader(new FileInputStream(file), FrameTimingLog.CHARSET));
+        try {
+            List<String> lines= new ArrayList<String>();
+            for (String line= in.readLine(); line != null; line= in.readLine()) {
+                lines.add(line);
+            }
+            return lines;
+        } finally {
+            in.close();
+        }
+    }
+}
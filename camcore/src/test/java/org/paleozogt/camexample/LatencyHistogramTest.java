@@ -0,0 +1,157 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    // each power of two is split 16 ways, so a bucket is at most 1/16th as wide as its values
+    static final double RESOLUTION= 1.0 / LatencyHistogram.SUB_BUCKETS;
+
+    @Test
+    public void bucketsHoldTheirValues() {
+        Random random= new Random(1);
+        for (int idx= 0; idx < 100000; idx++) {
+            // spread over every power of two, not just the large ones
+            long value= random.nextLong() >>> (1 + random.nextInt(63));
+            checkBucket(value);
+        }
+        for (long value : new long[] { 0, 1, 15, 16, 17, 31, 32, 33, 1000000, Long.MAX_VALUE }) {
+            checkBucket(value);
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    static void checkBucket(long value) {
+        int index= LatencyHistogram.bucketIndex(value);
+        long upper= LatencyHistogram.bucketUpperBound(index);
+        assertTrue(value + " above its bucket's " + upper, value <= upper);
+        assertTrue(value + " fits the bucket before", index == 0 || LatencyHistogram.bucketUpperBound(index - 1) < value);
+        assertTrue(value + " reported as " + upper, upper - value <= value * RESOLUTION);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram= new LatencyHistogram();
+        for (long value= 0; value < 10; value++) {
+            histogram.record(value);
+        }
+        LatencyHistogram.Snapshot snapshot= histogram.snapshot();
+        assertEquals(4, snapshot.getPercentile(50));
+        assertEquals(0, snapshot.getPercentile(0));
+        assertEquals(9, snapshot.getPercentile(100));
+        assertEquals(4.5, snapshot.getMean(), 0);
+    }
+
+    @Test
+    public void percentilesAreWithinABucket() {
+        LatencyHistogram histogram= new LatencyHistogram();
+        // 1 to 10000 microseconds, shuffled
+        long[] values= new long[10000];
+        for (int idx= 0; idx < values.length; idx++) {
+            values[idx]= (idx + 1) * 1000L;
+        }
+        Random random= new Random(2);
+        for (int idx= values.length - 1; idx > 0; idx--) {
+            int other= random.nextInt(idx + 1);
+            long swap= values[idx];
+            values[idx]= values[other];
+            values[other]= swap;
+        }
+        for (long value : values) {
+            histogram.record(value);
+        }
+
+        LatencyHistogram.Snapshot snapshot= histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(5000500.0, snapshot.getMean(), 0);
+        assertEquals(10000000, snapshot.getMax());
+        for (double percentile : new double[] { 1, 10, 50, 90, 99, 99.9 }) {
+            long exact= (long)Math.ceil(percentile * 100) * 1000;
+            long reported= snapshot.getPercentile(percentile);
+            assertTrue(percentile + ": " + reported + " below " + exact, reported >= exact);
+            assertTrue(percentile + ": " + reported + " vs " + exact, reported - exact <= exact * RESOLUTION);
+        }
+        // the top is the real max rather than its bucket's bound
+        assertEquals(10000000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram= new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getPercentile(100));
+    }
+
+    @Test
+    public void sinceCoversOnlyTheValuesInBetween() {
+        LatencyHistogram histogram= new LatencyHistogram();
+        for (int idx= 0; idx < 100; idx++) {
+            histogram.record(50000000);
+        }
+        LatencyHistogram.Snapshot before= histogram.snapshot();
+        for (int idx= 0; idx < 100; idx++) {
+            histogram.record(1000);
+        }
+        LatencyHistogram.Snapshot window= histogram.snapshot().since(before);
+        assertEquals(100, window.getCount());
+        assertEquals(1000.0, window.getMean(), 0);
+        assertEquals(1000, window.getPercentile(99), 1000 * RESOLUTION);
+        // the max since is known only to its bucket, but isn't the slow values from before
+        assertTrue(String.valueOf(window.getMax()), window.getMax() >= 1000 && window.getMax() <= 1000 * (1 + RESOLUTION));
+
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getPercentile(50));
+    }
+
+    @Test
+    public void countsEveryValueFromManyThreads() throws InterruptedException {
+        final LatencyHistogram histogram= new LatencyHistogram();
+        final int threads= 8;
+        final int perThread= 100000;
+        final CountDownLatch start= new CountDownLatch(1);
+        Thread[] recorders= new Thread[threads];
+        for (int idx= 0; idx < threads; idx++) {
+            final int thread= idx;
+            recorders[idx]= new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    // every thread records 1 to perThread, and one of them tops it off
+                    for (int value= 1; value <= perThread; value++) {
+                        histogram.record(value);
+                    }
+                    if (thread == 3) histogram.record(1000000000L);
+                }
+            };
+            recorders[idx].start();
+        }
+        start.countDown();
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot= histogram.snapshot();
+        long count= threads * (long)perThread + 1;
+        assertEquals(count, snapshot.getCount());
+        long sum= threads * ((long)perThread * (perThread + 1) / 2) + 1000000000L;
+        assertEquals((double)sum / count, snapshot.getMean(), 1e-9);
+        assertEquals(1000000000L, snapshot.getMax());
+        long bucketTotal= 0;
+        for (long bucket : snapshot._counts) {
+            bucketTotal+= bucket;
+        }
+        assertEquals(count, bucketTotal);
+        assertEquals(perThread / 2, snapshot.getPercentile(50), perThread / 2 * RESOLUTION);
+    }
+}
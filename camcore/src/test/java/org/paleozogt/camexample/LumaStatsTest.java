@@ -0,0 +1,66 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class LumaStatsTest {
+    @Test
+    public void measuresBrightnessAndClipping() {
+        PreviewConfig config= new PreviewConfig(0, 64, 48, PreviewConfig.FORMAT_NV21, 0, false);
+        byte[] frame= new byte[YuvRotation.nv21Size(64, 48)];
+        // a quarter black, a quarter white, and the rest mid grey; chroma is left at 0
+        for (int y= 0; y < 48; y++) {
+            Arrays.fill(frame, y * 64, y * 64 + 16, (byte)0);
+            Arrays.fill(frame, y * 64 + 16, y * 64 + 32, (byte)255);
+            Arrays.fill(frame, y * 64 + 32, y * 64 + 64, (byte)128);
+        }
+        LumaStats stats= new LumaStats(1);
+        stats.process(ByteBuffer.wrap(frame), config, 0);
+
+        assertEquals((255 * 16 + 128 * 32) / 64.0, stats.getMean(), 1e-9);
+        assertEquals(0.25, stats.getBlackFraction(), 1e-9);
+        assertEquals(0.25, stats.getWhiteFraction(), 1e-9);
+        assertEquals(1, stats.getFrameCount());
+        int[] histogram= stats.getHistogram();
+        assertEquals(16 * 48, histogram[0]);
+        assertEquals(32 * 48, histogram[128]);
+        // a copy, not the live one
+        histogram[0]= 0;
+        assertEquals(16 * 48, stats.getHistogram()[0]);
+    }
+
+    @Test
+    public void samplesEveryStepthPixel() {
+        PreviewConfig config= new PreviewConfig(0, 64, 48, PreviewConfig.FORMAT_NV21, 0, false);
+        byte[] frame= new byte[YuvRotation.nv21Size(64, 48)];
+        // only the pixels a step of 4 lands on are bright
+        for (int y= 0; y < 48; y+= 4) {
+            for (int x= 0; x < 64; x+= 4) {
+                frame[y * 64 + x]= (byte)200;
+            }
+        }
+        LumaStats stats= new LumaStats(4);
+        stats.process(ByteBuffer.wrap(frame), config, 0);
+        assertEquals(200, stats.getMean(), 0);
+        assertEquals(16 * 12, stats.getHistogram()[200]);
+    }
+
+    @Test
+    public void skipsTheRowPaddingOfYV12() {
+        int width= 40, height= 30, rowBytes= YuvRotation.align16(width);
+        PreviewConfig config= new PreviewConfig(0, width, height, PreviewConfig.FORMAT_YV12, 0, false);
+        byte[] frame= new byte[YuvRotationTest.yv12Size(width, height)];
+        Arrays.fill(frame, (byte)255);
+        for (int y= 0; y < height; y++) {
+            Arrays.fill(frame, y * rowBytes, y * rowBytes + width, (byte)100);
+        }
+        LumaStats stats= new LumaStats(1);
+        stats.process(ByteBuffer.wrap(frame), config, 0);
+        assertEquals(100, stats.getMean(), 0);
+        assertEquals(0, stats.getWhiteFraction(), 0);
+    }
+}
@@ -0,0 +1,117 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayDeque;
+
+import org.junit.Test;
+
+public class PreviewBufferPoolTest {
+    @Test
+    public void reusesReleasedBuffers() {
+        PreviewBufferPool pool= new PreviewBufferPool(1024, 3);
+        byte[] first= pool.acquire();
+        assertEquals(1024, first.length);
+        pool.release(first);
+
+        assertSame(first, pool.acquire());
+        assertEquals(1, pool.getAllocatedCount());
+        assertEquals(2, pool.getAcquireCount());
+        assertEquals(1, pool.getReuseCount());
+    }
+
+    @Test
+    public void steadyStateAllocatesNothing() {
+        // the camera keeps a few buffers queued, and frames come back a couple of callbacks later
+        PreviewBufferPool pool= new PreviewBufferPool(1024, 5);
+        ArrayDeque<byte[]> queued= new ArrayDeque<byte[]>();
+        for (int idx= 0; idx < 3; idx++) {
+            queued.add(pool.acquire());
+        }
+        int allocated= pool.getAllocatedCount();
+
+        for (int frame= 0; frame < 1000; frame++) {
+            pool.release(queued.poll());
+            byte[] buffer= pool.acquire();
+            assertNotNull(buffer);
+            queued.add(buffer);
+        }
+        assertEquals(allocated, pool.getAllocatedCount());
+        assertEquals(1000, pool.getReuseCount());
+        assertEquals(3, pool.getOutstandingCount());
+    }
+
+    @Test
+    public void countsBuffersThatNeverComeBack() {
+        PreviewBufferPool pool= new PreviewBufferPool(1024, 3);
+        byte[] kept= pool.acquire();
+        for (int frame= 0; frame < 10; frame++) {
+            pool.release(pool.acquire());
+        }
+        assertEquals(1, pool.getOutstandingCount());
+        assertEquals(2, pool.getAllocatedCount());
+
+        // leak the rest of the pool; it runs dry instead of growing
+        pool.acquire();
+        pool.acquire();
+        assertNull(pool.acquire());
+        assertEquals(3, pool.getOutstandingCount());
+        assertEquals(0, pool.getFreeCount());
+
+        pool.release(kept);
+        assertSame(kept, pool.acquire());
+    }
+
+    @Test
+    public void rejectsDoubleAndForeignReleases() {
+        PreviewBufferPool pool= new PreviewBufferPool(1024, 3);
+        byte[] buffer= pool.acquire();
+        pool.release(buffer);
+        try {
+            pool.release(buffer);
+            fail("released twice");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            pool.release(new byte[1024]);
+            fail("released a buffer from elsewhere");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(0, pool.getOutstandingCount());
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    public void sizeChangeDisownsOldBuffers() {
+        // a preview restart at a new size replaces the pool; buffers the camera still held from
+        // the old one come back through the callback and must be ignored rather than reused
+        PreviewBufferPool small= new PreviewBufferPool(PreviewBufferPool.frameSize(320, 240, 12, false), 3);
+        byte[] old= small.acquire();
+
+        PreviewBufferPool large= new PreviewBufferPool(PreviewBufferPool.frameSize(640, 480, 12, false), 3);
+        assertFalse(large.owns(old));
+        try {
+            large.release(old);
+            fail("released a buffer from the old pool");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        byte[] fresh= large.acquire();
+        assertEquals(640 * 480 * 3 / 2, fresh.length);
+        assertTrue(large.owns(fresh));
+        assertEquals(1, large.getAllocatedCount());
+    }
+
+    @Test
+    public void yv12FramesIncludeStridePadding() {
+        // 176 / 2 = 88 isn't a multiple of 16, so each chroma row is padded to 96
+        assertEquals(176 * 144 + 2 * 96 * 72, PreviewBufferPool.frameSize(176, 144, 12, true));
+        assertEquals(176 * 144 * 3 / 2, PreviewBufferPool.frameSize(176, 144, 12, false));
+    }
+}
@@ -0,0 +1,104 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Runs size selection over parameter tables recorded from devices with
+ * Camera.Parameters.flatten(), trimmed to the keys CameraCapabilities reads plus a few neighbours.
+ */
+public class PreviewSizeSelectorTest {
+    static final String NEXUS_5_BACK= "zoom=0;preview-size-values=1920x1080,1280x960,1280x720,800x480,768x432,"
+            + "720x480,640x480,576x432,480x320,384x288,352x288,320x240,240x160,176x144;"
+            + "preview-format-values=yuv420sp,yuv420sp-adreno,yuv420p,yuv420p,nv12;preview-format=yuv420sp;"
+            + "preview-fps-range-values=(7000,30000),(8000,30000),(30000,30000);preview-fps-range=7000,30000;"
+            + "picture-size-values=3264x2448,3264x1836,2592x1944;preview-size=1920x1080";
+    static final String GALAXY_S3_FRONT= "preview-size-values=1280x720,640x480,320x240,176x144;"
+            + "preview-format-values=yuv420sp,yuv420p;preview-fps-range-values=(15000,15000),(8000,15000);"
+            + "preview-frame-rate-values=15,8;preview-size=640x480";
+    static final String OLD_QVGA= "preview-size-values=640x480,352x288,320x240,176x144;preview-format-values=yuv420sp;"
+            + "preview-fps-range-values=(10000,30000);video-size-values=;preview-size=320x240";
+
+    // 60ns a pixel on 2 encoders keeps up with 30fps up to about 1.1 megapixels
+    static final double NANOS_PER_PIXEL= 60;
+    static final int ENCODERS= 2;
+
+    @Test
+    public void readsRecordedTables() {
+        CameraCapabilities nexus= CameraCapabilities.fromFlattened(0, NEXUS_5_BACK);
+        assertEquals(14, nexus.getPreviewSizes().size());
+        assertEquals(new PreviewSize(1920, 1080), nexus.getPreviewSizes().get(0));
+        assertEquals(30.0, nexus.getMaxFps(), 0);
+        assertTrue(nexus.supportsFormat(PreviewConfig.FORMAT_NV21));
+        assertTrue(nexus.supportsFormat(PreviewConfig.FORMAT_YV12));
+
+        CameraCapabilities s3= CameraCapabilities.fromFlattened(1, GALAXY_S3_FRONT);
+        assertEquals(15.0, s3.getMaxFps(), 0);
+        assertEquals(new PreviewSize(640, 480), s3.findSize(640, 480));
+        assertNull(s3.findSize(1920, 1080));
+    }
+
+    @Test
+    public void fillsTheViewWithItsAspectRatio() {
+        CameraCapabilities nexus= CameraCapabilities.fromFlattened(0, NEXUS_5_BACK);
+        assertEquals(new PreviewSize(1920, 1080), PreviewSizeSelector.closestTo(nexus, 1920, 1080));
+        // a 16:9 view two thirds the size
+        assertEquals(new PreviewSize(1280, 720), PreviewSizeSelector.closestTo(nexus, 1280, 720));
+        // 4:3 views stay 4:3, even where a 16:9 size has a closer height
+        assertEquals(new PreviewSize(1280, 960), PreviewSizeSelector.closestTo(nexus, 1200, 900));
+        assertEquals(new PreviewSize(576, 432), PreviewSizeSelector.closestTo(nexus, 600, 450));
+    }
+
+    @Test
+    public void fallsBackToAnyAspectRatio() {
+        CameraCapabilities old= CameraCapabilities.fromFlattened(0, OLD_QVGA);
+        // nothing square here, so the closest height of all
+        assertEquals(new PreviewSize(352, 288), PreviewSizeSelector.closestTo(old, 300, 300));
+    }
+
+    @Test
+    public void prefersTheLargestSizeItCanKeepUpWith() {
+        CameraCapabilities nexus= CameraCapabilities.fromFlattened(0, NEXUS_5_BACK);
+        assertEquals(new PreviewSize(1280, 720),
+                PreviewSizeSelector.forThroughput(nexus, 16.0 / 9, 30, NANOS_PER_PIXEL, ENCODERS));
+        assertEquals(new PreviewSize(640, 480),
+                PreviewSizeSelector.forThroughput(nexus, 4.0 / 3, 30, NANOS_PER_PIXEL, ENCODERS));
+        // twice the encoders, twice the pixels
+        assertEquals(new PreviewSize(1920, 1080),
+                PreviewSizeSelector.forThroughput(nexus, 16.0 / 9, 30, NANOS_PER_PIXEL, 2 * ENCODERS));
+    }
+
+    @Test
+    public void neverAimsAboveTheCamerasTopRate() {
+        // this camera tops out at 15fps, so it only needs to keep up with that
+        CameraCapabilities s3= CameraCapabilities.fromFlattened(1, GALAXY_S3_FRONT);
+        assertEquals(new PreviewSize(1280, 720),
+                PreviewSizeSelector.forThroughput(s3, 16.0 / 9, 30, NANOS_PER_PIXEL, ENCODERS));
+    }
+
+    @Test
+    public void fallsBackToTheFastestWhenNothingKeepsUp() {
+        CameraCapabilities nexus= CameraCapabilities.fromFlattened(0, NEXUS_5_BACK);
+        assertEquals(new PreviewSize(768, 432),
+                PreviewSizeSelector.forThroughput(nexus, 16.0 / 9, 30, 100000, ENCODERS));
+        // no size with that aspect ratio, so the smallest of all
+        CameraCapabilities old= CameraCapabilities.fromFlattened(0, OLD_QVGA);
+        assertEquals(new PreviewSize(176, 144),
+                PreviewSizeSelector.forThroughput(old, 16.0 / 9, 30, 100000, ENCODERS));
+    }
+
+    @Test
+    public void selectKeepsTheFirstOfTies() {
+        CameraCapabilities nexus= CameraCapabilities.fromFlattened(0, NEXUS_5_BACK);
+        // 1920x1080 and 1280x960 both miss by the same number of rows; the larger comes first
+        assertEquals(new PreviewSize(1920, 1080),
+                PreviewSizeSelector.select(nexus.getPreviewSizes(), PreviewSizeSelector.closestHeight(1020)));
+        assertNull(PreviewSizeSelector.select(Collections.<PreviewSize>emptyList(),
+                PreviewSizeSelector.closestHeight(480)));
+    }
+}
@@ -0,0 +1,130 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes raw containers with RawFrameWriter and reads them back with RawFrameReader.
+ */
+public class RawFrameWriterTest {
+    static final PreviewConfig BACK= new PreviewConfig(0, 64, 48, PreviewConfig.FORMAT_NV21, 90, false);
+    static final PreviewConfig FRONT= new PreviewConfig(1, 40, 30, PreviewConfig.FORMAT_YV12, 270, true);
+
+    @Rule
+    public TemporaryFolder _temp= new TemporaryFolder();
+
+    @Test
+    public void readsBackEveryField() throws IOException {
+        File file= _temp.newFile("Frames.test.camraw");
+        PreviewConfig[] configs= { BACK, FRONT, BACK };
+        RawFrameWriter writer= new RawFrameWriter(file, 1);
+        for (int idx= 0; idx < configs.length; idx++) {
+            byte[] data= payload(configs[idx], idx);
+            // the preview buffer may be bigger than the frame; only the frame is kept
+            byte[] buffer= new byte[data.length + 100];
+            System.arraycopy(data, 0, buffer, 0, data.length);
+            writer.write(1000 + idx, 5000000000L * idx, configs[idx], buffer, data.length);
+        }
+        assertEquals(configs.length, writer.getFrameCount());
+        writer.close();
+
+        RawFrameReader reader= new RawFrameReader(file);
+        try {
+            assertEquals(1, reader.getCameraId());
+            assertEquals(configs.length, reader.getFrameCount());
+            for (int idx= 0; idx < configs.length; idx++) {
+                RawFrameReader.Frame frame= reader.getFrame(idx);
+                PreviewConfig config= frame.config;
+                assertEquals(1000 + idx, frame.frameId);
+                assertEquals(5000000000L * idx, frame.timestampNs);
+                assertEquals(1, config.cameraId);
+                assertEquals(configs[idx].width, config.width);
+                assertEquals(configs[idx].height, config.height);
+                assertEquals(configs[idx].format, config.format);
+                assertEquals(configs[idx].orientation, config.orientation);
+                assertEquals(configs[idx].frontFacing, config.frontFacing);
+                assertArrayEquals(payload(configs[idx], idx), contents(frame.data));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void ignoresATruncatedLastRecord() throws IOException {
+        File file= _temp.newFile("Frames.test.camraw");
+        RawFrameWriter writer= new RawFrameWriter(file, 0);
+        for (int idx= 0; idx < 3; idx++) {
+            byte[] data= payload(BACK, idx);
+            writer.write(idx, idx, BACK, data, data.length);
+        }
+        writer.close();
+        long recordSize= RawFrameWriter.RECORD_HEADER_SIZE + payload(BACK, 0).length;
+        long whole= RawFrameWriter.FILE_HEADER_SIZE + 3 * recordSize;
+        assertEquals(whole, file.length());
+
+        // cut off in the last payload, in its header, and right after the one before
+        long[] lengths= { whole - 1, whole - recordSize + 10, whole - recordSize };
+        for (long length : lengths) {
+            truncate(file, length);
+            RawFrameReader reader= new RawFrameReader(file);
+            try {
+                assertEquals("cut at " + length, 2, reader.getFrameCount());
+                assertArrayEquals(payload(BACK, 1), contents(reader.getFrame(1).data));
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test(expected= IndexOutOfBoundsException.class)
+    public void refusesFramesPastTheEnd() throws IOException {
+        File file= _temp.newFile("Frames.test.camraw");
+        new RawFrameWriter(file, 0).close();
+        RawFrameReader reader= new RawFrameReader(file);
+        try {
+            assertEquals(0, reader.getFrameCount());
+            reader.getFrame(0);
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test(expected= IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File file= _temp.newFile("not.camraw");
+        truncate(file, RawFrameWriter.FILE_HEADER_SIZE);
+        new RawFrameReader(file);
+    }
+
+    static byte[] payload(PreviewConfig config, int frame) {
+        byte[] data= new byte[YuvRotation.nv21Size(config.width, config.height)];
+        new Random(frame).nextBytes(data);
+        return data;
+    }
+
+    static byte[] contents(ByteBuffer buffer) {
+        byte[] bytes= new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    static void truncate(File file, long length) throws IOException {
+        RandomAccessFile raf= new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that cropping and scaling a sensor-oriented frame with sensorCrop(), then turning it
+ * upright, gives the same pixels as turning the whole frame upright and cropping that.
+ */
+public class SaveProfileTest {
+    // a sixteenth of either side is 10 or 6 pixels, so every edge is 2 mod 4 and starts on an odd
+    // chroma row or column
+    static final int WIDTH= 160, HEIGHT= 96;
+    static final int[] DEGREES= { 0, 90, 180, 270 };
+    static final boolean[] MIRRORS= { false, true };
+
+    @Test
+    public void cropsTheUprightRegion() {
+        // off centre, so a crop taken from the wrong side of the sensor shows
+        SaveProfile[] profiles= {
+            new SaveProfile("crop", 1 / 16f, 6 / 16f, 11 / 16f, 13 / 16f, 1, 90, SaveProfile.Format.JPEG),
+            new SaveProfile("crop/2", 1 / 16f, 5 / 16f, 9 / 16f, 13 / 16f, 2, 90, SaveProfile.Format.JPEG),
+            SaveProfile.scaled("whole/2", 2, 90),
+        };
+        byte[] nv21= YuvRotationTest.randomFrame(YuvRotation.nv21Size(WIDTH, HEIGHT), 7);
+        for (SaveProfile profile : profiles) {
+            for (int degrees : DEGREES) {
+                for (boolean mirror : MIRRORS) {
+                    String message= profile + " " + YuvRotationTest.describe(WIDTH, HEIGHT, degrees, mirror);
+                    int[] crop= profile.sensorCrop(WIDTH, HEIGHT, degrees, mirror);
+                    byte[] scaled= new byte[YuvScaler.scaledSize(crop[2], crop[3], profile.downscale)];
+                    YuvScaler.cropAndScaleNV21(nv21, WIDTH, HEIGHT, crop, profile.downscale, scaled);
+                    byte[] saved= YuvRotationTest.referenceNV21(scaled, crop[2] / profile.downscale,
+                            crop[3] / profile.downscale, degrees, mirror);
+
+                    int uprightWidth= YuvRotation.rotatedWidth(WIDTH, HEIGHT, degrees);
+                    int uprightHeight= YuvRotation.rotatedHeight(WIDTH, HEIGHT, degrees);
+                    byte[] upright= YuvRotationTest.referenceNV21(nv21, WIDTH, HEIGHT, degrees, mirror);
+                    int[] uprightCrop= {
+                        Math.round(profile.cropLeft * uprightWidth), Math.round(profile.cropTop * uprightHeight),
+                        Math.round((profile.cropRight - profile.cropLeft) * uprightWidth),
+                        Math.round((profile.cropBottom - profile.cropTop) * uprightHeight),
+                    };
+                    assertArrayEquals(message, YuvScalerTest.referenceCropAndScale(upright, uprightWidth, uprightHeight,
+                            uprightCrop, profile.downscale), saved);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void keepsAnyCropAlignedAndInside() {
+        Random random= new Random(3);
+        for (int idx= 0; idx < 10000; idx++) {
+            int width= 2 * (8 + random.nextInt(500));
+            int height= 2 * (8 + random.nextInt(500));
+            float left= random.nextFloat() * 0.9f;
+            float top= random.nextFloat() * 0.9f;
+            float right= left + (1 - left) * Math.max(0.01f, random.nextFloat());
+            float bottom= top + (1 - top) * Math.max(0.01f, random.nextFloat());
+            int downscale= 1 + random.nextInt(4);
+            SaveProfile profile= new SaveProfile("random", left, top, right, bottom, downscale, 90, SaveProfile.Format.JPEG);
+            int degrees= DEGREES[random.nextInt(DEGREES.length)];
+            int[] crop= profile.sensorCrop(width, height, degrees, random.nextBoolean());
+
+            String message= width + "x" + height + " " + degrees + ": " + YuvScalerTest.describe(width, height, crop)
+                    + " by " + downscale;
+            assertEquals(message, 0, (crop[0] | crop[1]) & 1);
+            assertEquals(message, 0, crop[2] % (2 * downscale));
+            assertEquals(message, 0, crop[3] % (2 * downscale));
+            assertTrue(message, crop[2] > 0 && crop[3] > 0);
+            assertTrue(message, crop[0] + crop[2] <= width && crop[1] + crop[3] <= height);
+        }
+    }
+
+    @Test
+    public void describesWhatItSaves() {
+        assertTrue(SaveProfile.scaled("full", 1, 90).isFullFrame());
+        assertFalse(SaveProfile.scaled("half", 2, 90).isFullFrame());
+        assertEquals(0.25f, SaveProfile.scaled("half", 2, 90).getPixelFraction(), 1e-6f);
+        assertEquals(0.25f, SaveProfile.centerCrop("center", 0.5f, 90).getPixelFraction(), 1e-6f);
+        assertEquals(50, SaveProfile.centerCrop("center", 0.5f, 90).withQuality(50).quality);
+    }
+
+    @Test(expected= IllegalArgumentException.class)
+    public void rejectsAnEmptyCrop() {
+        new SaveProfile("empty", 0.5f, 0, 0.5f, 1, 1, 90, SaveProfile.Format.JPEG);
+    }
+}
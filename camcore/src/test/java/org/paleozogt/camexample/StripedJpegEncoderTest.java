@@ -0,0 +1,179 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Encodes smooth synthetic frames whole and in stripes, and checks that a stock decoder
+ * (ImageIO's) reads every one of them back at the right size and close to the original.
+ */
+public class StripedJpegEncoderTest {
+    // q100 comes out around 60dB on these frames; anything much below means a broken encode
+    static final double MIN_PSNR= 45;
+    static final int THREADS= 4;
+
+    ExecutorService _executor;
+
+    @Before
+    public void setUp() {
+        _executor= Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() {
+        _executor.shutdownNow();
+    }
+
+    @Test
+    public void decodesWholeAndStriped() throws IOException {
+        // 240 is 15 MCU rows, so N stripes don't divide it evenly; 70 leaves a partial MCU row
+        int[][] sizes= { { 320, 240 }, { 96, 70 } };
+        for (int[] size : sizes) {
+            int width= size[0], height= size[1];
+            byte[] nv21= smoothFrame(width, height);
+            int[] expected= new int[width * height];
+            YuvConversion.nv21ToArgb(nv21, width, height, expected);
+
+            int[] whole= null;
+            for (int stripeCount : new int[] { 1, 2, THREADS }) {
+                String message= width + "x" + height + " in " + stripeCount + " stripes";
+                StripedJpegEncoder encoder= new StripedJpegEncoder(_executor, stripeCount);
+                byte[] jpeg= encode(encoder, nv21, width, height);
+
+                int mcuRows= (height + 15) / 16;
+                int rowsPerStripe= (mcuRows + stripeCount - 1) / stripeCount;
+                int stripes= (mcuRows + rowsPerStripe - 1) / rowsPerStripe;
+                assertEquals(message, stripes > 1, hasMarker(jpeg, 0xdd));
+                assertEquals(message, stripes - 1, countRestartMarkers(jpeg));
+
+                BufferedImage image= ImageIO.read(new ByteArrayInputStream(jpeg));
+                assertNotNull(message, image);
+                assertEquals(message, width, image.getWidth());
+                assertEquals(message, height, image.getHeight());
+                int[] decoded= image.getRGB(0, 0, width, height, null, 0, width);
+                double psnr= psnr(expected, decoded);
+                assertTrue(message + ": " + psnr + "dB", psnr > MIN_PSNR);
+
+                // restart intervals only change the entropy coding, never the coefficients
+                if (whole == null) {
+                    whole= decoded;
+                } else {
+                    assertArrayEquals(message, whole, decoded);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void reusesStripesAcrossFrames() throws IOException {
+        StripedJpegEncoder encoder= new StripedJpegEncoder(_executor, THREADS);
+        byte[] large= encode(encoder, smoothFrame(320, 240), 320, 240);
+        encode(encoder, smoothFrame(96, 64), 96, 64);
+        assertArrayEquals(large, encode(encoder, smoothFrame(320, 240), 320, 240));
+    }
+
+    @Test
+    public void encodesOnTheCallingThreadWithoutAnExecutor() throws IOException {
+        byte[] nv21= smoothFrame(160, 120);
+        byte[] striped= encode(new StripedJpegEncoder(_executor, THREADS), nv21, 160, 120);
+        assertArrayEquals(striped, encode(new StripedJpegEncoder(null, THREADS), nv21, 160, 120));
+    }
+
+    @Test
+    public void reportsTheStripesFailure() {
+        StripedJpegEncoder encoder= new StripedJpegEncoder(_executor, THREADS);
+        try {
+            // too short for its size, so the last stripes read off the end
+            encoder.encode(new byte[320 * 100], 320, 240, new ByteArrayOutputStream());
+            fail("encoded a truncated frame");
+        } catch (IOException e) {
+            assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof ArrayIndexOutOfBoundsException);
+        }
+    }
+
+    static byte[] encode(StripedJpegEncoder encoder, byte[] nv21, int width, int height) throws IOException {
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        encoder.encode(nv21, width, height, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Gentle gradients in every plane and a soft ripple in luma, the kind of content q100 should reproduce almost exactly.
+     */
+    static byte[] smoothFrame(int width, int height) {
+        byte[] nv21= new byte[YuvRotation.nv21Size(width, height)];
+        for (int y= 0; y < height; y++) {
+            for (int x= 0; x < width; x++) {
+                // a little ripple on top, so there are AC coefficients to quantize
+                double ripple= 12 * Math.sin(x * 0.35) * Math.cos(y * 0.25);
+                nv21[y * width + x]= (byte)(40 + 160 * x / width + 20 * y / height + (int)ripple);
+            }
+        }
+        int ySize= width * height;
+        for (int y= 0; y < height / 2; y++) {
+            for (int x= 0; x < width / 2; x++) {
+                nv21[ySize + y * width + 2 * x]= (byte)(108 + 40 * y / height);
+                nv21[ySize + y * width + 2 * x + 1]= (byte)(148 - 40 * x / width);
+            }
+        }
+        return nv21;
+    }
+
+    /**
+     * Counts RSTn markers, checking they cycle D0 to D7 in order. Entropy-coded 0xff bytes are
+     * always stuffed with a 0, so any 0xff followed by D0-D7 is a marker.
+     */
+    static int countRestartMarkers(byte[] jpeg) {
+        int count= 0;
+        for (int idx= 0; idx + 1 < jpeg.length; idx++) {
+            int marker= jpeg[idx + 1] & 0xff;
+            if ((jpeg[idx] & 0xff) == 0xff && marker >= 0xd0 && marker <= 0xd7) {
+                assertEquals(0xd0 + (count & 7), marker);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true if the headers ahead of the scan hold a segment with this marker
+     */
+    static boolean hasMarker(byte[] jpeg, int marker) {
+        int idx= 2; // past SOI
+        while (idx + 3 < jpeg.length && (jpeg[idx] & 0xff) == 0xff) {
+            int found= jpeg[idx + 1] & 0xff;
+            if (found == marker) return true;
+            if (found == 0xda) return false;
+            idx+= 2 + ((jpeg[idx + 2] & 0xff) << 8 | (jpeg[idx + 3] & 0xff));
+        }
+        return false;
+    }
+
+    static double psnr(int[] expected, int[] actual) {
+        double sum= 0;
+        for (int idx= 0; idx < expected.length; idx++) {
+            for (int shift= 0; shift < 24; shift+= 8) {
+                int diff= ((expected[idx] >> shift) & 0xff) - ((actual[idx] >> shift) & 0xff);
+                sum+= diff * diff;
+            }
+        }
+        double mse= sum / (expected.length * 3);
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+    }
+}
@@ -0,0 +1,153 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ThumbnailCacheTest {
+    // every thumbnail here is the same size, so the caps count thumbnails
+    static final int SIZE= 100;
+
+    @Rule
+    public TemporaryFolder _temp= new TemporaryFolder();
+
+    @Test
+    public void keepsTheMostRecentlyUsedInMemory() throws IOException {
+        ThumbnailCache cache= new ThumbnailCache(_temp.newFolder("thumbs"), 100 * SIZE, 3 * SIZE);
+        put(cache, "a");
+        put(cache, "b");
+        put(cache, "c");
+        // using a makes b the eldest
+        cache.get("a");
+        put(cache, "d");
+
+        assertEquals(3 * SIZE, cache.getMemoryBytes());
+        assertTrue(cache._memory.containsKey("a"));
+        assertFalse(cache._memory.containsKey("b"));
+        assertTrue(cache._memory.containsKey("c"));
+        assertTrue(cache._memory.containsKey("d"));
+
+        // b is still on disk, and comes back into memory when it's used
+        assertArrayEquals(thumbnail("b"), cache.get("b"));
+        assertTrue(cache._memory.containsKey("b"));
+        assertFalse(cache._memory.containsKey("c"));
+        assertEquals(3 * SIZE, cache.getMemoryBytes());
+        assertEquals(1, cache._memoryHits);
+        assertEquals(1, cache._diskHits);
+    }
+
+    @Test
+    public void trimsTheDiskOldestFirst() throws IOException {
+        File directory= _temp.newFolder("thumbs");
+        ThumbnailCache cache= new ThumbnailCache(directory, 3 * SIZE, 0);
+        put(cache, "a");
+        put(cache, "b");
+        put(cache, "c");
+        // with nothing in memory, this reads a from disk and makes b the eldest
+        assertArrayEquals(thumbnail("a"), cache.get("a"));
+        put(cache, "d");
+
+        assertEquals(3 * SIZE, cache.getDiskBytes());
+        assertTrue(new File(directory, "a").isFile());
+        assertFalse(new File(directory, "b").exists());
+        assertNull(cache.get("b"));
+        assertEquals(0, cache.getMemoryBytes());
+    }
+
+    @Test
+    public void flattensSubdirectories() throws IOException {
+        File directory= _temp.newFolder("thumbs");
+        ThumbnailCache cache= new ThumbnailCache(directory, 100 * SIZE, 0);
+        put(cache, "0000/0001.jpg");
+        assertTrue(new File(directory, "0000_0001.jpg").isFile());
+        assertArrayEquals(thumbnail("0000/0001.jpg"), cache.get("0000/0001.jpg"));
+    }
+
+    @Test
+    public void reloadsInTheOrderTheyWereUsed() throws IOException {
+        File directory= _temp.newFolder("thumbs");
+        ThumbnailCache cache= new ThumbnailCache(directory, 100 * SIZE, 0);
+        put(cache, "a");
+        put(cache, "b");
+        put(cache, "c");
+        // file times are the order on disk; set them rather than wait out their resolution
+        long now= System.currentTimeMillis();
+        new File(directory, "b").setLastModified(now - 30000);
+        new File(directory, "c").setLastModified(now - 20000);
+        new File(directory, "a").setLastModified(now - 10000);
+        // and something a crash left half written
+        write(new File(directory, "d" + ThumbnailCache.TEMP_SUFFIX), new byte[SIZE / 2]);
+
+        ThumbnailCache reloaded= new ThumbnailCache(directory, 2 * SIZE, 0);
+        assertEquals(2 * SIZE, reloaded.getDiskBytes());
+        assertFalse(new File(directory, "d" + ThumbnailCache.TEMP_SUFFIX).exists());
+        assertFalse(new File(directory, "b").exists());
+        assertNull(reloaded.get("b"));
+        assertArrayEquals(thumbnail("c"), reloaded.get("c"));
+        assertArrayEquals(thumbnail("a"), reloaded.get("a"));
+        assertNull(reloaded.get("d"));
+    }
+
+    @Test
+    public void forgetsAThumbnailItCouldNotWrite() throws IOException {
+        File directory= _temp.newFolder("thumbs");
+        ThumbnailCache cache= new ThumbnailCache(directory, 100 * SIZE, 100 * SIZE);
+        // read the directory first, or it'd clear away what comes next
+        assertEquals(0, cache.getDiskBytes());
+        // a directory where the temporary file goes, so opening it fails
+        File temp= new File(directory, "a" + ThumbnailCache.TEMP_SUFFIX);
+        assertTrue(temp.mkdir());
+        try {
+            put(cache, "a");
+            fail("wrote over a directory");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertFalse(temp.exists());
+        assertFalse(new File(directory, "a").exists());
+        assertEquals(0, cache.getMemoryBytes());
+        assertEquals(0, cache.getDiskBytes());
+        assertNull(cache.get("a"));
+
+        // and nothing stops it trying again
+        put(cache, "a");
+        assertArrayEquals(thumbnail("a"), cache.get("a"));
+    }
+
+    static void put(ThumbnailCache cache, String name) throws IOException {
+        cache.put(name, ByteBuffer.wrap(thumbnail(name)));
+    }
+
+    /**
+     * @return a stand-in thumbnail, different for each name
+     */
+    static byte[] thumbnail(String name) {
+        byte[] data= new byte[SIZE];
+        for (int idx= 0; idx < data.length; idx++) {
+            data[idx]= (byte)(name.hashCode() + idx);
+        }
+        return data;
+    }
+
+    static void write(File file, byte[] data) throws IOException {
+        FileOutputStream stream= new FileOutputStream(file);
+        try {
+            stream.write(data);
+        } finally {
+            stream.close();
+        }
+    }
+}
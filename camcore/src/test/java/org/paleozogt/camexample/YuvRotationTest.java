@@ -0,0 +1,185 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks every rotation and mirror against a per-pixel reference that spells out where each
+ * sample goes. Sizes are non-square with odd chroma dimensions, and one is wider than a tile, so
+ * the tiled loops' edges get exercised too.
+ */
+public class YuvRotationTest {
+    static final int[][] SIZES= { { 6, 10 }, { 70, 38 } };
+    static final int[] DEGREES= { 0, 90, 180, 270 };
+    static final boolean[] MIRRORS= { false, true };
+
+    @Test
+    public void transformsNV21() {
+        for (int[] size : SIZES) {
+            for (int degrees : DEGREES) {
+                for (boolean mirror : MIRRORS) {
+                    int width= size[0], height= size[1];
+                    byte[] src= randomFrame(YuvRotation.nv21Size(width, height), width + height);
+                    byte[] dst= new byte[src.length];
+                    YuvRotation.transformNV21(src, dst, width, height, degrees, mirror);
+                    assertArrayEquals(describe(width, height, degrees, mirror),
+                            referenceNV21(src, width, height, degrees, mirror), dst);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void transformsYV12ToNV21() {
+        for (int[] size : SIZES) {
+            for (int degrees : DEGREES) {
+                for (boolean mirror : MIRRORS) {
+                    int width= size[0], height= size[1];
+                    byte[] src= randomFrame(yv12Size(width, height), width * height);
+                    byte[] dst= new byte[YuvRotation.nv21Size(width, height)];
+                    YuvRotation.transformYV12ToNV21(src, dst, width, height, degrees, mirror);
+                    assertArrayEquals(describe(width, height, degrees, mirror),
+                            nv21FromYV12(src, width, height, degrees, mirror), dst);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rotatesWithoutMirroring() {
+        int width= 70, height= 38;
+        byte[] src= randomFrame(YuvRotation.nv21Size(width, height), 1);
+        for (int degrees : DEGREES) {
+            byte[] dst= new byte[src.length];
+            YuvRotation.rotateNV21(src, dst, width, height, degrees);
+            assertArrayEquals(describe(width, height, degrees, false),
+                    referenceNV21(src, width, height, degrees, false), dst);
+        }
+    }
+
+    @Test
+    public void halfTurnsHappenInPlace() {
+        for (int[] size : SIZES) {
+            for (int degrees : new int[] { 0, 180 }) {
+                for (boolean mirror : MIRRORS) {
+                    int width= size[0], height= size[1];
+                    byte[] frame= randomFrame(YuvRotation.nv21Size(width, height), degrees + width);
+                    byte[] expected= referenceNV21(frame, width, height, degrees, mirror);
+                    byte[] scratch= new byte[frame.length];
+
+                    assertSame(frame, YuvRotation.transformNV21PingPong(frame, scratch, width, height, degrees, mirror));
+                    assertArrayEquals(describe(width, height, degrees, mirror), expected, frame);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void uprightMatchesReference() {
+        for (int[] size : SIZES) {
+            for (int degrees : DEGREES) {
+                for (boolean front : MIRRORS) {
+                    int width= size[0], height= size[1];
+                    String message= describe(width, height, degrees, front);
+                    byte[] scratch= new byte[YuvRotation.nv21Size(width, height)];
+
+                    byte[] nv21= randomFrame(YuvRotation.nv21Size(width, height), degrees * 7 + width);
+                    byte[] expected= referenceNV21(nv21, width, height, degrees, front);
+                    PreviewConfig config= new PreviewConfig(front ? 1 : 0, width, height, PreviewConfig.FORMAT_NV21,
+                            degrees, front);
+                    byte[] upright= YuvRotation.uprightNV21(nv21, scratch, config);
+                    assertSame(message, YuvRotation.isInPlace(degrees) ? nv21 : scratch, upright);
+                    assertArrayEquals(message, expected, upright);
+
+                    byte[] yv12= randomFrame(yv12Size(width, height), degrees * 11 + height);
+                    config= new PreviewConfig(front ? 1 : 0, width, height, PreviewConfig.FORMAT_YV12, degrees, front);
+                    upright= YuvRotation.uprightNV21(yv12, scratch, config);
+                    assertSame(message, scratch, upright);
+                    assertArrayEquals(message, nv21FromYV12(yv12, width, height, degrees, front), upright);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotates and mirrors an NV21 frame one sample at a time.
+     */
+    static byte[] referenceNV21(byte[] src, int width, int height, int degrees, boolean mirror) {
+        byte[] dst= new byte[YuvRotation.nv21Size(width, height)];
+        int ySize= width * height;
+        int cw= width / 2, ch= height / 2;
+        for (int y= 0; y < height; y++) {
+            for (int x= 0; x < width; x++) {
+                dst[destination(x, y, width, height, degrees, mirror)]= src[y * width + x];
+            }
+        }
+        for (int y= 0; y < ch; y++) {
+            for (int x= 0; x < cw; x++) {
+                int d= ySize + 2 * destination(x, y, cw, ch, degrees, mirror);
+                int s= ySize + y * width + 2 * x;
+                dst[d]= src[s];
+                dst[d + 1]= src[s + 1];
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Repacks a YV12 frame as NV21 one sample at a time, then runs it through the reference.
+     */
+    static byte[] nv21FromYV12(byte[] src, int width, int height, int degrees, boolean mirror) {
+        int yStride= YuvRotation.align16(width);
+        int uvStride= YuvRotation.align16(yStride / 2);
+        int vOffset= yStride * height;
+        int uOffset= vOffset + uvStride * (height / 2);
+        byte[] nv21= new byte[YuvRotation.nv21Size(width, height)];
+        for (int y= 0; y < height; y++) {
+            System.arraycopy(src, y * yStride, nv21, y * width, width);
+        }
+        int ySize= width * height;
+        for (int y= 0; y < height / 2; y++) {
+            for (int x= 0; x < width / 2; x++) {
+                nv21[ySize + y * width + 2 * x]= src[vOffset + y * uvStride + x];
+                nv21[ySize + y * width + 2 * x + 1]= src[uOffset + y * uvStride + x];
+            }
+        }
+        return referenceNV21(nv21, width, height, degrees, mirror);
+    }
+
+    /**
+     * @return the index, within the transformed w x h plane, where sample (x, y) ends up
+     */
+    static int destination(int x, int y, int w, int h, int degrees, boolean mirror) {
+        int dx, dy;
+        switch (degrees) {
+        case 0:   dx= x;         dy= y;         break;
+        case 90:  dx= h - 1 - y; dy= x;         break;
+        case 180: dx= w - 1 - x; dy= h - 1 - y; break;
+        default:  dx= y;         dy= w - 1 - x; break;
+        }
+        int dstWidth= YuvRotation.rotatedWidth(w, h, degrees);
+        if (mirror) {
+            dx= dstWidth - 1 - dx;
+        }
+        return dy * dstWidth + dx;
+    }
+
+    static int yv12Size(int width, int height) {
+        int yStride= YuvRotation.align16(width);
+        return yStride * height + 2 * YuvRotation.align16(yStride / 2) * (height / 2);
+    }
+
+    static byte[] randomFrame(int size, long seed) {
+        byte[] frame= new byte[size];
+        new Random(seed).nextBytes(frame);
+        return frame;
+    }
+
+    static String describe(int width, int height, int degrees, boolean mirror) {
+        return width + "x" + height + " " + degrees + (mirror ? " mirrored" : "");
+    }
+}
@@ -0,0 +1,149 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Checks cropping and scaling against a per-pixel reference that averages each output sample's
+ * block straight from the source coordinates. Crops start on odd chroma rows and columns (a
+ * luma offset of 2 mod 4), where an offset computed in the wrong plane would show.
+ */
+public class YuvScalerTest {
+    static final int[][] SIZES= { { 70, 38 }, { 64, 48 } };
+    static final int[] OFFSETS= { 0, 2, 6 };
+    static final int[] DOWNSCALES= { 1, 2, 3 };
+
+    @Test
+    public void cropsAndScalesNV21() {
+        for (int[] size : SIZES) {
+            int width= size[0], height= size[1];
+            byte[] src= YuvRotationTest.randomFrame(YuvRotation.nv21Size(width, height), width);
+            for (int[] crop : crops(width, height)) {
+                int downscale= crop[4];
+                byte[] dst= new byte[YuvScaler.scaledSize(crop[2], crop[3], downscale)];
+                YuvScaler.cropAndScaleNV21(src, width, height, crop, downscale, dst);
+                assertArrayEquals(describe(width, height, crop),
+                        referenceCropAndScale(src, width, height, crop, downscale), dst);
+            }
+        }
+    }
+
+    @Test
+    public void cropsAndScalesYV12ToNV21() {
+        for (int[] size : SIZES) {
+            int width= size[0], height= size[1];
+            byte[] src= YuvRotationTest.randomFrame(YuvRotationTest.yv12Size(width, height), height);
+            // the same frame repacked as NV21, one sample at a time
+            byte[] nv21= YuvRotationTest.nv21FromYV12(src, width, height, 0, false);
+            for (int[] crop : crops(width, height)) {
+                int downscale= crop[4];
+                byte[] dst= new byte[YuvScaler.scaledSize(crop[2], crop[3], downscale)];
+                YuvScaler.cropAndScaleYV12ToNV21(src, width, height, crop, downscale, dst);
+                assertArrayEquals(describe(width, height, crop),
+                        referenceCropAndScale(nv21, width, height, crop, downscale), dst);
+            }
+        }
+    }
+
+    @Test
+    public void rejectsCropsOffTheChromaGrid() {
+        byte[] src= new byte[YuvRotation.nv21Size(64, 48)];
+        byte[] dst= new byte[src.length];
+        int[][] bad= {
+            { 1, 0, 32, 32 },   // odd x
+            { 0, 3, 32, 32 },   // odd y
+            { 0, 0, 30, 32 },   // width not a multiple of 2 * downscale
+            { 40, 0, 32, 32 },  // past the right edge
+            { 0, 0, 0, 32 },
+        };
+        for (int[] crop : bad) {
+            try {
+                YuvScaler.cropAndScaleNV21(src, 64, 48, crop, 2, dst);
+                fail(describe(64, 48, crop));
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void referenceAveragesBlocks() {
+        // a 4x4 frame whose luma is its index, so the block averages can be worked out by hand
+        byte[] nv21= new byte[YuvRotation.nv21Size(4, 4)];
+        for (int idx= 0; idx < 16; idx++) {
+            nv21[idx]= (byte)idx;
+        }
+        byte[] scaled= referenceCropAndScale(nv21, 4, 4, new int[] { 0, 0, 4, 4 }, 2);
+        // (0+1+4+5)/4 rounds 2.5 up, (2+3+6+7)/4 is 4.5, and so on
+        assertEquals(3, scaled[0]);
+        assertEquals(5, scaled[1]);
+        assertEquals(11, scaled[2]);
+        assertEquals(13, scaled[3]);
+    }
+
+    /**
+     * @return { x, y, width, height, downscale } crops from every offset, both the largest that
+     * fits and a smaller one
+     */
+    static int[][] crops(int width, int height) {
+        int[][] crops= new int[OFFSETS.length * OFFSETS.length * DOWNSCALES.length * 2][];
+        int count= 0;
+        for (int x : OFFSETS) {
+            for (int y : OFFSETS) {
+                for (int downscale : DOWNSCALES) {
+                    int align= 2 * downscale;
+                    int w= (width - x) / align * align;
+                    int h= (height - y) / align * align;
+                    crops[count++]= new int[] { x, y, w, h, downscale };
+                    crops[count++]= new int[] { x, y, Math.max(align, w / 2 / align * align), align, downscale };
+                }
+            }
+        }
+        return crops;
+    }
+
+    /**
+     * Averages each output sample's downscale x downscale block of source samples, reading them
+     * by their coordinates in the full frame.
+     */
+    static byte[] referenceCropAndScale(byte[] nv21, int width, int height, int[] crop, int downscale) {
+        int x= crop[0], y= crop[1], w= crop[2], h= crop[3];
+        int outWidth= w / downscale, outHeight= h / downscale;
+        byte[] dst= new byte[YuvRotation.nv21Size(outWidth, outHeight)];
+        for (int oy= 0; oy < outHeight; oy++) {
+            for (int ox= 0; ox < outWidth; ox++) {
+                dst[oy * outWidth + ox]= average(nv21, 0, width, 1, x + ox * downscale, y + oy * downscale, downscale);
+            }
+        }
+        int ySize= width * height;
+        int outYSize= outWidth * outHeight;
+        for (int oy= 0; oy < outHeight / 2; oy++) {
+            for (int ox= 0; ox < outWidth / 2; ox++) {
+                // chroma sample (cx, cy) covers luma (2cx, 2cy), so the crop starts at (x/2, y/2)
+                int cx= x / 2 + ox * downscale, cy= y / 2 + oy * downscale;
+                int d= outYSize + oy * outWidth + 2 * ox;
+                dst[d]= average(nv21, ySize, width, 2, cx, cy, downscale);
+                dst[d + 1]= average(nv21, ySize + 1, width, 2, cx, cy, downscale);
+            }
+        }
+        return dst;
+    }
+
+    static byte average(byte[] plane, int offset, int rowBytes, int step, int x, int y, int size) {
+        int sum= 0;
+        for (int ky= 0; ky < size; ky++) {
+            for (int kx= 0; kx < size; kx++) {
+                sum+= plane[offset + (y + ky) * rowBytes + (x + kx) * step] & 0xff;
+            }
+        }
+        return (byte)((sum + size * size / 2) / (size * size));
+    }
+
+    static String describe(int width, int height, int[] crop) {
+        return width + "x" + height + " crop " + crop[0] + "," + crop[1] + " " + crop[2] + "x" + crop[3]
+                + (crop.length > 4 ? " by " + crop[4] : "");
+    }
+}
@@ -0,0 +1,46 @@
+package org.paleozogt.camexample;
+
+import android.hardware.Camera;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Each camera's capabilities, read from its parameters the first time it's opened and kept for
+ * the life of the process, since they can't change.
+ */
+final class CameraCapabilityCache {
+    private CameraCapabilityCache() {}
+
+    private static final Map<Integer, CameraCapabilities> sCapabilities= new HashMap<Integer, CameraCapabilities>();
+
+    /**
+     * @param parameters the camera's parameters, read only if it isn't cached yet
+     */
+    static synchronized CameraCapabilities get(int cameraId, Camera.Parameters parameters) {
+        CameraCapabilities capabilities= sCapabilities.get(cameraId);
+        if (capabilities == null) {
+            capabilities= fromParameters(cameraId, parameters);
+            sCapabilities.put(cameraId, capabilities);
+        }
+        return capabilities;
+    }
+
+    static CameraCapabilities fromParameters(int cameraId, Camera.Parameters parameters) {
+        List<PreviewSize> sizes= new ArrayList<PreviewSize>();
+        for (Camera.Size size : parameters.getSupportedPreviewSizes()) {
+            sizes.add(new PreviewSize(size.width, size.height));
+        }
+        List<CameraCapabilities.FpsRange> fpsRanges= new ArrayList<CameraCapabilities.FpsRange>();
+        List<int[]> ranges= parameters.getSupportedPreviewFpsRange();
+        if (ranges != null) {
+            for (int[] range : ranges) {
+                fpsRanges.add(new CameraCapabilities.FpsRange(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                        range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]));
+            }
+        }
+        return new CameraCapabilities(cameraId, sizes, parameters.getSupportedPreviewFormats(), fpsRanges);
+    }
+}
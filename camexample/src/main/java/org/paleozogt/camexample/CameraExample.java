@@ -21,8 +21,10 @@ import android.app.AlertDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
@@ -30,9 +32,12 @@ import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.hardware.Camera.Size;
 import android.os.AsyncTask;
+import android.os.BatteryManager;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
-import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -41,54 +46,176 @@ import android.view.Surface;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
+import android.widget.ImageView;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
+import java.util.Locale;
 
 // ----------------------------------------------------------------------
 
-public class CameraExample extends Activity implements Camera.PreviewCallback {
+public class CameraExample extends Activity
+        implements Camera.PreviewCallback, CameraPreview.PreviewListener, CameraSession.Listener,
+                   PreviewFrame.ReleaseListener, ImageSaver.Listener {
     private final String TAG = this.getClass().getSimpleName();
+
+    // buffers kept queued with the camera, and the most we'll allocate including those being saved
+    static final int PREVIEW_BUFFER_COUNT= 3;
+    static final int MAX_PREVIEW_BUFFERS= 5;
+
+    // encoders and queue slots behind the capture button; a burst that outruns them drops its
+    // oldest unsaved frames rather than growing the heap
+    static final int SAVE_WORKERS= 2;
+    static final int SAVE_QUEUE_CAPACITY= 4;
+    static final BoundedWorkQueue.OverflowPolicy SAVE_OVERFLOW_POLICY= BoundedWorkQueue.OverflowPolicy.DROP_OLDEST;
+    static final int BURST_FRAME_INTERVAL= 1;
+    static final long BURST_DURATION_MS= 5000;
+    // the frame rate "fit resolution" sizes the preview for (or the camera's top rate, if lower)
+    static final double FIT_TARGET_FPS= 30;
+
+    // an adaptive burst runs until stopped, stepping through these (best first) to match what
+    // the device can sustain, and reconsiders once a second
+    static final CaptureRateController.Level[] CAPTURE_LEVELS= {
+            new CaptureRateController.Level(30, SaveProfile.scaled("Full", 1, 90)),
+            new CaptureRateController.Level(20, SaveProfile.scaled("Full", 1, 85)),
+            new CaptureRateController.Level(30, SaveProfile.scaled("Half", 2, 85)),
+            new CaptureRateController.Level(15, SaveProfile.scaled("Half", 2, 80)),
+            new CaptureRateController.Level(10, SaveProfile.scaled("Quarter", 4, 80)),
+            new CaptureRateController.Level(5, SaveProfile.scaled("Quarter", 4, 75)),
+    };
+    static final long ADAPTIVE_BURST_DURATION_MS= 30 * 60 * 1000;
+    static final long RATE_CONTROL_INTERVAL_MS= 1000;
+
+    // how captured frames are cropped, scaled and encoded; the smaller ones encode several times faster
+    static final SaveProfile[] SAVE_PROFILES= {
+            SaveProfile.scaled("Full", 1, 95),
+            SaveProfile.scaled("Half", 2, 90),
+            SaveProfile.scaled("Quarter", 4, 85),
+            SaveProfile.centerCrop("Center", 0.5f, 95),
+    };
+
+    // analysis stages run on these threads, each frame visiting every stage that isn't busy or
+    // over its budget
+    static final int PIPELINE_WORKERS= 2;
+    static final int LUMA_SAMPLE_STEP= 4;
+    static final long LUMA_BUDGET_NS= 4 * 1000 * 1000;
+
+    // a burst with the change gate on skips frames whose 16x16 grid of mean luma (sampled every
+    // 8th pixel) is on average within this many levels of the last frame it saved
+    static final int CHANGE_GRID= 16;
+    static final int CHANGE_SAMPLE_STEP= 8;
+    static final double CHANGE_THRESHOLD= 4.0;
+
+    // where captured frames go: a JPEG file each, JPEGs in one frame log, or unencoded frames
+    static final int SAVE_MODE_FILES= 0;
+    static final int SAVE_MODE_FRAME_LOG= 1;
+    static final int SAVE_MODE_RAW= 2;
+    static final int SAVE_MODE_COUNT= 3;
+
+    // fsync per-frame files in batches of this many; a frame log maps this much at a time
+    static final int FILE_SYNC_BATCH= 8;
+    // a session's files spill into a new subdirectory every this many frames
+    static final int FILES_PER_DIRECTORY= FrameNamer.DEFAULT_FILES_PER_DIRECTORY;
+    static final long FRAME_LOG_PREALLOCATE= 64 * 1024 * 1024;
+
+    // saved frames get a thumbnail this big for the gallery, the latest kept in memory and the
+    // rest on disk up to a cap
+    static final int THUMBNAIL_SIZE= 192;
+    static final int THUMBNAIL_MEMORY_BYTES= 2 * 1024 * 1024;
+    static final long THUMBNAIL_DISK_BYTES= 32 * 1024 * 1024;
+    // the last capture's thumbnail is shown at most this often, so a burst doesn't decode one a frame
+    static final long LAST_CAPTURE_REFRESH_MS= 500;
+
+    // debug builds report preview frames that are dropped without being released; static, so
+    // it doesn't hold on to an activity
+    static final PreviewFrame.LeakListener FRAME_LEAK_LOGGER= new PreviewFrame.LeakListener() {
+        @Override
+        public void onFrameLeaked(PreviewConfig config, long timestampNs, Throwable allocatedAt) {
+            Log.e("PreviewFrame", "leaked a frame from camera " + config.cameraId + " at " + timestampNs, allocatedAt);
+        }
+    };
+
+    // static, so the recent thumbnails in memory outlive a relaunch
+    static ThumbnailCache sThumbnailCache;
+
     private CameraPreview mPreview;
-    Camera mCamera;
-    CameraInfo mCameraInfo;
+    CameraSession mSession;
     int numberOfCameras;
     ImageSaver _imageSaver;
+    FramePipeline mPipeline;
+    LumaStats mLumaStats;
+    PreviewConfig mPreviewConfig;
+    PreviewBufferPool mBufferPool;
+    int mQueuedBuffers;
+    boolean mCaptureRequested;
+    BurstCapture mBurst;
+    boolean mBurstFlushed;
+    boolean mAdaptiveRate;
+    boolean mLogTimings;
+    FrameTimingLog mTimingLog;
+    String mSessionId;
+    CaptureRateController mRateController;
+    long mLastRateControl;
+    boolean mShowStats;
+    boolean mChangeGateEnabled;
+    final FrameChangeDetector mChangeGate= new FrameChangeDetector(CHANGE_GRID, CHANGE_SAMPLE_STEP, CHANGE_THRESHOLD);
 
     int mPreviewWidth, mPreviewHeight;
     boolean mRecordingHint;
+    int mSaveMode;
+    int mSaveProfile;
     int mCameraId;
 
     protected TextView mCameraInfoView;
+    protected ImageView mLastCaptureView;
+    long mLastCaptureShown;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.camera_example);
+        if (BuildConfig.DEBUG) {
+            PreviewFrame.setLeakListener(FRAME_LEAK_LOGGER);
+        }
+        if (sThumbnailCache == null) {
+            sThumbnailCache= new ThumbnailCache(new File(getCacheDir(), "thumbnails"),
+                    THUMBNAIL_DISK_BYTES, THUMBNAIL_MEMORY_BYTES);
+        }
 
         Intent intent= getIntent();
         mCameraId    = intent.getIntExtra("cameraId", -1);
         mPreviewWidth= intent.getIntExtra("previewWidth", -1);
         mPreviewHeight= intent.getIntExtra("previewHeight", -1);
         mRecordingHint= intent.getBooleanExtra("recordingHint", false);
+        mSaveMode= intent.getIntExtra("saveMode", SAVE_MODE_FILES);
+        mSaveProfile= intent.getIntExtra("saveProfile", 0);
+        mChangeGateEnabled= intent.getBooleanExtra("changeGate", false);
+        mAdaptiveRate= intent.getBooleanExtra("adaptiveRate", false);
+        mLogTimings= intent.getBooleanExtra("logTimings", false);
 
         mCameraInfoView = (TextView)findViewById(R.id.camera_info);
+        mLastCaptureView= (ImageView)findViewById(R.id.last_capture);
 
         Button captureBtn= (Button)findViewById(R.id.button_capture);
         captureBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                mCamera.setOneShotPreviewCallback(CameraExample.this);
+                mCaptureRequested= true;
+                mBurst= null;
             }
         });
 
         // Create a RelativeLayout container that will hold a SurfaceView,
         // and set it as a view on our activity
         mPreview = (CameraPreview)findViewById(R.id.camera_preview);
+        mPreview.setPreviewListener(this);
+        mSession= new CameraSession(mPreview, this);
 
         // Find the total number of cameras available
         numberOfCameras = Camera.getNumberOfCameras();
@@ -112,12 +239,242 @@ public class CameraExample extends Activity implements Camera.PreviewCallback {
                 .putExtra("previewWidth", mPreviewWidth)
                 .putExtra("previewHeight", mPreviewHeight)
                 .putExtra("recordingHint", mRecordingHint)
+                .putExtra("saveMode", mSaveMode)
+                .putExtra("saveProfile", mSaveProfile)
+                .putExtra("changeGate", mChangeGateEnabled)
+                .putExtra("adaptiveRate", mAdaptiveRate)
+                .putExtra("logTimings", mLogTimings)
         );
     }
 
     @Override
     public void onPreviewFrame(final byte[] data, Camera camera) {
-        _imageSaver.saveImage(data, camera);
+        if (mBufferPool == null || !mBufferPool.owns(data)) {
+            return;
+        }
+        mQueuedBuffers--;
+
+        long arrival= System.nanoTime();
+        CaptureMetrics metrics= _imageSaver.getMetrics();
+        metrics.frameArrived(arrival);
+        if (mSession.onPreviewFrame(arrival, metrics)) {
+            mCameraInfoView.setText(getCameraInfoString());
+        }
+
+        boolean capture= mCaptureRequested;
+        if (mBurst != null && mBurst.onFrame(SystemClock.elapsedRealtime())) {
+            // a burst only keeps frames that show something new; a single shot always saves
+            if (mChangeGateEnabled && !frameChanged(data, metrics)) {
+                mBurst.onFrameSkipped();
+                metrics.frameSkipped();
+            } else {
+                capture= true;
+            }
+        }
+
+        if (mRateController != null) {
+            updateCaptureRate(SystemClock.elapsedRealtime(), metrics);
+        }
+        if (mBurst != null && !mBurstFlushed && !mBurst.isActive(SystemClock.elapsedRealtime())) {
+            // get the burst onto disk now rather than whenever the activity pauses
+            _imageSaver.flush();
+            mBurstFlushed= true;
+        }
+
+        if (capture) {
+            mCaptureRequested= false;
+        }
+        // whichever stages take the frame hold it; it comes back through onFrameReleased once
+        // the last of them (or, if none wanted it, this release) lets go
+        PreviewFrame frame= PreviewFrame.wrap(data, mPreviewConfig, arrival, this);
+        mPipeline.submit(frame, capture);
+        frame.release();
+        feedCamera();
+        metrics.record(CaptureMetrics.Stage.CALLBACK, System.nanoTime() - arrival);
+    }
+
+    /**
+     * Lets the rate controller move the burst to another level, once a control interval has
+     * passed. When the burst is over, saving goes back to the chosen save profile.
+     */
+    protected void updateCaptureRate(long now, CaptureMetrics metrics) {
+        if (mBurst == null || !mBurst.isActive(now)) {
+            mRateController= null;
+            _imageSaver.setSaveProfile(SAVE_PROFILES[mSaveProfile]);
+            return;
+        }
+        if (now - mLastRateControl < RATE_CONTROL_INTERVAL_MS) {
+            return;
+        }
+        mLastRateControl= now;
+        BoundedWorkQueue queue= _imageSaver.getSaveQueue();
+        if (mRateController.update(metrics, queue.getQueueDepth(), queue.getCapacity(), getBatteryTemperature(),
+                now)) {
+            applyCaptureLevel();
+        }
+        if (mShowStats) {
+            mCameraInfoView.setText(getCameraInfoString());
+        }
+    }
+
+    protected void applyCaptureLevel() {
+        CaptureRateController.Level level= mRateController.getLevel();
+        mBurst.setMaxFps(level.fps);
+        _imageSaver.setSaveProfile(level.profile);
+        Log.d(TAG, "capture level " + level);
+    }
+
+    /**
+     * The battery's temperature is the only one these API levels report, and a fair stand-in for
+     * the device's: it lags the SoC, but that suits a controller that only reacts to trends.
+     *
+     * @return degrees C, or NaN if it isn't known
+     */
+    protected float getBatteryTemperature() {
+        // the battery broadcast is sticky, so this just reads the latest one
+        Intent battery= registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        int tenths= battery != null ? battery.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE)
+                : Integer.MIN_VALUE;
+        return tenths != Integer.MIN_VALUE ? tenths / 10f : Float.NaN;
+    }
+
+    protected boolean frameChanged(byte[] data, CaptureMetrics metrics) {
+        long start= System.nanoTime();
+        int rowBytes= mPreviewConfig.format == ImageFormat.YV12
+                ? YuvRotation.align16(mPreviewConfig.width) : mPreviewConfig.width;
+        boolean changed= mChangeGate.accept(data, mPreviewConfig.width, mPreviewConfig.height, rowBytes);
+        metrics.record(CaptureMetrics.Stage.CHANGE_DETECT, System.nanoTime() - start);
+        return changed;
+    }
+
+    @Override
+    public void onPreviewStarted(Camera camera, Camera.Parameters parameters) {
+        Size size= parameters.getPreviewSize();
+        mPreviewConfig= new PreviewConfig(mCameraId, size.width, size.height, parameters.getPreviewFormat(),
+                mSession.getCameraInfo().orientation, mSession.isFrontFacing());
+
+        int format= mPreviewConfig.format;
+        int bufferSize= PreviewBufferPool.frameSize(mPreviewConfig.width, mPreviewConfig.height,
+                ImageFormat.getBitsPerPixel(format), format == ImageFormat.YV12);
+
+        // buffers from an earlier preview are dropped rather than trusted to still be queued
+        mBufferPool= new PreviewBufferPool(bufferSize, MAX_PREVIEW_BUFFERS);
+        mQueuedBuffers= 0;
+        mChangeGate.reset();
+        camera.setPreviewCallbackWithBuffer(this);
+        feedCamera();
+        mCameraInfoView.setText(getCameraInfoString());
+    }
+
+    @Override
+    public void onImageSaved(String fileName, Exception error) {
+        if (mBurst != null && error == null) {
+            mBurst.onFrameSaved(SystemClock.elapsedRealtime());
+        }
+        if (error == null) {
+            showLastCapture(fileName);
+        }
+        if (mBurst != null || mShowStats) {
+            mCameraInfoView.setText(getCameraInfoString());
+        }
+    }
+
+    /**
+     * Shows the thumbnail the saver just cached for fileName, unless one was shown very recently.
+     * It was only just put, so it comes from memory rather than disk.
+     */
+    protected void showLastCapture(String fileName) {
+        long now= SystemClock.elapsedRealtime();
+        if (now - mLastCaptureShown < LAST_CAPTURE_REFRESH_MS) {
+            return;
+        }
+        byte[] jpeg;
+        try {
+            jpeg= sThumbnailCache.get(fileName);
+        } catch (IOException e) {
+            Log.w(TAG, "can't read thumbnail of " + fileName + ": " + e);
+            return;
+        }
+        // raw saves aren't encoded on the device, so they have none
+        if (jpeg == null) {
+            return;
+        }
+        Bitmap thumbnail= BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+        if (thumbnail != null) {
+            mLastCaptureView.setImageBitmap(thumbnail);
+            mLastCaptureShown= now;
+        }
+    }
+
+    @Override
+    public void onImageDropped(String fileName) {
+        if (mBurst != null) {
+            mBurst.onFrameDropped();
+        }
+        if (mBurst != null || mShowStats) {
+            mCameraInfoView.setText(getCameraInfoString());
+        }
+    }
+
+    @Override
+    public void onFrameReleased(final byte[] data) {
+        // frames nobody kept are released right in the preview callback
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            releaseBuffer(data);
+            return;
+        }
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                releaseBuffer(data);
+            }
+        });
+    }
+
+    protected void releaseBuffer(byte[] data) {
+        if (mBufferPool != null && mBufferPool.owns(data)) {
+            mBufferPool.release(data);
+            feedCamera();
+        }
+    }
+
+    protected void dumpStats() {
+        File statsFile= new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
+                "CaptureStats." + System.currentTimeMillis() + ".csv");
+        try {
+            FileWriter writer= new FileWriter(statsFile);
+            try {
+                _imageSaver.getMetrics().snapshot().writeTo(writer);
+            } finally {
+                writer.close();
+            }
+            Toast.makeText(this, statsFile.toString(), Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            Log.e(TAG, "can't write " + statsFile, e);
+        }
+    }
+
+    protected void startBurst() {
+        mBurst= new BurstCapture(BURST_FRAME_INTERVAL, mAdaptiveRate ? ADAPTIVE_BURST_DURATION_MS : BURST_DURATION_MS);
+        mBurst.start(SystemClock.elapsedRealtime());
+        mBurstFlushed= false;
+        if (mAdaptiveRate) {
+            mRateController= new CaptureRateController(CAPTURE_LEVELS, SAVE_WORKERS, 0);
+            mLastRateControl= SystemClock.elapsedRealtime();
+            applyCaptureLevel();
+        }
+        mChangeGate.reset();
+        mCameraInfoView.setText(getCameraInfoString());
+    }
+
+    protected void feedCamera() {
+        Camera camera= mSession.getCamera();
+        while (camera != null && mBufferPool != null && mQueuedBuffers < PREVIEW_BUFFER_COUNT) {
+            byte[] buffer= mBufferPool.acquire();
+            if (buffer == null) break;
+            camera.addCallbackBuffer(buffer);
+            mQueuedBuffers++;
+        }
     }
 
     @Override
@@ -126,7 +483,6 @@ public class CameraExample extends Activity implements Camera.PreviewCallback {
 
         // Open the default i.e. the first rear facing camera.
         openCamera(mCameraId);
-        mPreview.setCamera(mCamera, mPreviewWidth, mPreviewHeight);
     }
 
     @Override
@@ -135,11 +491,30 @@ public class CameraExample extends Activity implements Camera.PreviewCallback {
 
         // Because the Camera object is a shared resource, it's very
         // important to release it when the activity is paused.
-        if (mCamera != null) {
-            mPreview.setCamera(null);
-            mCamera.release();
-            mCamera = null;
+        if (mBufferPool != null) {
+            Log.d(TAG, mBufferPool.toString());
+            mBufferPool= null;
+        }
+        mSession.close();
+        if (mPipeline != null) {
+            mPipeline.shutdown();
+            mPipeline= null;
+        }
+        if (_imageSaver != null) {
+            // what's written already goes to disk now, without waiting for the queue to drain
+            _imageSaver.flush();
+            _imageSaver.shutdown();
+            _imageSaver= null;
         }
+        mTimingLog= null;
+        mBurst= null;
+        mRateController= null;
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mSession.shutdown();
     }
 
     @Override
@@ -168,25 +543,88 @@ public class CameraExample extends Activity implements Camera.PreviewCallback {
 
             // Acquire the next camera and request Preview to reconfigure parameters.
             mCameraId= (mCameraId + 1) % numberOfCameras;
-            relaunch();
+            mBufferPool= null;
+            if (_imageSaver != null) {
+                _imageSaver.getNamer().setCameraId(mCameraId);
+            }
+            mSession.switchCamera(mCameraId, getRotationDegrees(this), mRecordingHint, mPreviewWidth, mPreviewHeight);
 
+            return true;
+        case R.id.burst_capture:
+            startBurst();
+            return true;
+        case R.id.toggle_change_gate:
+            mChangeGateEnabled= !mChangeGateEnabled;
+            mChangeGate.reset();
+            mCameraInfoView.setText(getCameraInfoString());
+            return true;
+        case R.id.toggle_adaptive_rate:
+            mAdaptiveRate= !mAdaptiveRate;
+            if (!mAdaptiveRate && mRateController != null) {
+                // ends the adaptive burst; the next frame puts the save profile back
+                mBurst= null;
+            }
+            mCameraInfoView.setText(getCameraInfoString());
+            return true;
+        case R.id.toggle_timing_log:
+            mLogTimings= !mLogTimings;
+            if (_imageSaver != null) {
+                if (mLogTimings) {
+                    startTimingLog();
+                } else {
+                    // the saver closes it, off the UI thread
+                    _imageSaver.setTimingLog(null);
+                    mTimingLog= null;
+                }
+            }
+            mCameraInfoView.setText(getCameraInfoString());
+            return true;
+        case R.id.toggle_stats:
+            mShowStats= !mShowStats;
+            mCameraInfoView.setText(getCameraInfoString());
+            return true;
+        case R.id.dump_stats:
+            if (_imageSaver != null) {
+                dumpStats();
+            }
             return true;
         case R.id.toggle_recording_hint:
             mRecordingHint= !mRecordingHint;
+            mSession.setRecordingHint(mRecordingHint);
+            if (mTimingLog != null) {
+                mTimingLog.setRecordingHint(mRecordingHint);
+            }
+            return true;
+        case R.id.switch_save_mode:
+            mSaveMode= (mSaveMode + 1) % SAVE_MODE_COUNT;
             relaunch();
             return true;
+        case R.id.switch_save_profile:
+            mSaveProfile= (mSaveProfile + 1) % SAVE_PROFILES.length;
+            if (_imageSaver != null) {
+                _imageSaver.setSaveProfile(SAVE_PROFILES[mSaveProfile]);
+            }
+            mCameraInfoView.setText(getCameraInfoString());
+            return true;
+        case R.id.fit_resolution:
+            fitPreviewSizeToSaveRate();
+            return true;
         case R.id.switch_resolution:
             AlertDialog.Builder builder= new AlertDialog.Builder(CameraExample.this);
-            final List<Size> sizes= mPreview.getSupportedCameraSizes();
+            final List<PreviewSize> sizes= mPreview.getSupportedCameraSizes();
+            if (sizes == null) {
+                // still opening
+                return true;
+            }
             final String[] labels= sizesToLabels(sizes);
             builder.setTitle(R.string.choose_camera_size);
             builder.setItems(labels, new DialogInterface.OnClickListener() {
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
-                    Size size= sizes.get(which);
+                    PreviewSize size= sizes.get(which);
                     mPreviewWidth= size.width;
                     mPreviewHeight= size.height;
-                    relaunch();
+                    mSession.setPreviewSize(size.width, size.height);
                 }
             });
             builder.create().show();
@@ -196,47 +634,153 @@ public class CameraExample extends Activity implements Camera.PreviewCallback {
         }
     }
 
-    protected void openCamera(int camIdx) {
-        mCameraInfo = new Camera.CameraInfo();
-        Camera.getCameraInfo(camIdx, mCameraInfo);
-        mCamera= Camera.open(camIdx);
+    /**
+     * Switches to the largest preview size, of the current aspect ratio, whose frames the save
+     * workers can keep up with, going by what saves have cost so far at the current size.
+     */
+    protected void fitPreviewSizeToSaveRate() {
+        CameraCapabilities capabilities= mPreview.getCapabilities();
+        PreviewSize current= mPreview.getPreviewSize();
+        if (capabilities == null || current == null || _imageSaver == null) {
+            // still opening
+            return;
+        }
+        CaptureMetrics metrics= _imageSaver.getMetrics();
+        double saveNanos= 0;
+        for (CaptureMetrics.Stage stage : CaptureRateController.WORK_STAGES) {
+            saveNanos+= metrics.snapshot(stage).getMean();
+        }
+        if (metrics.getFramesSaved() == 0 || saveNanos <= 0) {
+            Toast.makeText(this, R.string.fit_resolution_no_saves, Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // saves cost roughly the same per pixel at any size, for a given save profile
+        PreviewSize size= PreviewSizeSelector.forThroughput(capabilities, current.getAspect(), FIT_TARGET_FPS,
+                saveNanos / current.getPixels(), SAVE_WORKERS);
+        Log.d(TAG, String.format(Locale.US, "saves take %.1fms at %s, so fitting %s", saveNanos / 1e6, current, size));
+        if (size != null && !size.equals(current)) {
+            mPreviewWidth= size.width;
+            mPreviewHeight= size.height;
+            mSession.setPreviewSize(size.width, size.height);
+        }
+    }
 
-        int degrees= getRotationDegrees(this);
-        int displayOrientation = (mCameraInfo.orientation + degrees) % 360;
-        if (mCameraInfo.facing == CameraInfo.CAMERA_FACING_FRONT)
-            displayOrientation = (360 - displayOrientation) % 360; // compensate the mirror
+    protected void openCamera(int camIdx) {
+        mSession.open(camIdx, getRotationDegrees(this), mRecordingHint, mPreviewWidth, mPreviewHeight);
+
+        File picturesDir= Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
+        mSessionId= FrameNamer.sessionId(System.currentTimeMillis());
+        FrameNamer namer= new FrameNamer(mSessionId, camIdx, FILES_PER_DIRECTORY);
+        FrameSink sink= new FileChannelSink(picturesDir, FILE_SYNC_BATCH);
+        if (mSaveMode == SAVE_MODE_FRAME_LOG) {
+            File logFile= new File(picturesDir, namer.containerName("camlog"));
+            try {
+                sink= new FrameLogSink(logFile, FRAME_LOG_PREALLOCATE);
+            } catch (IOException e) {
+                Log.e(TAG, "can't create frame log " + logFile + ", saving files instead", e);
+            }
+        }
+        _imageSaver= new ImageSaver(namer, sink,
+                new BoundedWorkQueue("ImageSaver", SAVE_WORKERS, SAVE_QUEUE_CAPACITY, SAVE_OVERFLOW_POLICY));
+        _imageSaver.setListener(this);
+        _imageSaver.setSaveProfile(SAVE_PROFILES[mSaveProfile]);
+        _imageSaver.enableStripedEncoding(Runtime.getRuntime().availableProcessors());
+        _imageSaver.setThumbnailCache(sThumbnailCache, THUMBNAIL_SIZE);
+        mTimingLog= null;
+        if (mLogTimings) {
+            startTimingLog();
+        }
+        if (mSaveMode == SAVE_MODE_RAW) {
+            File rawFile= new File(picturesDir, namer.containerName("camraw"));
+            try {
+                _imageSaver.setRawWriter(new RawFrameWriter(rawFile, camIdx));
+            } catch (IOException e) {
+                Log.e(TAG, "can't create raw frame container " + rawFile + ", saving files instead", e);
+            }
+        }
 
-        mCamera.setDisplayOrientation(displayOrientation);
+        mPipeline= new FramePipeline("FramePipeline", PIPELINE_WORKERS);
+        mLumaStats= new LumaStats(LUMA_SAMPLE_STEP);
+        mPipeline.addStage("luma", mLumaStats, 1, LUMA_BUDGET_NS);
+        mPipeline.setTerminal(_imageSaver);
+    }
 
-        Camera.Parameters params= mCamera.getParameters();
-        params.setRecordingHint(mRecordingHint);
-        mCamera.setParameters(params);
+    /**
+     * Starts logging frame timings for the current session, appending to its log if timings
+     * were on earlier in the session.
+     */
+    protected void startTimingLog() {
+        File picturesDir= Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
+        File timingFile= new File(picturesDir, "Frames." + mSessionId + ".timing.csv");
+        try {
+            mTimingLog= new FrameTimingLog(timingFile, String.format(Locale.US, "session %s, %s %s, API %d",
+                    mSessionId, Build.MANUFACTURER, Build.MODEL, Build.VERSION.SDK_INT));
+            mTimingLog.setRecordingHint(mRecordingHint);
+            _imageSaver.setTimingLog(mTimingLog);
+        } catch (IOException e) {
+            Log.e(TAG, "can't create timing log " + timingFile, e);
+        }
+    }
 
-        String fileNameFormat= new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "Picture.%d.jpg").toString();
-        _imageSaver= new ImageSaver(fileNameFormat, mCameraInfo.orientation);
+    @Override
+    public void onCameraOpened(CameraSession session) {
+        mCameraInfoView.setText(getCameraInfoString());
+    }
 
-        // TODO: this is hackery
-        new Handler().post(new Runnable() {
-            @Override
-            public void run() {
-                Size size= mPreview.getPreviewSize();
-                if (size == null) {
-                    new Handler().post(this);
-                } else {
-                    mCameraInfoView.setText(getCameraInfoString());
-                }
-            }
-        });
+    @Override
+    public void onCameraOpenFailed(int cameraId, RuntimeException error) {
+        Toast.makeText(this, getString(R.string.camera_open_failed, cameraId), Toast.LENGTH_LONG).show();
     }
 
     protected String getCameraInfoString() {
-        return
-                getResources().getString( mCameraInfo.facing == CameraInfo.CAMERA_FACING_FRONT ? R.string.camera_front : R.string.camera_back) +
+        String info=
+                getResources().getString( mSession.isFrontFacing() ? R.string.camera_front : R.string.camera_back) +
                 "\n" +
                 String.format(getResources().getString(R.string.recording_hint), mRecordingHint) +
                 "\n" +
-                sizeToString(mPreview.getPreviewSize())
+                String.format(getResources().getString(R.string.save_mode), getSaveModeName()) +
+                "\n" +
+                String.format(getResources().getString(R.string.save_profile), SAVE_PROFILES[mSaveProfile]) +
+                "\n" +
+                (mPreview.getPreviewSize() != null ? sizeToString(mPreview.getPreviewSize()) : "")
                 ;
+        if (mSession.getLastChange() != null) {
+            info+= "\n" + mSession.getLastChange();
+        }
+        if (mBurst != null) {
+            info+= "\n" + mBurst.toString();
+        }
+        if (mChangeGateEnabled) {
+            info+= "\n" + mChangeGate.toString();
+        }
+        if (mRateController != null) {
+            info+= "\n" + mRateController.toString();
+        } else if (mAdaptiveRate) {
+            info+= "\n" + getResources().getString(R.string.adaptive_rate);
+        }
+        if (mTimingLog != null) {
+            info+= "\n" + mTimingLog.toString();
+        }
+        if (mShowStats && _imageSaver != null) {
+            info+= "\n" + _imageSaver.getMetrics().snapshot().toSummary();
+            info+= "\n" + sThumbnailCache;
+        }
+        if (mShowStats && mPipeline != null) {
+            info+= "\n" + mLumaStats + "\n" + mPipeline;
+        }
+        return info;
+    }
+
+    protected String getSaveModeName() {
+        switch (mSaveMode) {
+        case SAVE_MODE_FRAME_LOG:
+            return getResources().getString(R.string.save_mode_frame_log);
+        case SAVE_MODE_RAW:
+            return getResources().getString(R.string.save_mode_raw);
+        default:
+            return getResources().getString(R.string.save_mode_files);
+        }
     }
 
     protected static int getRotationDegrees(Context ctx) {
@@ -261,16 +805,16 @@ public class CameraExample extends Activity implements Camera.PreviewCallback {
     }
 
 
-    String[] sizesToLabels(List<Size> sizes) {
+    String[] sizesToLabels(List<PreviewSize> sizes) {
         final String[] labels= new String[sizes.size()];
         for (int idx= 0; idx < sizes.size(); idx++) {
-            Size size= sizes.get(idx);
+            PreviewSize size= sizes.get(idx);
             labels[idx]= sizeToString(size);
         }
         return labels;
     }
 
-    protected static String sizeToString(Size size) {
+    protected static String sizeToString(PreviewSize size) {
         String ratio= String.format("%.2f", size.width / (float)size.height);
         return Integer.toString(size.width) + "x" + Integer.toString(size.height) + " (" + ratio + ") ";
     }
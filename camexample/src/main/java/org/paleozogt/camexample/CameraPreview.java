@@ -25,12 +25,28 @@ class CameraPreview extends ViewGroup implements SurfaceHolder.Callback {
 
     SurfaceView mSurfaceView;
     SurfaceHolder mHolder;
-    Camera.Size mPreviewSize;
-    List<Camera.Size> mSupportedPreviewSizes;
+    PreviewSize mPreviewSize;
+    CameraCapabilities mCapabilities;
     Camera mCamera;
+    Camera.Parameters mParameters;
+    PreviewListener mPreviewListener;
+    boolean mSurfaceReady;
+    boolean mPreviewRunning;
+    // the size the running preview was started with
+    PreviewSize mStartedSize;
+
+    public interface PreviewListener {
+        void onPreviewStarted(Camera camera, Camera.Parameters parameters);
+    }
+
+    public void setPreviewListener(PreviewListener listener) { mPreviewListener= listener; }
 
-    public List<Camera.Size> getSupportedCameraSizes() { return mSupportedPreviewSizes; }
-    public Camera.Size getPreviewSize() { return mPreviewSize; }
+    public List<PreviewSize> getSupportedCameraSizes() {
+        return mCapabilities != null ? mCapabilities.getPreviewSizes() : null;
+    }
+    public PreviewSize getPreviewSize() { return mPreviewSize; }
+    public CameraCapabilities getCapabilities() { return mCapabilities; }
+    public Camera.Parameters getParameters() { return mParameters; }
 
     public CameraPreview(Context context, AttributeSet attribs) {
         super(context, attribs);
@@ -39,35 +55,63 @@ class CameraPreview extends ViewGroup implements SurfaceHolder.Callback {
         setupSurface();
     }
 
+    /**
+     * Detaches the camera, or attaches one with its own parameters and capabilities.
+     */
     public void setCamera(Camera camera) {
-        setCamera(camera, -1, -1);
+        setCamera(camera, camera != null ? camera.getParameters() : null, null, -1, -1);
     }
 
-    public void setCamera(Camera camera, int previewWidth, int previewHeight) {
+    /**
+     * @param parameters the camera's current parameters, which the preview keeps and reuses
+     * rather than fetching them again
+     * @param capabilities the camera's capabilities, from parameters if null
+     */
+    public void setCamera(Camera camera, Camera.Parameters parameters, CameraCapabilities capabilities,
+                          int previewWidth, int previewHeight) {
         mCamera = camera;
+        mParameters = parameters;
+        mPreviewRunning= false;
         if (mCamera != null) {
-            mSupportedPreviewSizes = mCamera.getParameters().getSupportedPreviewSizes();
-            for (Camera.Size size : mSupportedPreviewSizes) {
-                if (size.width == previewWidth && size.height == previewHeight) {
-                    mPreviewSize= size;
-                }
+            mCapabilities = capabilities != null ? capabilities : CameraCapabilityCache.fromParameters(-1, parameters);
+            mPreviewSize= null;
+            if (!setPreviewSize(previewWidth, previewHeight) && getMeasuredWidth() > 0) {
+                // already laid out, so onMeasure() won't get another chance to choose
+                mPreviewSize= chooseOptimalPreviewSize(getMeasuredWidth(), getMeasuredHeight());
             }
             requestLayout();
         }
     }
 
-    public void switchCamera(Camera camera) {
-       setCamera(camera);
-       try {
-           camera.setPreviewDisplay(mHolder);
-       } catch (IOException exception) {
-           Log.e(TAG, "IOException caused by setPreviewDisplay()", exception);
-       }
-       Camera.Parameters parameters = camera.getParameters();
-       parameters.setPreviewSize(mPreviewSize.width, mPreviewSize.height);
-       requestLayout();
-
-       camera.setParameters(parameters);
+    /**
+     * Picks one of the camera's supported sizes for the next startPreview().
+     *
+     * @return false if the camera doesn't support that size
+     */
+    public boolean setPreviewSize(int previewWidth, int previewHeight) {
+        if (previewWidth <= 0 || previewHeight <= 0) return false;
+        PreviewSize size= mCapabilities.findSize(previewWidth, previewHeight);
+        if (size == null) return false;
+        mPreviewSize= size;
+        requestLayout();
+        return true;
+    }
+
+    /**
+     * Attaches a newly opened camera. If the surface already exists the camera gets it and the
+     * preview starts right away, since no surface callback is coming to do it.
+     */
+    public void attachCamera(Camera camera, Camera.Parameters parameters, CameraCapabilities capabilities,
+                             int previewWidth, int previewHeight) {
+        setCamera(camera, parameters, capabilities, previewWidth, previewHeight);
+        if (mSurfaceReady) {
+            try {
+                camera.setPreviewDisplay(mHolder);
+            } catch (IOException exception) {
+                Log.e(TAG, "IOException caused by setPreviewDisplay()", exception);
+            }
+            startPreview();
+        }
     }
 
     protected void setupSurface() {
@@ -90,20 +134,24 @@ class CameraPreview extends ViewGroup implements SurfaceHolder.Callback {
         int height = resolveSize(getSuggestedMinimumHeight(), heightMeasureSpec);
         setMeasuredDimension(width, height);
 
-        if (mSupportedPreviewSizes != null && mPreviewSize == null) {
-            if (getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT) {
-                int t= width;
-                width= height;
-                height= t;
-            }
+        if (mCapabilities != null && mPreviewSize == null) {
+            mPreviewSize = chooseOptimalPreviewSize(width, height);
+        }
+    }
 
-            mPreviewSize = getOptimalPreviewSize(mSupportedPreviewSizes, width, height);
+    protected PreviewSize chooseOptimalPreviewSize(int width, int height) {
+        if (getResources().getConfiguration().orientation == Configuration.ORIENTATION_PORTRAIT) {
+            int t= width;
+            width= height;
+            height= t;
         }
+        return PreviewSizeSelector.closestTo(mCapabilities, width, height);
     }
 
     @Override
     protected void onLayout(boolean changed, int l, int t, int r, int b) {
-        if (changed && getChildCount() > 0) {
+        // the preview size can change without our own bounds changing, so always place the child
+        if (getChildCount() > 0) {
             final View child = getChildAt(0);
 
             final int width = r - l;
@@ -137,6 +185,7 @@ class CameraPreview extends ViewGroup implements SurfaceHolder.Callback {
     public void surfaceCreated(SurfaceHolder holder) {
         // The Surface has been created, acquire the camera and tell it where
         // to draw.
+        mSurfaceReady= true;
         try {
             if (mCamera != null) {
                 mCamera.setPreviewDisplay(holder);
@@ -148,58 +197,54 @@ class CameraPreview extends ViewGroup implements SurfaceHolder.Callback {
 
     public void surfaceDestroyed(SurfaceHolder holder) {
         // Surface will be destroyed when we return, so stop the preview.
+        mSurfaceReady= false;
         if (mCamera != null) {
             mCamera.stopPreview();
         }
+        mPreviewRunning= false;
     }
 
     public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
-        // Now that the size is known, set up the camera parameters and begin
-        // the preview.
-        Camera.Parameters parameters = mCamera.getParameters();
+        // a running preview scales to the new surface; only a new preview size needs a restart,
+        // and whoever changed it has usually restarted already
+        if (mPreviewRunning && mStartedSize == mPreviewSize) {
+            return;
+        }
+        startPreview();
+    }
+
+    /**
+     * Applies the camera parameters with the chosen preview size and (re)starts the preview.
+     * Until the surface exists this does nothing, and surfaceChanged() starts it instead.
+     */
+    public void startPreview() {
+        if (mCamera == null || !mSurfaceReady || mPreviewSize == null) {
+            return;
+        }
+        if (mPreviewRunning) {
+            mCamera.stopPreview();
+            mPreviewRunning= false;
+        }
+
+        Camera.Parameters parameters = mParameters;
         Log.d(TAG, "setting camera preview size= " + mPreviewSize.width + "x" + mPreviewSize.height);
         parameters.setPreviewSize(mPreviewSize.width, mPreviewSize.height);
         requestLayout();
 
         mCamera.setParameters(parameters);
         mCamera.startPreview();
+        mPreviewRunning= true;
+        mStartedSize= mPreviewSize;
 
+        // read back once, since the driver may not honor what we asked for
         parameters= mCamera.getParameters();
+        mParameters= parameters;
         Camera.Size roundTrippedPreviewSize= parameters.getPreviewSize();
         Log.d(TAG, "camera preview size= " + roundTrippedPreviewSize.width + "x" + roundTrippedPreviewSize.height);
-    }
-
-    private Camera.Size getOptimalPreviewSize(List<Camera.Size> sizes, int w, int h) {
-        final double ASPECT_TOLERANCE = 0.1;
-        double targetRatio = (double) w / h;
-        if (sizes == null) return null;
 
-        Camera.Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
-
-        int targetHeight = h;
-
-        // Try to find an size match aspect ratio and size
-        for (Camera.Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
-            }
-        }
-
-        // Cannot find the one match the aspect ratio, ignore the requirement
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Camera.Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
-            }
+        if (mPreviewListener != null) {
+            mPreviewListener.onPreviewStarted(mCamera, parameters);
         }
-        return optimalSize;
     }
 
 
@@ -0,0 +1,249 @@
+package org.paleozogt.camexample;
+
+import android.hardware.Camera;
+import android.hardware.Camera.CameraInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Owns the open camera and applies setting changes to it while it runs. Preview size and
+ * recording hint changes just stop the preview, set the parameters and start it again; switching
+ * cameras is the only change that needs a release and reopen. Either way the time from the change
+ * until the first frame of the new preview is measured.
+ *
+ * Opening and releasing a camera can each take hundreds of milliseconds, so both happen on a
+ * camera thread and the listener hears about the new camera on the main thread once it's ready.
+ * That thread has no Looper on purpose: the camera then delivers preview frames to the main
+ * looper, where the buffer bookkeeping lives, rather than to the thread that opened it.
+ */
+class CameraSession {
+    private final String TAG = this.getClass().getSimpleName();
+
+    public interface Listener {
+        /**
+         * Called on the main thread once a camera from open() or switchCamera() is attached to
+         * the preview.
+         */
+        void onCameraOpened(CameraSession session);
+        void onCameraOpenFailed(int cameraId, RuntimeException error);
+    }
+
+    protected final CameraPreview _preview;
+    protected final Listener _listener;
+    protected final Handler _mainHandler= new Handler(Looper.getMainLooper());
+    protected final ExecutorService _cameraThread= Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "CameraThread");
+        }
+    });
+
+    protected Camera _camera;
+    protected CameraInfo _cameraInfo;
+    protected int _cameraId= -1;
+    // bumped by every open and close, so a camera that finishes opening after it's no longer
+    // wanted is released instead of attached
+    protected int _generation;
+
+    // the change in flight, until its first frame arrives
+    protected String _pendingChange;
+    protected CaptureMetrics.Stage _pendingStage;
+    protected long _changeStart;
+    protected String _lastChange;
+
+    CameraSession(CameraPreview preview, Listener listener) {
+        _preview= preview;
+        _listener= listener;
+    }
+
+    public Camera getCamera() { return _camera; }
+    public CameraInfo getCameraInfo() { return _cameraInfo; }
+    public int getCameraId() { return _cameraId; }
+
+    public boolean isFrontFacing() {
+        return _cameraInfo != null && _cameraInfo.facing == CameraInfo.CAMERA_FACING_FRONT;
+    }
+
+    /**
+     * @return how long the last change took, or null if nothing has changed yet
+     */
+    public String getLastChange() { return _lastChange; }
+
+    /**
+     * Opens the camera on the camera thread. The preview starts, and the listener hears about
+     * it, once it's open.
+     *
+     * @param displayRotation the display's rotation in degrees
+     */
+    public void open(int cameraId, int displayRotation, boolean recordingHint, int previewWidth, int previewHeight) {
+        beginChange("open", CaptureMetrics.Stage.FIRST_FRAME);
+        openAsync(cameraId, displayRotation, recordingHint, previewWidth, previewHeight);
+    }
+
+    /**
+     * Detaches the camera from the preview and releases it on the camera thread. A camera still
+     * being opened is released as soon as it is.
+     */
+    public void close() {
+        _generation++;
+        _pendingChange= null;
+        if (_camera == null) return;
+
+        final Camera camera= _camera;
+        _camera= null;
+        camera.setPreviewCallbackWithBuffer(null);
+        _preview.setCamera(null);
+        _cameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                camera.release();
+            }
+        });
+    }
+
+    /**
+     * Closes the session for good, after releasing any camera.
+     */
+    public void shutdown() {
+        close();
+        _cameraThread.shutdown();
+    }
+
+    public void setRecordingHint(boolean recordingHint) {
+        if (_camera == null) return;
+        beginChange("recording hint", CaptureMetrics.Stage.RECONFIGURE);
+        _preview.getParameters().setRecordingHint(recordingHint);
+        restartPreview();
+    }
+
+    /**
+     * @return false if the camera doesn't support that size, in which case nothing changes
+     */
+    public boolean setPreviewSize(int previewWidth, int previewHeight) {
+        if (_camera == null) return false;
+        beginChange("preview size", CaptureMetrics.Stage.RECONFIGURE);
+        if (!_preview.setPreviewSize(previewWidth, previewHeight)) {
+            _pendingChange= null;
+            return false;
+        }
+        restartPreview();
+        return true;
+    }
+
+    /**
+     * Closes the current camera and opens another in its place, reusing the existing surface.
+     * The preview keeps the requested size if the new camera supports it.
+     */
+    public void switchCamera(int cameraId, int displayRotation, boolean recordingHint, int previewWidth, int previewHeight) {
+        close();
+        beginChange("camera switch", CaptureMetrics.Stage.RECONFIGURE);
+        openAsync(cameraId, displayRotation, recordingHint, previewWidth, previewHeight);
+    }
+
+    /**
+     * Call for every preview frame. Completes the timing of a pending change.
+     *
+     * @return true if this frame completed a change
+     */
+    public boolean onPreviewFrame(long nowNanos, CaptureMetrics metrics) {
+        if (_pendingChange == null) return false;
+
+        long elapsed= nowNanos - _changeStart;
+        metrics.record(_pendingStage, elapsed);
+        _lastChange= String.format(Locale.US, "%s: first frame in %.0fms", _pendingChange, elapsed / 1e6);
+        Log.d(TAG, _lastChange);
+        _pendingChange= null;
+        return true;
+    }
+
+    protected void beginChange(String change, CaptureMetrics.Stage stage) {
+        _pendingChange= change;
+        _pendingStage= stage;
+        _changeStart= System.nanoTime();
+    }
+
+    protected void restartPreview() {
+        // clears the buffers queued for the old preview; onPreviewStarted() supplies new ones
+        _camera.setPreviewCallbackWithBuffer(null);
+        _preview.startPreview();
+    }
+
+    protected void openAsync(final int cameraId, final int displayRotation, final boolean recordingHint,
+                             final int previewWidth, final int previewHeight) {
+        final int generation= ++_generation;
+        _cameraThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                final CameraInfo cameraInfo= new CameraInfo();
+                Camera opened= null;
+                final Camera.Parameters parameters;
+                final CameraCapabilities capabilities;
+                try {
+                    Camera.getCameraInfo(cameraId, cameraInfo);
+                    opened= Camera.open(cameraId);
+                    // setParameters() fails on some devices; don't leave the camera open when it does
+                    parameters= configureCamera(opened, cameraInfo, displayRotation, recordingHint);
+                    capabilities= CameraCapabilityCache.get(cameraId, parameters);
+                } catch (final RuntimeException e) {
+                    Log.e(TAG, "can't open camera " + cameraId, e);
+                    if (opened != null) {
+                        opened.release();
+                    }
+                    _mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if (generation != _generation) return;
+                            _pendingChange= null;
+                            _listener.onCameraOpenFailed(cameraId, e);
+                        }
+                    });
+                    return;
+                }
+                final Camera camera= opened;
+
+                _mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != _generation) {
+                            // closed (or reopened) while we were opening
+                            _cameraThread.execute(new Runnable() {
+                                @Override
+                                public void run() {
+                                    camera.release();
+                                }
+                            });
+                            return;
+                        }
+                        _camera= camera;
+                        _cameraInfo= cameraInfo;
+                        _cameraId= cameraId;
+                        _preview.attachCamera(camera, parameters, capabilities, previewWidth, previewHeight);
+                        _listener.onCameraOpened(CameraSession.this);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Runs on the camera thread; the parameter round trip is as slow as the open.
+     */
+    protected Camera.Parameters configureCamera(Camera camera, CameraInfo cameraInfo, int displayRotation, boolean recordingHint) {
+        int displayOrientation = (cameraInfo.orientation + displayRotation) % 360;
+        if (cameraInfo.facing == CameraInfo.CAMERA_FACING_FRONT)
+            displayOrientation = (360 - displayOrientation) % 360; // compensate the mirror
+
+        camera.setDisplayOrientation(displayOrientation);
+
+        Camera.Parameters parameters= camera.getParameters();
+        parameters.setRecordingHint(recordingHint);
+        camera.setParameters(parameters);
+        return parameters;
+    }
+}
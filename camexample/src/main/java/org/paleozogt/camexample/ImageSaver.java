@@ -1,93 +1,517 @@
 package org.paleozogt.camexample;
 
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.Matrix;
+import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
-import android.hardware.Camera;
-import android.hardware.Camera.PreviewCallback;
-import android.hardware.Camera.Size;
-import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
-public class ImageSaver {
+/**
+ * The end of the frame pipeline: rotates, encodes and writes the frames it's given on a bounded
+ * queue of save workers.
+ */
+public class ImageSaver implements FramePipeline.TerminalStage {
     protected static final String TAG = ImageSaver.class.getSimpleName();
 
     protected int _frameId= 0;
-    protected String _fileNameFormat;
-    protected int _orientation;
+    protected final FrameNamer _namer;
+    protected final FrameSink _sink;
+    protected RawFrameWriter _rawWriter;
+    // swapped while frames are being saved, so each frame reads it once
+    protected volatile FrameTimingLog _timingLog;
+    protected volatile SaveProfile _profile= SaveProfile.scaled("full", 1, 100);
+    protected ExecutorService _stripeExecutor;
+    protected int _stripeCount;
+    protected final CaptureMetrics _metrics= new CaptureMetrics();
+    protected ThumbnailCache _thumbnailCache;
+    protected int _thumbnailSize;
+    protected Listener _listener;
+    protected final BoundedWorkQueue _saveQueue;
+    protected final Handler _mainHandler= new Handler(Looper.getMainLooper());
+    // flushes, closes and the shutdown run here one at a time, so none of them can overtake
+    // another and touch a sink that's already closed
+    protected final ExecutorService _diskExecutor= Executors.newSingleThreadExecutor();
 
-    public ImageSaver(String fileNameFormat, int orientation) {
-        _fileNameFormat= fileNameFormat;
-        _orientation= orientation;
+    /**
+     * Scratch space for one save worker: the scaled and rotated frames and the encoded output.
+     * Each worker thread gets its own, so concurrent saves never share a buffer, and once they've
+     * grown to the frame size nothing more is allocated per frame.
+     */
+    static class EncodeBuffers {
+        byte[] scaled= new byte[0];
+        byte[] rotated= new byte[0];
+        byte[] thumbnail= new byte[0];
+        final int[] thumbnailCrop= new int[4];
+        final DirectByteOutputStream output= new DirectByteOutputStream(64 * 1024);
+        final DirectByteOutputStream thumbnailOutput= new DirectByteOutputStream(16 * 1024);
+        StripedJpegEncoder stripedEncoder;
+
+        byte[] scaled(int size) {
+            if (scaled.length < size) {
+                scaled= new byte[size];
+            }
+            return scaled;
+        }
+
+        byte[] rotated(int size) {
+            if (rotated.length < size) {
+                rotated= new byte[size];
+            }
+            return rotated;
+        }
+
+        byte[] thumbnail(int size) {
+            if (thumbnail.length < size) {
+                thumbnail= new byte[size];
+            }
+            return thumbnail;
+        }
+    }
+
+    protected final ThreadLocal<EncodeBuffers> _encodeBuffers= new ThreadLocal<EncodeBuffers>() {
+        @Override
+        protected EncodeBuffers initialValue() {
+            return new EncodeBuffers();
+        }
+    };
+
+    // by default a couple of encoders, and single shots that arrive while they're busy are dropped
+    static final int DEFAULT_SAVE_WORKERS= 2;
+    static final int DEFAULT_SAVE_QUEUE_CAPACITY= 4;
+
+    static final int THUMBNAIL_QUALITY= 75;
+
+    // frames this big go through the striped encoder when it's enabled; below it, splitting the
+    // work costs more than it saves
+    static final int STRIPED_ENCODE_MIN_PIXELS= 1280 * 720;
+
+    /**
+     * Notified on the UI thread once a frame has been written, failed to, or was dropped because
+     * the save queue was full. Either way the saver has already released the frame.
+     */
+    public interface Listener {
+        void onImageSaved(String fileName, Exception error);
+        void onImageDropped(String fileName);
+    }
+
+    /**
+     * @param namer names each frame in the sink, given its number in this saver's session
+     */
+    public ImageSaver(FrameNamer namer, FrameSink sink) {
+        this(namer, sink, new BoundedWorkQueue(TAG, DEFAULT_SAVE_WORKERS,
+                DEFAULT_SAVE_QUEUE_CAPACITY, BoundedWorkQueue.OverflowPolicy.DROP_NEWEST));
+    }
+
+    public ImageSaver(FrameNamer namer, FrameSink sink, BoundedWorkQueue saveQueue) {
+        _namer= namer;
+        _sink= sink;
+        _saveQueue= saveQueue;
+    }
+
+    public void setListener(Listener listener) {
+        _listener= listener;
+    }
+
+    public BoundedWorkQueue getSaveQueue() {
+        return _saveQueue;
+    }
+
+    public FrameNamer getNamer() {
+        return _namer;
     }
 
-    protected void saveImage(final byte[] data, final Camera camera) {
-        final String fileName= String.format(_fileNameFormat, _frameId++);
-        Log.d(TAG, "saving " + fileName);
+    public CaptureMetrics getMetrics() {
+        return _metrics;
+    }
+
+    /**
+     * @param quality JPEG quality, 1 to 100
+     */
+    public void setJpegQuality(int quality) {
+        _profile= _profile.withQuality(quality);
+    }
+
+    /**
+     * Sets how frames saved from now on are cropped, scaled and stored. Frames already queued
+     * keep the profile they were queued with. Only NV21 and YV12 frames can be cropped or scaled.
+     */
+    public void setSaveProfile(SaveProfile profile) {
+        _profile= profile;
+    }
+
+    public SaveProfile getSaveProfile() {
+        return _profile;
+    }
+
+    /**
+     * Encodes large frames with StripedJpegEncoder, spreading each one over threads cores instead
+     * of YuvImage's single one. Must be called before the first frame is saved.
+     */
+    public void enableStripedEncoding(int threads) {
+        _stripeCount= threads;
+        _stripeExecutor= Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Also saves a thumbnail of every JPEG or NV21 frame into cache, scaled down from the upright
+     * frame that's being saved anyway, so a gallery never has to decode the full frame. Must be
+     * called before the first frame is saved.
+     *
+     * @param size the longest side a thumbnail may have, in pixels
+     */
+    public void setThumbnailCache(ThumbnailCache cache, int size) {
+        _thumbnailCache= cache;
+        _thumbnailSize= size;
+    }
 
-        new AsyncTask<Void, Void, Exception>() {
+    /**
+     * Switches to recording unencoded frames into a raw container instead of writing JPEGs to
+     * the sink. The saver closes the writer on shutdown.
+     */
+    public void setRawWriter(RawFrameWriter rawWriter) {
+        _rawWriter= rawWriter;
+    }
+
+    /**
+     * Logs the timings and outcome of every frame accepted from now on to log, dropped frames
+     * included, or stops logging with null. The saver closes the log on shutdown, or as soon as
+     * it's replaced; frames still in flight then may miss it, and count as lost.
+     */
+    public void setTimingLog(FrameTimingLog timingLog) {
+        final FrameTimingLog replaced= _timingLog;
+        _timingLog= timingLog;
+        if (replaced != null && replaced != timingLog) {
+            // closing waits for the log's writer thread to catch up
+            Runnable close= new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        replaced.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, e.toString());
+                    }
+                }
+            };
+            // swapped after shutdown, when only the log current then gets closed
+            if (!runOnDiskThread(close)) {
+                new Thread(close, TAG + "-closeTimingLog").start();
+            }
+        }
+    }
+
+    /**
+     * Makes the frames written so far durable, on the saver's disk thread so the caller (usually
+     * the UI) doesn't wait for the disk. Frames still queued are covered by a later flush, or by
+     * shutdown(); once that's been called this does nothing.
+     */
+    public void flush() {
+        // dropped after shutdown(), whose close flushes everything anyway
+        runOnDiskThread(new Runnable() {
             @Override
-            protected Exception doInBackground(Void... params) {
-                OutputStream imageStream= null;
+            public void run() {
                 try {
-                    imageStream= new FileOutputStream(fileName);
+                    _sink.flush();
+                    if (_rawWriter != null) {
+                        _rawWriter.flush();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, e.toString());
+                }
+            }
+        });
+    }
 
-                    Bitmap image= bitmapFromImage(data, camera);
-                    Bitmap correctedImage= correctForRotation(image);
-                    correctedImage.compress(Bitmap.CompressFormat.JPEG, 100, imageStream);
+    /**
+     * Stops accepting frames. Saves already queued still finish, and the sink is flushed and
+     * closed once they have, after any flush asked for before this.
+     */
+    public void shutdown() {
+        _saveQueue.shutdown();
+        runOnDiskThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    _saveQueue.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                    if (_stripeExecutor != null) {
+                        _stripeExecutor.shutdown();
+                    }
+                    _sink.close();
+                    if (_rawWriter != null) {
+                        _rawWriter.close();
+                    }
+                    FrameTimingLog timingLog= _timingLog;
+                    if (timingLog != null) {
+                        timingLog.close();
+                    }
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "interrupted waiting for saves to finish");
                 } catch (IOException e) {
                     Log.e(TAG, e.toString());
-                    return e;
+                }
+            }
+        });
+        _diskExecutor.shutdown();
+    }
+
+    /**
+     * Queues work on the disk thread.
+     *
+     * @return false if the saver has already been shut down, and the work was dropped
+     */
+    protected boolean runOnDiskThread(Runnable work) {
+        try {
+            _diskExecutor.execute(work);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Queues a frame to be saved, taking over the caller's reference to it, which is released on
+     * the save worker as soon as the frame has been written or dropped. With a BLOCK overflow
+     * policy this waits for room in the queue, which pushes back on the preview callback (and so
+     * on the camera) rather than on memory.
+     */
+    @Override
+    public void accept(final PreviewFrame frame) {
+        final int frameId= _frameId++;
+        final SaveProfile profile= _profile;
+        final String fileName= _namer.name(frameId, profile.format.extension);
+        final long timestampNs= frame.getTimestampNs();
+        final FrameTimingLog timingLog= _timingLog;
+        final FrameTimingLog.Record timing= timingLog != null
+                ? timingLog.newRecord(frameId, fileName, timestampNs, frame.getConfig()) : null;
+        // the message costs a string per frame, so only build it when it'll be seen
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "saving " + fileName);
+        }
+
+        _saveQueue.submit(new BoundedWorkQueue.Task() {
+            @Override
+            public void run() {
+                long dequeueNs= System.nanoTime();
+                _metrics.record(CaptureMetrics.Stage.QUEUE_WAIT, dequeueNs - timestampNs);
+                final Exception result;
+                try {
+                    result= _rawWriter != null
+                            ? writeRaw(frame.getData(), frame.getConfig(), frameId, timestampNs, timing)
+                            : writeImage(frame.getData(), frame.getConfig(), profile, fileName, timing);
                 } finally {
-                    try {
-                        imageStream.close();
-                    } catch (Exception e) {
-                        Log.e(TAG, e.toString());
-                        return e;
-                    }
+                    frame.release();
+                }
+                _metrics.record(CaptureMetrics.Stage.END_TO_END, System.nanoTime() - timestampNs);
+                if (timing != null) {
+                    timing.dequeueNs= dequeueNs;
+                    timing.status= result == null ? FrameTimingLog.Status.SAVED : FrameTimingLog.Status.FAILED;
+                    timingLog.append(timing);
                 }
-                return null;
+                _mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (Log.isLoggable(TAG, Log.DEBUG)) {
+                            Log.d(TAG, "processed " + fileName);
+                        }
+                        if (_listener != null) {
+                            _listener.onImageSaved(fileName, result);
+                        }
+                    }
+                });
             }
 
             @Override
-            protected void onPostExecute(Exception result) {
-                Log.d(TAG, "processed " + fileName);
+            public void discard() {
+                _metrics.frameDropped();
+                frame.release();
+                if (timing != null) {
+                    timing.status= FrameTimingLog.Status.DROPPED;
+                    timingLog.append(timing);
+                }
+                _mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (Log.isLoggable(TAG, Log.DEBUG)) {
+                            Log.d(TAG, "dropped " + fileName);
+                        }
+                        if (_listener != null) {
+                            _listener.onImageDropped(fileName);
+                        }
+                    }
+                });
             }
+        });
+        _metrics.queueDepth(_saveQueue.getQueueDepth());
+    }
 
-        }.execute();
+    /**
+     * @param timing gets the encode and write times, if the frame's being logged
+     */
+    protected Exception writeImage(byte[] data, PreviewConfig config, SaveProfile profile, String fileName,
+                                   FrameTimingLog.Record timing) {
+        EncodeBuffers buffers= _encodeBuffers.get();
+        try {
+            YuvImage yuv= yuvFromImage(data, config, profile, buffers);
+            DirectByteOutputStream output= buffers.output;
+            output.reset();
+            long encodeStart= System.nanoTime();
+            if (profile.format == SaveProfile.Format.NV21 && yuv.getYuvFormat() == ImageFormat.NV21) {
+                output.write(yuv.getYuvData(), 0, YuvRotation.nv21Size(yuv.getWidth(), yuv.getHeight()));
+            } else if (useStripedEncoder(yuv)) {
+                if (buffers.stripedEncoder == null) {
+                    buffers.stripedEncoder= new StripedJpegEncoder(_stripeExecutor, _stripeCount);
+                }
+                buffers.stripedEncoder.setQuality(profile.quality);
+                buffers.stripedEncoder.encode(yuv.getYuvData(), yuv.getWidth(), yuv.getHeight(), output);
+            } else {
+                writeJpeg(yuv, profile.quality, output);
+            }
+            long writeStart= System.nanoTime();
+            _metrics.record(CaptureMetrics.Stage.ENCODE, writeStart - encodeStart);
+
+            // one write from the direct buffer instead of the encoder's many small chunks
+            _sink.write(fileName, output.contents());
+            long writeEnd= System.nanoTime();
+            _metrics.record(CaptureMetrics.Stage.WRITE, writeEnd - writeStart);
+            _metrics.frameSaved(output.size());
+            if (timing != null) {
+                timing.encodeStartNs= encodeStart;
+                timing.encodeEndNs= writeStart;
+                timing.writeEndNs= writeEnd;
+                timing.bytes= output.size();
+            }
+
+            if (_thumbnailCache != null && yuv.getYuvFormat() == ImageFormat.NV21) {
+                writeThumbnail(yuv, fileName, buffers);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            return e;
+        }
+        return null;
     }
 
-    Bitmap correctForRotation(Bitmap bmp) {
-        Matrix rotationMatrix= new Matrix();
-        rotationMatrix.postRotate(_orientation);
-        return Bitmap.createBitmap(bmp, 0, 0, bmp.getWidth(), bmp.getHeight(), rotationMatrix, true);
+    /**
+     * Box-filters the upright frame down to thumbnail size and caches it as a JPEG. A thumbnail
+     * that can't be cached is only logged; the frame itself has been saved.
+     */
+    protected void writeThumbnail(YuvImage yuv, String fileName, EncodeBuffers buffers) {
+        long thumbnailStart= System.nanoTime();
+        int width= yuv.getWidth();
+        int height= yuv.getHeight();
+        int downscale= Math.max(1, (Math.max(width, height) + _thumbnailSize - 1) / _thumbnailSize);
+        // the whole frame, trimmed to what downscales to even dimensions (as SaveProfile would)
+        int align= 2 * downscale;
+        int[] crop= buffers.thumbnailCrop;
+        crop[0]= 0;
+        crop[1]= 0;
+        crop[2]= width / align * align;
+        crop[3]= height / align * align;
+        byte[] thumbnail= buffers.thumbnail(YuvScaler.scaledSize(crop[2], crop[3], downscale));
+        YuvScaler.cropAndScaleNV21(yuv.getYuvData(), width, height, crop, downscale, thumbnail);
+
+        DirectByteOutputStream output= buffers.thumbnailOutput;
+        output.reset();
+        writeJpeg(new YuvImage(thumbnail, ImageFormat.NV21, crop[2] / downscale, crop[3] / downscale, null),
+                THUMBNAIL_QUALITY, output);
+        try {
+            _thumbnailCache.put(fileName, output.contents());
+        } catch (IOException e) {
+            Log.w(TAG, "can't cache thumbnail of " + fileName + ": " + e);
+        }
+        _metrics.record(CaptureMetrics.Stage.THUMBNAIL, System.nanoTime() - thumbnailStart);
     }
 
-    protected ByteArrayOutputStream _jpgStream= new ByteArrayOutputStream();
+    protected Exception writeRaw(byte[] data, PreviewConfig config, int frameId, long timestampNs,
+                                 FrameTimingLog.Record timing) {
+        try {
+            long writeStart= System.nanoTime();
+            _rawWriter.write(frameId, timestampNs, config, data, data.length);
+            long writeEnd= System.nanoTime();
+            _metrics.record(CaptureMetrics.Stage.WRITE, writeEnd - writeStart);
+            _metrics.frameSaved(data.length);
+            if (timing != null) {
+                timing.writeEndNs= writeEnd;
+                timing.bytes= data.length;
+            }
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            return e;
+        }
+        return null;
+    }
 
-    Bitmap bitmapFromImage(byte[] data, Camera camera) {
-        YuvImage yuv= yuvFromImage(data, camera);
+    boolean useStripedEncoder(YuvImage yuv) {
+        return _stripeExecutor != null
+                && yuv.getYuvFormat() == ImageFormat.NV21
+                && yuv.getWidth() * yuv.getHeight() >= STRIPED_ENCODE_MIN_PIXELS;
+    }
+
+    void writeJpeg(YuvImage yuv, int quality, OutputStream stream) {
         Rect imageRect= new Rect(0, 0, yuv.getWidth(), yuv.getHeight());
+        yuv.compressToJpeg(imageRect, quality, stream);
+    }
 
-        _jpgStream.reset();
-        yuv.compressToJpeg(imageRect, 100, _jpgStream);
+    /**
+     * Wraps the preview data as an upright NV21 image. The planes are rotated here rather than
+     * rotating a decoded Bitmap, so each frame costs a single JPEG encode. Front camera frames
+     * are mirrored too, so they're saved the way the preview showed them.
+     *
+     * The profile's crop and downscale are applied first, so rotation only touches the pixels
+     * that are kept.
+     */
+    YuvImage yuvFromImage(byte[] data, PreviewConfig config, SaveProfile profile, EncodeBuffers buffers) {
+        int format= config.format;
+        int width= config.width;
+        int height= config.height;
+        int orientation= config.orientation;
 
-        byte[] jpgBytes= _jpgStream.toByteArray();
-        return BitmapFactory.decodeByteArray(jpgBytes, 0, jpgBytes.length);
-    }
+        if (format != ImageFormat.NV21 && format != ImageFormat.YV12) {
+            return new YuvImage(data, format, width, height, null);
+        }
+
+        long scaleStart= System.nanoTime();
+        long rotateStart= scaleStart;
+        byte[] rotated;
+        if (!profile.isFullFrame()) {
+            int[] crop= profile.sensorCrop(width, height, orientation, config.frontFacing);
+            byte[] scaled= buffers.scaled(YuvScaler.scaledSize(crop[2], crop[3], profile.downscale));
+            if (format == ImageFormat.YV12) {
+                YuvScaler.cropAndScaleYV12ToNV21(data, width, height, crop, profile.downscale, scaled);
+            } else {
+                YuvScaler.cropAndScaleNV21(data, width, height, crop, profile.downscale, scaled);
+            }
+            width= crop[2] / profile.downscale;
+            height= crop[3] / profile.downscale;
+            rotateStart= System.nanoTime();
+            _metrics.record(CaptureMetrics.Stage.SCALE, rotateStart - scaleStart);
+
+            // the scaled frame is our own scratch, so half turns can happen in place
+            rotated= YuvRotation.transformNV21PingPong(scaled, buffers.rotated(YuvRotation.nv21Size(width, height)),
+                    width, height, orientation, config.frontFacing);
+        } else {
+            rotated= buffers.rotated(YuvRotation.nv21Size(width, height));
+            if (format == ImageFormat.YV12) {
+                YuvRotation.transformYV12ToNV21(data, rotated, width, height, orientation, config.frontFacing);
+            } else {
+                YuvRotation.transformNV21(data, rotated, width, height, orientation, config.frontFacing);
+            }
+        }
+        long wrapStart= System.nanoTime();
+        _metrics.record(CaptureMetrics.Stage.ROTATE, wrapStart - rotateStart);
 
-    YuvImage yuvFromImage(byte[] data, Camera camera) {
-        Camera.Parameters params= camera.getParameters();
-        Size imageSize= params.getPreviewSize();
-        int format= params.getPreviewFormat();
-        return new YuvImage(data, format, imageSize.width, imageSize.height, null);
+        YuvImage yuv= new YuvImage(rotated, ImageFormat.NV21,
+                YuvRotation.rotatedWidth(width, height, orientation),
+                YuvRotation.rotatedHeight(width, height, orientation),
+                null);
+        _metrics.record(CaptureMetrics.Stage.YUV_WRAP, System.nanoTime() - wrapStart);
+        return yuv;
     }
 }
@@ -0,0 +1,527 @@
+package org.paleozogt.camexample;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Post-processes everything a capture session saved: pulls the frames out of frame logs, turns
+ * raw frame containers into upright JPEGs, makes a thumbnail of every image and writes a
+ * manifest of the lot. Work is spread over a fork-join pool, and what's done is kept in a
+ * ProcessIndex in the output directory, so running it again only processes captures that are
+ * new or have changed since.
+ *
+ * Raw frames are cropped, scaled, rotated and encoded with the same code ImageSaver uses on the
+ * device, so they come out the way the phone would have saved them. JPEGs, loose or logged, have
+ * been through an encoder already and are left as they are; the manifest's passthrough column
+ * says which outputs those are.
+ *
+ * <pre>
+ *   CaptureBatchProcessor [--quality 1-100] [--thumbnail-size PX] [--threads N] capturesDir outputDir
+ * </pre>
+ */
+public class CaptureBatchProcessor {
+    // below this many items a task processes them itself rather than splitting further
+    static final int ITEMS_PER_TASK= 4;
+    static final String INDEX_NAME= "index.tsv";
+    static final String MANIFEST_NAME= "manifest.csv";
+    static final String THUMBNAIL_DIR= "thumbs";
+    static final int THUMBNAIL_QUALITY= 80;
+
+    protected final File _capturesDir;
+    protected final File _outputDir;
+    protected final ProcessIndex _index;
+    protected final int _quality;
+    protected final int _thumbnailSize;
+
+    protected final List<Item> _items= new ArrayList<Item>();
+    protected final Set<String> _keys= new HashSet<String>();
+    protected final List<Closeable> _containers= new ArrayList<Closeable>();
+    protected int _skippedCount;
+    protected final AtomicInteger _processedCount= new AtomicInteger();
+    protected final AtomicInteger _failedCount= new AtomicInteger();
+
+    /**
+     * Per-thread scratch, so a raw frame costs no allocations beyond its output file.
+     */
+    static class Buffers {
+        byte[] frame= new byte[0];
+        byte[] scaled= new byte[0];
+        byte[] rotated= new byte[0];
+        StripedJpegEncoder encoder= new StripedJpegEncoder(null, 1);
+        DirectByteOutputStream output= new DirectByteOutputStream(256 * 1024);
+
+        byte[] frame(int size) {
+            if (frame.length < size) frame= new byte[size];
+            return frame;
+        }
+
+        byte[] scaled(int size) {
+            if (scaled.length < size) scaled= new byte[size];
+            return scaled;
+        }
+
+        byte[] rotated(int size) {
+            if (rotated.length < size) rotated= new byte[size];
+            return rotated;
+        }
+    }
+
+    protected final ThreadLocal<Buffers> _buffers= new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    /**
+     * One unit of work: a loose JPEG, or one frame in a container. size and modified are the
+     * source file's, so replacing a container processes all of its frames again.
+     */
+    protected abstract class Item {
+        final String key;
+        final long size;
+        final long modified;
+
+        Item(String key, File source) {
+            this.key= key;
+            this.size= source.length();
+            this.modified= source.lastModified();
+        }
+
+        abstract ProcessIndex.Entry process() throws IOException;
+    }
+
+    /**
+     * @param quality JPEG quality for raw frames, from 1 to 100
+     * @param thumbnailSize the longest side of a thumbnail, in pixels
+     */
+    public CaptureBatchProcessor(File capturesDir, File outputDir, int quality, int thumbnailSize) throws IOException {
+        _capturesDir= capturesDir;
+        _outputDir= outputDir;
+        _quality= quality;
+        _thumbnailSize= thumbnailSize;
+        _index= new ProcessIndex(new File(outputDir, INDEX_NAME));
+    }
+
+    public int getItemCount() { return _items.size() + _skippedCount; }
+    public int getSkippedCount() { return _skippedCount; }
+    public int getProcessedCount() { return _processedCount.get(); }
+    public int getFailedCount() { return _failedCount.get(); }
+
+    /**
+     * Finds every capture under the captures directory, queueing the ones the index doesn't
+     * already have up to date.
+     */
+    public void scan() throws IOException {
+        scan(_capturesDir, "");
+    }
+
+    protected void scan(File dir, String prefix) throws IOException {
+        File[] files= dir.listFiles();
+        if (files == null) {
+            throw new IOException("can't list " + dir);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String relative= prefix + file.getName();
+            if (file.isDirectory()) {
+                // the output may well live under the captures
+                if (!file.getCanonicalFile().equals(_outputDir.getCanonicalFile())) {
+                    scan(file, relative + "/");
+                }
+            } else if (relative.endsWith(".jpg")) {
+                add(new JpegItem(relative, file));
+            } else if (relative.endsWith(".camlog")) {
+                scanFrameLog(relative, file);
+            } else if (relative.endsWith(".camraw")) {
+                scanRawContainer(relative, file);
+            }
+        }
+    }
+
+    protected void scanFrameLog(String relative, File file) throws IOException {
+        FrameLogReader reader;
+        try {
+            reader= new FrameLogReader(file);
+        } catch (IOException e) {
+            System.err.println("skipping " + relative + ": " + e.getMessage());
+            return;
+        }
+        _containers.add(reader);
+        for (int idx= 0; idx < reader.getFrameCount(); idx++) {
+            add(new LoggedFrameItem(relative, file, reader, idx));
+        }
+    }
+
+    protected void scanRawContainer(String relative, File file) throws IOException {
+        RawFrameReader reader;
+        try {
+            reader= new RawFrameReader(file);
+        } catch (IOException e) {
+            System.err.println("skipping " + relative + ": " + e.getMessage());
+            return;
+        }
+        _containers.add(reader);
+        FrameNamer namer= FrameNamer.forContainer(file.getName(), reader.getCameraId());
+        for (int idx= 0; idx < reader.getFrameCount(); idx++) {
+            add(new RawFrameItem(relative, file, reader, namer, idx));
+        }
+    }
+
+    protected void add(Item item) {
+        _keys.add(item.key);
+        if (_index.isCurrent(item.key, item.size, item.modified)) {
+            _skippedCount++;
+        } else {
+            _items.add(item);
+        }
+    }
+
+    /**
+     * Processes whatever scan() queued. An item that fails is reported and left out of the
+     * index, so the next run tries it again.
+     */
+    public void process(ForkJoinPool pool) {
+        pool.invoke(new ProcessTask(0, _items.size()));
+    }
+
+    protected class ProcessTask extends RecursiveAction {
+        private static final long serialVersionUID= 1L;
+
+        final int _from, _to;
+
+        ProcessTask(int from, int to) {
+            _from= from;
+            _to= to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from <= ITEMS_PER_TASK) {
+                for (int idx= _from; idx < _to; idx++) {
+                    Item item= _items.get(idx);
+                    try {
+                        _index.record(item.process());
+                        _processedCount.incrementAndGet();
+                    } catch (Exception e) {
+                        _failedCount.incrementAndGet();
+                        System.err.println("failed " + item.key + ": " + e);
+                    }
+                }
+            } else {
+                int mid= (_from + _to) >>> 1;
+                invokeAll(new ProcessTask(_from, mid), new ProcessTask(mid, _to));
+            }
+        }
+    }
+
+    /**
+     * Forgets captures that are gone, rewrites the index and writes the manifest.
+     */
+    public void finish() throws IOException {
+        for (Closeable container : _containers) {
+            container.close();
+        }
+        _containers.clear();
+
+        _index.retainAll(_keys);
+        _index.compact();
+
+        Writer writer= new OutputStreamWriter(new FileOutputStream(new File(_outputDir, MANIFEST_NAME)),
+                ProcessIndex.CHARSET);
+        try {
+            writer.write("source,output,thumbnail,width,height,bytes,passthrough\n");
+            for (ProcessIndex.Entry entry : _index.getEntries()) {
+                writer.write(csv(entry.key) + ',' + csv(entry.output) + ',' + csv(entry.thumbnail) + ','
+                        + entry.width + ',' + entry.height + ',' + entry.bytes + ',' + (entry.passthrough ? 1 : 0) + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    protected class JpegItem extends Item {
+        final File _source;
+        final String _relative;
+
+        JpegItem(String relative, File source) {
+            super(relative, source);
+            _source= source;
+            _relative= relative;
+        }
+
+        @Override
+        ProcessIndex.Entry process() throws IOException {
+            String thumbnail= thumbnailName(_relative);
+            int[] size= thumbnailJpeg(_source, new File(_outputDir, thumbnail));
+            return new ProcessIndex.Entry(key, this.size, modified, _relative, thumbnail, size[0], size[1],
+                    _source.length(), true);
+        }
+    }
+
+    protected class LoggedFrameItem extends Item {
+        final String _container;
+        final FrameLogReader _reader;
+        final int _frame;
+
+        LoggedFrameItem(String relative, File source, FrameLogReader reader, int frame) {
+            super(relative + "#" + frame, source);
+            _container= relative;
+            _reader= reader;
+            _frame= frame;
+        }
+
+        @Override
+        ProcessIndex.Entry process() throws IOException {
+            String output= stripExtension(_container) + "/" + _reader.getName(_frame);
+            File file= new File(_outputDir, output);
+            ByteBuffer frame= _reader.getFrame(_frame);
+            int bytes= frame.remaining();
+            writeFile(file, frame);
+
+            String thumbnail= thumbnailName(output);
+            int[] size= thumbnailJpeg(file, new File(_outputDir, thumbnail));
+            return new ProcessIndex.Entry(key, this.size, modified, output, thumbnail, size[0], size[1], bytes, true);
+        }
+    }
+
+    protected class RawFrameItem extends Item {
+        final String _container;
+        final RawFrameReader _reader;
+        final FrameNamer _namer;
+        final int _frame;
+
+        RawFrameItem(String relative, File source, RawFrameReader reader, FrameNamer namer, int frame) {
+            super(relative + "#" + frame, source);
+            _container= relative;
+            _reader= reader;
+            _namer= namer;
+            _frame= frame;
+        }
+
+        @Override
+        ProcessIndex.Entry process() throws IOException {
+            RawFrameReader.Frame frame= _reader.getFrame(_frame);
+            Buffers buffers= _buffers.get();
+            int length= frame.data.remaining();
+            byte[] data= buffers.frame(length);
+            frame.data.get(data, 0, length);
+
+            // under the container's directory like a frame log's frames, and named as ImageSaver would have
+            String output= stripExtension(_container) + "/" + _namer.name((int)frame.frameId, "jpg");
+            String thumbnail= thumbnailName(output);
+            int downscale= thumbnailDownscale(Math.max(frame.config.width, frame.config.height));
+            // scaling leaves data as it was, while a full frame may be turned in place, so the
+            // thumbnail goes first; one that needs no scaling is the same image anyway
+            if (downscale > 1) {
+                saveFrame(data, frame.config, SaveProfile.scaled("Thumbnail", downscale, THUMBNAIL_QUALITY), buffers);
+                writeFile(new File(_outputDir, thumbnail), buffers.output.contents());
+            }
+            int[] size= saveFrame(data, frame.config, SaveProfile.scaled("Full", 1, _quality), buffers);
+            int bytes= buffers.output.size();
+            writeFile(new File(_outputDir, output), buffers.output.contents());
+            if (downscale == 1) {
+                writeFile(new File(_outputDir, thumbnail), buffers.output.contents());
+            }
+            return new ProcessIndex.Entry(key, this.size, modified, output, thumbnail, size[0], size[1], bytes, false);
+        }
+    }
+
+    /**
+     * Crops, scales and turns a raw frame upright the way ImageSaver does for profile, then
+     * encodes it into buffers.output.
+     *
+     * @return the encoded image's { width, height }
+     */
+    protected int[] saveFrame(byte[] data, PreviewConfig config, SaveProfile profile, Buffers buffers) throws IOException {
+        int width= config.width;
+        int height= config.height;
+        int orientation= config.orientation;
+        byte[] upright;
+        if (profile.isFullFrame()) {
+            try {
+                upright= YuvRotation.uprightNV21(data, buffers.rotated(YuvRotation.nv21Size(width, height)), config);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        } else {
+            int[] crop= profile.sensorCrop(width, height, orientation, config.frontFacing);
+            byte[] scaled= buffers.scaled(YuvScaler.scaledSize(crop[2], crop[3], profile.downscale));
+            if (config.format == PreviewConfig.FORMAT_YV12) {
+                YuvScaler.cropAndScaleYV12ToNV21(data, width, height, crop, profile.downscale, scaled);
+            } else if (config.format == PreviewConfig.FORMAT_NV21) {
+                YuvScaler.cropAndScaleNV21(data, width, height, crop, profile.downscale, scaled);
+            } else {
+                throw new IOException("unsupported preview format " + config.format);
+            }
+            width= crop[2] / profile.downscale;
+            height= crop[3] / profile.downscale;
+            upright= YuvRotation.transformNV21PingPong(scaled, buffers.rotated(YuvRotation.nv21Size(width, height)),
+                    width, height, orientation, config.frontFacing);
+        }
+
+        int uprightWidth= YuvRotation.rotatedWidth(width, height, orientation);
+        int uprightHeight= YuvRotation.rotatedHeight(width, height, orientation);
+        buffers.output.reset();
+        buffers.encoder.setQuality(profile.quality);
+        buffers.encoder.encode(upright, uprightWidth, uprightHeight, buffers.output);
+        return new int[] { uprightWidth, uprightHeight };
+    }
+
+    /**
+     * Writes a subsampled copy of a JPEG to thumbnail.
+     *
+     * @return the source image's { width, height }
+     */
+    protected int[] thumbnailJpeg(File source, File thumbnail) throws IOException {
+        ImageInputStream input= ImageIO.createImageInputStream(source);
+        if (input == null) {
+            throw new IOException("can't read " + source);
+        }
+        BufferedImage image;
+        int width, height;
+        try {
+            Iterator<ImageReader> readers= ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                throw new IOException("not an image: " + source);
+            }
+            ImageReader reader= readers.next();
+            try {
+                reader.setInput(input);
+                width= reader.getWidth(0);
+                height= reader.getHeight(0);
+                // decoding only every nth pixel is most of the way to a thumbnail already
+                ImageReadParam param= reader.getDefaultReadParam();
+                int downscale= thumbnailDownscale(Math.max(width, height));
+                param.setSourceSubsampling(downscale, downscale, 0, 0);
+                image= reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            input.close();
+        }
+
+        Iterator<ImageWriter> writers= ImageIO.getImageWritersByFormatName("jpg");
+        if (!writers.hasNext()) {
+            throw new IOException("no ImageIO writer for jpg");
+        }
+        ImageWriter writer= writers.next();
+        File parent= thumbnail.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("can't create " + parent);
+        }
+        FileImageOutputStream stream= new FileImageOutputStream(thumbnail);
+        try {
+            ImageWriteParam param= writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(THUMBNAIL_QUALITY / 100f);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            stream.close();
+        }
+        return new int[] { width, height };
+    }
+
+    /**
+     * @return the smallest whole factor that brings longestSide down to the thumbnail size
+     */
+    int thumbnailDownscale(int longestSide) {
+        return Math.max(1, (longestSide + _thumbnailSize - 1) / _thumbnailSize);
+    }
+
+    static String thumbnailName(String output) {
+        return THUMBNAIL_DIR + "/" + stripExtension(output) + ".jpg";
+    }
+
+    static String stripExtension(String path) {
+        int dot= path.lastIndexOf('.');
+        return dot > path.lastIndexOf('/') ? path.substring(0, dot) : path;
+    }
+
+    static void writeFile(File file, ByteBuffer contents) throws IOException {
+        FileOutputStream stream= FileChannelSink.openCreatingParents(file);
+        try {
+            while (contents.hasRemaining()) {
+                stream.getChannel().write(contents);
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    static String csv(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    public static void main(String[] args) throws IOException {
+        int quality= 95;
+        int thumbnailSize= 256;
+        int threads= Runtime.getRuntime().availableProcessors();
+
+        int arg= 0;
+        for (; arg < args.length && args[arg].startsWith("--"); arg++) {
+            if (args[arg].equals("--quality") && arg + 1 < args.length) {
+                quality= Integer.parseInt(args[++arg]);
+            } else if (args[arg].equals("--thumbnail-size") && arg + 1 < args.length) {
+                thumbnailSize= Integer.parseInt(args[++arg]);
+            } else if (args[arg].equals("--threads") && arg + 1 < args.length) {
+                threads= Integer.parseInt(args[++arg]);
+            } else {
+                usage();
+            }
+        }
+        if (args.length - arg != 2 || thumbnailSize <= 0) {
+            usage();
+        }
+
+        File outputDir= new File(args[arg + 1]);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("can't create " + outputDir);
+        }
+
+        CaptureBatchProcessor processor= new CaptureBatchProcessor(new File(args[arg]), outputDir, quality, thumbnailSize);
+        long start= System.nanoTime();
+        processor.scan();
+        processor.process(new ForkJoinPool(threads));
+        processor.finish();
+        long elapsedMs= (System.nanoTime() - start) / 1000000;
+        System.out.println("processed " + processor.getProcessedCount() + " of " + processor.getItemCount()
+                + " captures (" + processor.getSkippedCount() + " up to date, " + processor.getFailedCount()
+                + " failed) in " + elapsedMs + "ms on " + threads + " threads");
+    }
+
+    static void usage() {
+        System.err.println("usage: CaptureBatchProcessor [--quality 1-100] [--thumbnail-size PX] [--threads N] capturesDir outputDir");
+        System.exit(1);
+    }
+}
@@ -0,0 +1,179 @@
+package org.paleozogt.camexample;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Drives a CaptureRateController with a simulated phone instead of a camera, to see how it
+ * settles and how it copes with the device heating up: a 30fps preview, a bounded save queue
+ * that drops its oldest frame when full, save workers whose cost per pixel grows as the device
+ * throttles, and a temperature that follows how hard the workers are kept busy.
+ *
+ * Prints a line per second of simulated time, then how steady the last half of the run was.
+ */
+public class CaptureRateSimulator {
+    static final float PREVIEW_FPS= 30;
+    static final int FRAME_PIXELS= 1920 * 1080;
+    static final long CONTROL_INTERVAL_MS= 1000;
+
+    // the same ladder as CameraExample's adaptive burst
+    static final CaptureRateController.Level[] LEVELS= {
+            new CaptureRateController.Level(30, SaveProfile.scaled("Full", 1, 90)),
+            new CaptureRateController.Level(20, SaveProfile.scaled("Full", 1, 85)),
+            new CaptureRateController.Level(30, SaveProfile.scaled("Half", 2, 85)),
+            new CaptureRateController.Level(15, SaveProfile.scaled("Half", 2, 80)),
+            new CaptureRateController.Level(10, SaveProfile.scaled("Quarter", 4, 80)),
+            new CaptureRateController.Level(5, SaveProfile.scaled("Quarter", 4, 75)),
+    };
+
+    protected final int _workers;
+    protected final int _queueCapacity;
+    protected final double _nsPerPixel;
+    protected final float _ambient;
+    protected final Random _random= new Random(1);
+
+    protected final CaptureMetrics _metrics= new CaptureMetrics();
+    protected final CaptureRateController _controller;
+    protected final BurstCapture _burst;
+    protected final ArrayDeque<Long> _queue= new ArrayDeque<Long>();
+    protected final long[] _busyUntil;
+    protected long _busyNanos;
+    protected float _temperature;
+
+    // totals over the second half of the run
+    protected long _steadySaved;
+    protected long _steadyDropped;
+    protected int _steadyChanges;
+
+    /**
+     * @param nsPerPixel what saving a pixel costs a cool device, scaling and writing included
+     * @param ambient the temperature the device cools down to, in degrees C
+     */
+    public CaptureRateSimulator(int workers, int queueCapacity, double nsPerPixel, float ambient, long durationMs) {
+        _workers= workers;
+        _queueCapacity= queueCapacity;
+        _nsPerPixel= nsPerPixel;
+        _ambient= ambient;
+        _temperature= ambient;
+        _busyUntil= new long[workers];
+        _controller= new CaptureRateController(LEVELS, workers, 0);
+        _burst= new BurstCapture(1, durationMs);
+        _burst.setMaxFps(_controller.getLevel().fps);
+    }
+
+    /**
+     * How much slower a save gets as the device throttles: not at all below 38C, then 8% a
+     * degree.
+     */
+    float throttle() {
+        return 1 + Math.max(0, _temperature - 38) * 0.08f;
+    }
+
+    long serviceNanos(SaveProfile profile) {
+        double quality= 0.6 + profile.quality / 250.0;
+        double jitter= 0.8 + _random.nextDouble() * 0.4;
+        return (long)(_nsPerPixel * FRAME_PIXELS * profile.getPixelFraction() * quality * jitter * throttle());
+    }
+
+    /**
+     * Hands queued frames to whichever workers are free by now.
+     */
+    void drain(long now) {
+        for (int worker= 0; worker < _workers; worker++) {
+            while (_busyUntil[worker] <= now && !_queue.isEmpty()) {
+                long arrival= _queue.poll();
+                long start= Math.max(_busyUntil[worker], arrival);
+                long service= serviceNanos(_controller.getLevel().profile);
+                _busyUntil[worker]= start + service;
+                _busyNanos+= service;
+                _metrics.record(CaptureMetrics.Stage.QUEUE_WAIT, start - arrival);
+                _metrics.record(CaptureMetrics.Stage.ENCODE, service);
+                _metrics.record(CaptureMetrics.Stage.END_TO_END, start + service - arrival);
+                _metrics.frameSaved(1);
+            }
+        }
+    }
+
+    public void run(long durationMs) {
+        long frameNanos= (long)(1e9 / PREVIEW_FPS);
+        long controlNanos= CONTROL_INTERVAL_MS * 1000000;
+        long nextControl= controlNanos;
+        long lastSaved= 0, lastDropped= 0, lastBusy= 0;
+        _burst.start(0);
+
+        for (long now= 0; now < durationMs * 1000000; now+= frameNanos) {
+            drain(now);
+            _metrics.frameArrived(now);
+            if (_burst.onFrame(now / 1000000)) {
+                if (_queue.size() >= _queueCapacity) {
+                    _queue.poll();
+                    _metrics.frameDropped();
+                }
+                _queue.add(now);
+            }
+
+            if (now >= nextControl) {
+                nextControl+= controlNanos;
+                // heats up with how busy the workers were, cools towards ambient
+                double busy= Math.min(1, (double)(_busyNanos - lastBusy) / controlNanos / _workers);
+                lastBusy= _busyNanos;
+                _temperature+= (float)(1.2 * busy - 0.05 * (_temperature - _ambient));
+
+                boolean changed= _controller.update(_metrics, _queue.size(), _queueCapacity, _temperature,
+                        now / 1000000);
+                if (changed) {
+                    _burst.setMaxFps(_controller.getLevel().fps);
+                }
+
+                long saved= _metrics.getFramesSaved(), dropped= _metrics.getFramesDropped();
+                if (now >= durationMs * 1000000 / 2) {
+                    _steadySaved+= saved - lastSaved;
+                    _steadyDropped+= dropped - lastDropped;
+                    if (changed) _steadyChanges++;
+                }
+                System.out.println(String.format(Locale.US, "%4ds %-22s saved %3d dropped %2d busy %3.0f%% %.1fC%s",
+                        now / 1000000000, _controller.getLevel(), saved - lastSaved, dropped - lastDropped,
+                        _controller.getUtilization() * 100, _temperature, changed ? " *" : ""));
+                lastSaved= saved;
+                lastDropped= dropped;
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        int workers= 2;
+        int queueCapacity= 4;
+        double nsPerPixel= 30;
+        float ambient= 25;
+        long seconds= 300;
+
+        for (int arg= 0; arg < args.length; arg++) {
+            if (args[arg].equals("--workers") && arg + 1 < args.length) {
+                workers= Integer.parseInt(args[++arg]);
+            } else if (args[arg].equals("--queue") && arg + 1 < args.length) {
+                queueCapacity= Integer.parseInt(args[++arg]);
+            } else if (args[arg].equals("--ns-per-pixel") && arg + 1 < args.length) {
+                nsPerPixel= Double.parseDouble(args[++arg]);
+            } else if (args[arg].equals("--ambient") && arg + 1 < args.length) {
+                ambient= Float.parseFloat(args[++arg]);
+            } else if (args[arg].equals("--seconds") && arg + 1 < args.length) {
+                seconds= Long.parseLong(args[++arg]);
+            } else {
+                usage();
+            }
+        }
+
+        long durationMs= seconds * 1000;
+        CaptureRateSimulator simulator= new CaptureRateSimulator(workers, queueCapacity, nsPerPixel, ambient, durationMs);
+        simulator.run(durationMs);
+        System.out.println(String.format(Locale.US, "second half: %.1f fps saved, %d dropped, %d level changes; %d changes in all",
+                simulator._steadySaved / (seconds / 2.0), simulator._steadyDropped, simulator._steadyChanges,
+                simulator._controller.getLevelChanges()));
+    }
+
+    static void usage() {
+        System.err.println("usage: CaptureRateSimulator [--workers N] [--queue N] [--ns-per-pixel NS] [--ambient C] [--seconds N]");
+        System.exit(1);
+    }
+}
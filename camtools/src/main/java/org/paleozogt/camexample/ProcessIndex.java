@@ -0,0 +1,218 @@
+package org.paleozogt.camexample;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Remembers which captures have been processed, and what came of them, across runs of the batch
+ * processor. Each entry is keyed by the capture's path (plus a frame number for frames inside a
+ * container) and records the source's size and modification time, so a capture that's been
+ * replaced since is processed again.
+ *
+ * The index is a tab-separated journal: record() appends and flushes a line as soon as an item
+ * is done, so a run that's interrupted loses at most the items in progress, and the next run
+ * picks up where it stopped. Later lines override earlier ones; compact() rewrites the file with
+ * just the current entries, keeping the old file until the new one has taken its place. Lines in
+ * an older layout are ignored, so their captures are
+ * processed afresh.
+ */
+public class ProcessIndex {
+    static final Charset CHARSET= Charset.forName("UTF-8");
+    static final String HEADER= "# key\tsize\tmodified\toutput\tthumbnail\twidth\theight\tbytes\tpassthrough";
+
+    public static class Entry {
+        public final String key;
+        public final long sourceSize;
+        public final long sourceModified;
+        /** paths relative to the output directory, or to the captures for inputs left in place */
+        public final String output;
+        public final String thumbnail;
+        public final int width;
+        public final int height;
+        public final long bytes;
+        /** true if output is the capture's own JPEG, copied as it was rather than encoded here */
+        public final boolean passthrough;
+
+        public Entry(String key, long sourceSize, long sourceModified, String output, String thumbnail,
+                     int width, int height, long bytes, boolean passthrough) {
+            this.key= key;
+            this.sourceSize= sourceSize;
+            this.sourceModified= sourceModified;
+            this.output= output;
+            this.thumbnail= thumbnail;
+            this.width= width;
+            this.height= height;
+            this.bytes= bytes;
+            this.passthrough= passthrough;
+        }
+
+        String toLine() {
+            return key + '\t' + sourceSize + '\t' + sourceModified + '\t' + output + '\t' + thumbnail
+                    + '\t' + width + '\t' + height + '\t' + bytes + '\t' + (passthrough ? 1 : 0);
+        }
+
+        static Entry fromLine(String line) {
+            String[] fields= line.split("\t");
+            if (fields.length != 9) {
+                return null;
+            }
+            try {
+                return new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3], fields[4],
+                        Integer.parseInt(fields[5]), Integer.parseInt(fields[6]), Long.parseLong(fields[7]),
+                        fields[8].equals("1"));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    protected final File _file;
+    protected final Map<String, Entry> _entries= new TreeMap<String, Entry>();
+    protected Writer _journal;
+
+    /**
+     * Loads the index from file, if there is one. A line cut short by a crash is ignored, as is
+     * a compaction interrupted halfway through.
+     */
+    public ProcessIndex(File file) throws IOException {
+        _file= file;
+        File backup= backupFile(file);
+        if (!file.exists() && backup.exists() && !backup.renameTo(file)) {
+            throw new IOException("can't restore " + file + " from " + backup);
+        }
+        if (file.exists()) {
+            BufferedReader reader= new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET));
+            try {
+                String line;
+                while ((line= reader.readLine()) != null) {
+                    if (line.startsWith("#")) continue;
+                    Entry entry= Entry.fromLine(line);
+                    if (entry != null) {
+                        _entries.put(entry.key, entry);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * @return true if key was processed from a source of this size and modification time
+     */
+    public synchronized boolean isCurrent(String key, long sourceSize, long sourceModified) {
+        Entry entry= _entries.get(key);
+        return entry != null && entry.sourceSize == sourceSize && entry.sourceModified == sourceModified;
+    }
+
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    /**
+     * @return the current entries, sorted by key
+     */
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<Entry>(_entries.values()));
+    }
+
+    /**
+     * Adds or replaces an entry, and gets it on disk before returning.
+     */
+    public synchronized void record(Entry entry) throws IOException {
+        if (_journal == null) {
+            boolean fresh= !_file.exists();
+            boolean cutShort= !fresh && !endsWithNewline(_file);
+            _journal= new BufferedWriter(new OutputStreamWriter(new FileOutputStream(_file, true), CHARSET));
+            if (fresh) {
+                _journal.write(HEADER + "\n");
+            } else if (cutShort) {
+                // end the line a crash cut short, so it doesn't swallow this one
+                _journal.write("\n");
+            }
+        }
+        _journal.write(entry.toLine() + "\n");
+        _journal.flush();
+        _entries.put(entry.key, entry);
+    }
+
+    /**
+     * Drops entries whose keys aren't in keep, e.g. for captures that have been deleted.
+     */
+    public synchronized void retainAll(Collection<String> keep) {
+        _entries.keySet().retainAll(keep);
+    }
+
+    /**
+     * Rewrites the index with one line per current entry, replacing the file only once the new
+     * one is complete. Where a file can't be renamed over another, the old index is moved aside
+     * first and only deleted once the new one is in place, so some index survives any failure.
+     */
+    public synchronized void compact() throws IOException {
+        close();
+        File temp= new File(_file.getPath() + ".tmp");
+        Writer writer= new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), CHARSET));
+        try {
+            writer.write(HEADER + "\n");
+            for (Entry entry : _entries.values()) {
+                writer.write(entry.toLine() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (temp.renameTo(_file)) {
+            return;
+        }
+        File backup= backupFile(_file);
+        if (backup.exists() && !backup.delete()) {
+            throw new IOException("can't replace " + _file + ": can't delete " + backup);
+        }
+        if (!_file.renameTo(backup)) {
+            throw new IOException("can't replace " + _file);
+        }
+        if (!temp.renameTo(_file)) {
+            // put the old one back; if even that fails, the constructor finds it next run
+            backup.renameTo(_file);
+            throw new IOException("can't replace " + _file);
+        }
+        backup.delete();
+    }
+
+    static boolean endsWithNewline(File file) throws IOException {
+        RandomAccessFile raf= new RandomAccessFile(file, "r");
+        try {
+            long length= raf.length();
+            if (length == 0) return true;
+            raf.seek(length - 1);
+            return raf.read() == '\n';
+        } finally {
+            raf.close();
+        }
+    }
+
+    static File backupFile(File file) {
+        return new File(file.getPath() + ".old");
+    }
+
+    public synchronized void close() throws IOException {
+        if (_journal != null) {
+            _journal.close();
+            _journal= null;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.paleozogt.camexample;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.FileImageOutputStream;
+
+/**
+ * Turns a raw frame container recorded on the device into upright JPEG or PNG files, encoding
+ * frames in parallel on a fork-join pool. Runs on any desktop JVM, so the expensive part of a
+ * high-rate capture session can be done on a server instead of the phone.
+ *
+ * <pre>
+ *   RawTranscoder [--png] [--quality 0-100] [--threads N] container.camraw outputDir
+ * </pre>
+ */
+public class RawTranscoder {
+    // below this many frames a task encodes them itself rather than splitting further
+    static final int FRAMES_PER_TASK= 4;
+
+    protected final RawFrameReader _reader;
+    protected final File _outputDir;
+    protected final FrameNamer _namer;
+    protected final String _formatName;
+    protected final float _quality;
+    protected final AtomicInteger _transcodedCount= new AtomicInteger();
+    protected final AtomicInteger _failedCount= new AtomicInteger();
+
+    /**
+     * Per-thread scratch buffers, so transcoding allocates per image only what ImageIO needs.
+     */
+    static class Buffers {
+        byte[] frame= new byte[0];
+        byte[] rotated= new byte[0];
+        int[] argb= new int[0];
+    }
+
+    protected final ThreadLocal<Buffers> _buffers= new ThreadLocal<Buffers>() {
+        @Override
+        protected Buffers initialValue() {
+            return new Buffers();
+        }
+    };
+
+    /**
+     * @param formatName "jpg" or "png"
+     * @param quality JPEG quality from 0 to 100
+     */
+    public RawTranscoder(RawFrameReader reader, File outputDir, String formatName, int quality) {
+        _reader= reader;
+        _outputDir= outputDir;
+        _namer= FrameNamer.forContainer(reader.getFile().getName(), reader.getCameraId());
+        _formatName= formatName;
+        _quality= Math.max(0, Math.min(100, quality)) / 100f;
+    }
+
+    public int getTranscodedCount() {
+        return _transcodedCount.get();
+    }
+
+    public int getFailedCount() {
+        return _failedCount.get();
+    }
+
+    /**
+     * Transcodes every frame. A frame that can't be read or written is reported and skipped, so
+     * one bad frame doesn't cost the rest of the container.
+     */
+    public void transcode(ForkJoinPool pool) {
+        pool.invoke(new TranscodeTask(0, _reader.getFrameCount()));
+    }
+
+    protected class TranscodeTask extends RecursiveAction {
+        private static final long serialVersionUID= 1L;
+
+        final int _from, _to;
+
+        TranscodeTask(int from, int to) {
+            _from= from;
+            _to= to;
+        }
+
+        @Override
+        protected void compute() {
+            if (_to - _from <= FRAMES_PER_TASK) {
+                for (int idx= _from; idx < _to; idx++) {
+                    try {
+                        transcodeFrame(idx);
+                    } catch (IOException e) {
+                        _failedCount.incrementAndGet();
+                        System.err.println("failed frame " + idx + " of " + _reader.getFile() + ": " + e);
+                    }
+                }
+            } else {
+                int mid= (_from + _to) >>> 1;
+                invokeAll(new TranscodeTask(_from, mid), new TranscodeTask(mid, _to));
+            }
+        }
+    }
+
+    protected void transcodeFrame(int index) throws IOException {
+        RawFrameReader.Frame frame= _reader.getFrame(index);
+        PreviewConfig config= frame.config;
+        Buffers buffers= _buffers.get();
+
+        int length= frame.data.remaining();
+        if (buffers.frame.length < length) {
+            buffers.frame= new byte[length];
+        }
+        frame.data.get(buffers.frame, 0, length);
+
+        int nv21Size= YuvRotation.nv21Size(config.width, config.height);
+        if (buffers.rotated.length < nv21Size) {
+            buffers.rotated= new byte[nv21Size];
+        }
+        // mirror front camera frames the way the on-device preview (and ImageSaver) does; our
+        // copy of the frame is scratch too, so half turns can happen in place
+        byte[] upright;
+        try {
+            upright= YuvRotation.uprightNV21(buffers.frame, buffers.rotated, config);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+
+        int width= YuvRotation.rotatedWidth(config.width, config.height, config.orientation);
+        int height= YuvRotation.rotatedHeight(config.width, config.height, config.orientation);
+        if (buffers.argb.length < width * height) {
+            buffers.argb= new int[width * height];
+        }
+        YuvConversion.nv21ToArgb(upright, width, height, buffers.argb);
+
+        BufferedImage image= new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, buffers.argb, 0, width);
+        // named as ImageSaver would have named the frame, in the session directory it would have used
+        File file= new File(_outputDir, _namer.name((int)frame.frameId, _formatName));
+        File parent= file.getParentFile();
+        if (!parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("can't create " + parent);
+        }
+        writeImage(image, file);
+        _transcodedCount.incrementAndGet();
+    }
+
+    protected void writeImage(BufferedImage image, File file) throws IOException {
+        Iterator<ImageWriter> writers= ImageIO.getImageWritersByFormatName(_formatName);
+        if (!writers.hasNext()) {
+            throw new IOException("no ImageIO writer for " + _formatName);
+        }
+        ImageWriter writer= writers.next();
+        FileImageOutputStream stream= new FileImageOutputStream(file);
+        try {
+            ImageWriteParam param= writer.getDefaultWriteParam();
+            if ("jpg".equals(_formatName)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(_quality);
+            }
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            stream.close();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        String formatName= "jpg";
+        int quality= 95;
+        int threads= Runtime.getRuntime().availableProcessors();
+
+        int arg= 0;
+        for (; arg < args.length && args[arg].startsWith("--"); arg++) {
+            if (args[arg].equals("--png")) {
+                formatName= "png";
+            } else if (args[arg].equals("--quality") && arg + 1 < args.length) {
+                quality= Integer.parseInt(args[++arg]);
+            } else if (args[arg].equals("--threads") && arg + 1 < args.length) {
+                threads= Integer.parseInt(args[++arg]);
+            } else {
+                usage();
+            }
+        }
+        if (args.length - arg != 2) {
+            usage();
+        }
+
+        File outputDir= new File(args[arg + 1]);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("can't create " + outputDir);
+        }
+
+        RawFrameReader reader= new RawFrameReader(new File(args[arg]));
+        try {
+            RawTranscoder transcoder= new RawTranscoder(reader, outputDir, formatName, quality);
+            long start= System.nanoTime();
+            transcoder.transcode(new ForkJoinPool(threads));
+            long elapsedMs= (System.nanoTime() - start) / 1000000;
+            System.out.println("transcoded " + transcoder.getTranscodedCount() + " frames ("
+                    + transcoder.getFailedCount() + " failed) in " + elapsedMs
+                    + "ms on " + threads + " threads");
+        } finally {
+            reader.close();
+        }
+    }
+
+    static void usage() {
+        System.err.println("usage: RawTranscoder [--png] [--quality 0-100] [--threads N] container outputDir");
+        System.exit(1);
+    }
+}
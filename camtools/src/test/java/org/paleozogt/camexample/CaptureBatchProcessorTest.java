@@ -0,0 +1,168 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Runs the processor over a small captures directory (a loose JPEG, a frame log and a raw
+ * container) again and again, changing it in between the way a phone syncing new captures would.
+ */
+public class CaptureBatchProcessorTest {
+    static final String SESSION= "20141018-142233517";
+    static final PreviewConfig CONFIG= new PreviewConfig(1, 64, 48, PreviewConfig.FORMAT_NV21, 90, false);
+
+    @Rule
+    public TemporaryFolder _temp= new TemporaryFolder();
+
+    ForkJoinPool _pool;
+    File _captures;
+    File _output;
+
+    @Before
+    public void setUp() throws IOException {
+        _pool= new ForkJoinPool(2);
+        _captures= _temp.newFolder("captures");
+        _output= _temp.newFolder("processed");
+
+        writeFile(new File(_captures, "loose.jpg"), jpeg(40, 30));
+        FrameLogSink log= new FrameLogSink(new File(_captures, "Frames." + SESSION + ".camlog"), 0);
+        log.write(SESSION + "/IMG_" + SESSION + "_c0_000000.jpg", ByteBuffer.wrap(jpeg(32, 24)));
+        log.close();
+        writeRaw(new File(_captures, "Frames." + SESSION + ".camraw"), 2);
+    }
+
+    @After
+    public void tearDown() {
+        _pool.shutdown();
+    }
+
+    @Test
+    public void processesEverythingOnce() throws IOException {
+        CaptureBatchProcessor processor= run();
+        assertEquals(4, processor.getProcessedCount());
+        assertEquals(0, processor.getFailedCount());
+
+        // raw frames are named the way the device would have named them, and turned upright
+        String raw= "Frames." + SESSION + "/" + SESSION + "/IMG_" + SESSION + "_c1_000001.jpg";
+        BufferedImage image= ImageIO.read(new File(_output, raw));
+        assertEquals(48, image.getWidth());
+        assertEquals(64, image.getHeight());
+        assertTrue(new File(_output, CaptureBatchProcessor.thumbnailName(raw)).isFile());
+        assertTrue(new File(_output, "Frames." + SESSION + "/" + SESSION + "/IMG_" + SESSION + "_c0_000000.jpg").isFile());
+
+        // a rerun finds nothing new
+        processor= run();
+        assertEquals(4, processor.getItemCount());
+        assertEquals(4, processor.getSkippedCount());
+        assertEquals(0, processor.getProcessedCount());
+    }
+
+    @Test
+    public void reprocessesCapturesThatChanged() throws IOException {
+        run();
+        File loose= new File(_captures, "loose.jpg");
+        File raw= new File(_captures, "Frames." + SESSION + ".camraw");
+
+        // replaced with a bigger image, but with the same time
+        long modified= loose.lastModified();
+        writeFile(loose, jpeg(80, 60));
+        assertTrue(loose.setLastModified(modified));
+        CaptureBatchProcessor processor= run();
+        assertEquals(1, processor.getProcessedCount());
+        assertEquals(3, processor.getSkippedCount());
+
+        // the same size, but touched since; every frame in it goes again
+        assertTrue(raw.setLastModified(raw.lastModified() + 10000));
+        processor= run();
+        assertEquals(2, processor.getProcessedCount());
+        assertEquals(2, processor.getSkippedCount());
+    }
+
+    @Test
+    public void dropsCapturesThatAreGone() throws IOException {
+        run();
+        assertTrue(new File(_captures, "loose.jpg").delete());
+        CaptureBatchProcessor processor= run();
+        assertEquals(3, processor.getSkippedCount());
+        assertEquals(3, new ProcessIndex(new File(_output, CaptureBatchProcessor.INDEX_NAME)).size());
+    }
+
+    @Test
+    public void carriesOnFromAnInterruptedRun() throws IOException {
+        run();
+        // the index as a run killed mid-line leaves it: the last entry gone and the next cut short
+        File indexFile= new File(_output, CaptureBatchProcessor.INDEX_NAME);
+        ProcessIndex index= new ProcessIndex(indexFile);
+        index.retainAll(Arrays.asList("loose.jpg", "Frames." + SESSION + ".camlog#0",
+                "Frames." + SESSION + ".camraw#0"));
+        index.compact();
+        ProcessIndexTest.append(indexFile, "Frames." + SESSION + ".camraw#1\t12");
+
+        CaptureBatchProcessor processor= run();
+        assertEquals(1, processor.getProcessedCount());
+        assertEquals(3, processor.getSkippedCount());
+        assertEquals(0, run().getProcessedCount());
+    }
+
+    CaptureBatchProcessor run() throws IOException {
+        CaptureBatchProcessor processor= new CaptureBatchProcessor(_captures, _output, 90, 16);
+        processor.scan();
+        processor.process(_pool);
+        processor.finish();
+        return processor;
+    }
+
+    static void writeRaw(File file, int frames) throws IOException {
+        RawFrameWriter writer= new RawFrameWriter(file, CONFIG.cameraId);
+        try {
+            byte[] data= new byte[YuvRotation.nv21Size(CONFIG.width, CONFIG.height)];
+            for (int idx= 0; idx < frames; idx++) {
+                for (int pixel= 0; pixel < data.length; pixel++) {
+                    data[pixel]= (byte)(pixel + idx * 7);
+                }
+                writer.write(idx, idx * 33000000L, CONFIG, data, data.length);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    static byte[] jpeg(int width, int height) throws IOException {
+        BufferedImage image= new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y= 0; y < height; y++) {
+            for (int x= 0; x < width; x++) {
+                image.setRGB(x, y, (x * 6) << 16 | (y * 8) << 8 | 128);
+            }
+        }
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    static void writeFile(File file, byte[] data) throws IOException {
+        OutputStream out= new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
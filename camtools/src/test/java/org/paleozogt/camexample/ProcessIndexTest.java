@@ -0,0 +1,148 @@
+package org.paleozogt.camexample;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ProcessIndexTest {
+    @Rule
+    public TemporaryFolder _temp= new TemporaryFolder();
+
+    @Test
+    public void remembersWhatWasProcessedAcrossRuns() throws IOException {
+        File file= new File(_temp.getRoot(), "index.tsv");
+        ProcessIndex index= new ProcessIndex(file);
+        index.record(entry("a.jpg", 100, 1000));
+        index.record(entry("b.camraw#0", 5000, 2000));
+        index.record(entry("b.camraw#1", 5000, 2000));
+        index.close();
+
+        ProcessIndex reloaded= new ProcessIndex(file);
+        assertEquals(3, reloaded.size());
+        assertTrue(reloaded.isCurrent("a.jpg", 100, 1000));
+        assertTrue(reloaded.isCurrent("b.camraw#1", 5000, 2000));
+        // a capture replaced since, whether its size or its time gives it away
+        assertFalse(reloaded.isCurrent("a.jpg", 101, 1000));
+        assertFalse(reloaded.isCurrent("a.jpg", 100, 1001));
+        assertFalse(reloaded.isCurrent("c.jpg", 100, 1000));
+        assertEquals("thumbs/b.camraw#0.jpg", reloaded.getEntries().get(1).thumbnail);
+    }
+
+    @Test
+    public void laterLinesOverrideEarlierOnes() throws IOException {
+        File file= new File(_temp.getRoot(), "index.tsv");
+        ProcessIndex index= new ProcessIndex(file);
+        index.record(entry("a.jpg", 100, 1000));
+        index.record(entry("a.jpg", 200, 3000));
+        index.close();
+
+        ProcessIndex reloaded= new ProcessIndex(file);
+        assertEquals(1, reloaded.size());
+        assertTrue(reloaded.isCurrent("a.jpg", 200, 3000));
+    }
+
+    @Test
+    public void ignoresALineCutShort() throws IOException {
+        File file= new File(_temp.getRoot(), "index.tsv");
+        ProcessIndex index= new ProcessIndex(file);
+        index.record(entry("a.jpg", 100, 1000));
+        index.close();
+        // as though the run died halfway through writing a line
+        String whole= entry("b.jpg", 200, 2000).toLine();
+        append(file, whole.substring(0, whole.lastIndexOf('\t')));
+
+        index= new ProcessIndex(file);
+        assertEquals(1, index.size());
+        assertFalse(index.isCurrent("b.jpg", 200, 2000));
+
+        // the next line recorded starts a line of its own rather than finishing the broken one
+        index.record(entry("c.jpg", 300, 3000));
+        index.close();
+        ProcessIndex reloaded= new ProcessIndex(file);
+        assertEquals(2, reloaded.size());
+        assertTrue(reloaded.isCurrent("c.jpg", 300, 3000));
+    }
+
+    @Test
+    public void compactsToTheCurrentEntries() throws IOException {
+        File file= new File(_temp.getRoot(), "index.tsv");
+        ProcessIndex index= new ProcessIndex(file);
+        for (int run= 0; run < 3; run++) {
+            index.record(entry("a.jpg", 100 + run, 1000));
+            index.record(entry("b.jpg", 100, 1000 + run));
+        }
+        index.record(entry("deleted.jpg", 1, 1));
+        index.retainAll(Arrays.asList("a.jpg", "b.jpg"));
+        index.compact();
+
+        assertEquals(ProcessIndex.HEADER + "\n" + entry("a.jpg", 102, 1000).toLine() + "\n"
+                + entry("b.jpg", 100, 1002).toLine() + "\n", read(file));
+        assertEquals(Arrays.asList("index.tsv"), Arrays.asList(_temp.getRoot().list()));
+
+        // and the compacted index carries on journaling
+        index.record(entry("c.jpg", 1, 1));
+        index.close();
+        assertEquals(3, new ProcessIndex(file).size());
+    }
+
+    @Test
+    public void recoversFromACompactionCutShort() throws IOException {
+        File file= new File(_temp.getRoot(), "index.tsv");
+        ProcessIndex index= new ProcessIndex(file);
+        index.record(entry("a.jpg", 100, 1000));
+        index.close();
+        // stopped after moving the old index aside, before the new one took its place
+        assertTrue(file.renameTo(ProcessIndex.backupFile(file)));
+        append(new File(file.getPath() + ".tmp"), ProcessIndex.HEADER);
+
+        ProcessIndex reloaded= new ProcessIndex(file);
+        assertTrue(reloaded.isCurrent("a.jpg", 100, 1000));
+        assertTrue(file.exists());
+        assertFalse(ProcessIndex.backupFile(file).exists());
+        reloaded.compact();
+        assertEquals(Arrays.asList("index.tsv"), Arrays.asList(_temp.getRoot().list()));
+    }
+
+    @Test
+    public void skipsLinesInAnOlderLayout() throws IOException {
+        File file= new File(_temp.getRoot(), "index.tsv");
+        append(file, "# key\tsize\tmodified\toutput\n" + "a.jpg\t100\t1000\ta.jpg\n");
+        assertEquals(0, new ProcessIndex(file).size());
+    }
+
+    static ProcessIndex.Entry entry(String key, long size, long modified) {
+        return new ProcessIndex.Entry(key, size, modified, "out/" + key, "thumbs/" + key + ".jpg", 640, 480, 12345, false);
+    }
+
+    static void append(File file, String text) throws IOException {
+        OutputStream out= new FileOutputStream(file, true);
+        try {
+            out.write(text.getBytes(ProcessIndex.CHARSET));
+        } finally {
+            out.close();
+        }
+    }
+
+    static String read(File file) throws IOException {
+        byte[] data= new byte[(int)file.length()];
+        DataInputStream in= new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return new String(data, ProcessIndex.CHARSET);
+    }
+}